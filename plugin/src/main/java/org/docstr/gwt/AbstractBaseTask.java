@@ -1,17 +1,24 @@
 package org.docstr.gwt;
 
 import org.gradle.api.GradleException;
+import org.gradle.api.JavaVersion;
 import org.gradle.api.Project;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.process.CommandLineArgumentProvider;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.docstr.gwt.ArgumentListUtils.*;
@@ -22,80 +29,271 @@ import static org.docstr.gwt.GwtSuperDevTask.CODE_SERVER_CLASS;
  */
 public abstract class AbstractBaseTask extends JavaExec {
 
+  private static final String SHARED_ARCHIVE_FILE = "-XX:SharedArchiveFile=";
+
+  // The unit cache directory the forked JVM uses instead of the configured
+  // one, i.e. an overlay while leased or a namespace
+  private File unitCacheDir;
+
+  private static final Set<String> CODE_SERVER_UNSUPPORTED_ARGS = Set.of(
+      "gen", "war", "deploy", "extra");
+
   /**
    * Constructs a new AbstractBaseTask.
    */
   public AbstractBaseTask() {
+    // Named classes rather than lambdas, so Gradle can track the providers
+    // as nested inputs. The paths they pass are tracked by the annotated
+    // task properties instead, relative to their roots.
+    getArgumentProviders().add(new GwtArgumentProvider());
+    getJvmArgumentProviders().add(new UnitCacheArgumentProvider());
+  }
 
-    getArgumentProviders().add(() -> {
-      List<String> args = new ArrayList<>();
-
-      addStringArg(args, "logLevel", getLogLevel());
-
-      addStringArg(args, "workDir", getWorkDir());
-
-      if (!isCodeServerTask()) {
-        addStringArg(args, "gen", getGen());
-      }
-
-      if (!isCodeServerTask()) {
-        addStringArg(args, "war", getWar());
-      }
-
-      if (!isCodeServerTask()) {
-        addStringArg(args, "deploy", getDeploy());
-      }
-
-      if (!isCodeServerTask()) {
-        addStringArg(args, "extra", getExtra());
+  @Override
+  public void exec() {
+    applyHeapTelemetry();
+    try (GwtMemoryBudgetService.Lease lease = acquireMemory();
+        UnitCacheLease unitCache = acquireUnitCache()) {
+      useAppCdsArchive();
+      prepareExec();
+      useArgumentFile();
+      GwtHeapTelemetry telemetry = startHeapTelemetry();
+      try {
+        super.exec();
+      } finally {
+        recordHeapTelemetry(telemetry);
       }
+    }
+  }
 
-      addStringArg(args, "sourceLevel", getSourceLevel());
+  /**
+   * Hands the forked JVM an overlay of the shared unit cache directory,
+   * which is merged back when the returned lease is closed.
+   *
+   * @return The lease, to be closed once the JVM exited
+   */
+  protected UnitCacheLease acquireUnitCache() {
+    if (isCodeServerTask() || !getCacheDir().isPresent()
+        || !getUnitCacheService().isPresent()) {
+      return () -> { };
+    }
+    GwtUnitCacheService.Lease lease = getUnitCacheService().get()
+        .acquire(getPath(), sharedUnitCacheDir());
+    unitCacheDir = lease.getDir();
+    return () -> {
+      unitCacheDir = null;
+      lease.close();
+    };
+  }
 
-      addStringArg(args, "XmethodNameDisplayMode", getMethodNameDisplayMode());
+  /**
+   * Hands the forked JVM the shared unit cache directory directly, in its
+   * namespace if the unit cache is namespaced.
+   */
+  protected void useSharedUnitCache() {
+    if (!isCodeServerTask() && getCacheDir().isPresent()) {
+      unitCacheDir = sharedUnitCacheDir();
+    }
+  }
 
-      addBooleanArg(args, "generateJsInteropExports", getGenerateJsInteropExports());
+  /**
+   * The shared unit cache directory, or the directory of the namespace for
+   * the GWT version and arguments of this task if the unit cache is
+   * namespaced.
+   *
+   * @return The shared unit cache directory
+   */
+  private File sharedUnitCacheDir() {
+    File cacheDir = getCacheDir().get().getAsFile();
+    if (!getUnitCacheNamespaces().isPresent() || !getUnitCacheService().isPresent()) {
+      return cacheDir;
+    }
+    List<String> args = new ArrayList<>(getArgs());
+    getArgumentProviders().forEach(provider -> provider.asArguments().forEach(args::add));
+    String namespace = GwtUnitCacheService.namespace(getGwtVersion().getOrNull(), args);
+    getLogger().info("{}: using unit cache namespace {}", getPath(), namespace);
+    return getUnitCacheService().get().namespaceDir(cacheDir, namespace,
+        getUnitCacheNamespaces().get());
+  }
 
-      addListArg(args, "includeJsInteropExports", getIncludeJsInteropExports());
-      addListArg(args, "excludeJsInteropExports", getExcludeJsInteropExports());
+  /**
+   * A unit cache overlay, merged back when closed.
+   */
+  protected interface UnitCacheLease extends AutoCloseable {
 
-      addStringArg(args, "style", getStyle());
+    @Override
+    void close();
+  }
 
-      addBooleanArg(args, "failOnError", getFailOnError());
+  /**
+   * Sets the maximum heap size from the heap usage of the last run, if
+   * {@link #getAutoHeapSize()} is set and there is telemetry of a previous
+   * run.
+   */
+  protected void applyHeapTelemetry() {
+    if (!getAutoHeapSize().getOrElse(false) || !getHeapTelemetryFile().isPresent()) {
+      return;
+    }
+    heapTelemetry().read().ifPresent(usage -> {
+      String maxHeapSize = usage.recommendedHeapMb() + "m";
+      if (!maxHeapSize.equals(getMaxHeapSize())) {
+        getLogger().lifecycle("{}: using -Xmx{} from the heap usage of the last run"
+            + " ({}M left after GC)", getPath(), maxHeapSize, usage.liveHeapMb());
+        setMaxHeapSize(maxHeapSize);
+      }
+    });
+  }
 
-      addListArg(args, "setProperty", getSetProperty());
+  private GwtHeapTelemetry startHeapTelemetry() {
+    boolean enabled = getHeapTelemetry().getOrElse(false)
+        || getAutoHeapSize().getOrElse(false);
+    if (!enabled || !getHeapTelemetryFile().isPresent() || !forkedJvmIsAtLeast(9)) {
+      return null;
+    }
+    GwtHeapTelemetry telemetry = heapTelemetry();
+    if (!getJvmArgs().containsAll(telemetry.jvmArgs())) {
+      jvmArgs(telemetry.jvmArgs());
+    }
+    return telemetry;
+  }
 
-      addBooleanArg(args, "incremental", getIncremental());
+  private void recordHeapTelemetry(GwtHeapTelemetry telemetry) {
+    if (telemetry == null) {
+      return;
+    }
+    try {
+      telemetry.record().ifPresent(usage -> GwtHeapTelemetry.report(usage, getPath(),
+          getAutoHeapSize().getOrElse(false) ? null : getMaxHeapSize(), getLogger()));
+    } catch (IOException e) {
+      getLogger().warn("{}: unable to record the heap usage: {}", getPath(), e.getMessage());
+    }
+  }
 
-      args.addAll(getModules().get());
+  private GwtHeapTelemetry heapTelemetry() {
+    return new GwtHeapTelemetry(new File(getTemporaryDir(), "gc"),
+        getHeapTelemetryFile().get().getAsFile());
+  }
 
-      return args;
-    });
+  /**
+   * Starts the forked JVM with the AppCDS archive made by
+   * {@link GwtAppCdsTask} for its Java runtime and GWT jars, if there is
+   * one. The JVM only uses an archive if the classpath starts with the one
+   * the archive was made with, so the GWT jars are moved to the front of the
+   * classpath, unless that would shadow a class or resource of a project
+   * entry, e.g. a patched GWT class. Then the archive is not used.
+   */
+  protected void useAppCdsArchive() {
+    if (!getAppCds().getOrElse(false) || !getAppCdsDir().isPresent()
+        || getJvmArgs().stream().anyMatch(arg -> arg.startsWith(SHARED_ARCHIVE_FILE))) {
+      return;
+    }
+    JavaLauncher launcher = getJavaLauncher().getOrNull();
+    Set<File> gwtDev = getGwtDevRuntimeClasspath().getFiles();
+    File archive = GwtAppCdsTask.archiveFile(getAppCdsDir().get().getAsFile(),
+        GwtAppCdsTask.javaExecutable(launcher), GwtAppCdsTask.javaRuntimeVersion(launcher),
+        gwtDev);
+    if (!archive.isFile()) {
+      getLogger().info("No AppCDS archive for this JVM and GWT version, run gwtAppCds first");
+      return;
+    }
+    List<File> classpath = List.copyOf(getClasspath().getFiles());
+    if (!GwtAppCdsTask.startsWithGwtDev(classpath, gwtDev)) {
+      String shadowed = GwtAppCdsTask.shadowedEntry(classpath, gwtDev);
+      if (shadowed != null) {
+        getLogger().warn("{}: not using the AppCDS archive, as moving the GWT jars to the front"
+            + " of the classpath would shadow {}", getPath(), shadowed);
+        return;
+      }
+      getLogger().info("Moving the GWT jars to the front of the classpath to use the AppCDS archive");
+      setClasspath(getObjectFactory().fileCollection().from(
+          GwtAppCdsTask.gwtDevFirst(classpath, gwtDev)));
+    }
+    jvmArgs(SHARED_ARCHIVE_FILE + archive.getAbsolutePath());
+  }
 
+  /**
+   * Moves the classpath of the forked JVM into an {@code @argfile}, so its
+   * command line stays short however many dependencies there are. The file
+   * is only rewritten when the classpath changes.
+   */
+  protected void useArgumentFile() {
+    if (getClasspath().isEmpty() || !supportsArgumentFiles()) {
+      return;
+    }
+    File argumentFile = ArgumentFileUtils.write(getTemporaryDir(),
+        List.of("-cp", getClasspath().getAsPath()));
+    getLogger().info("classpath argument file: {}", argumentFile);
+    setClasspath(getObjectFactory().fileCollection());
+    jvmArgs("@" + argumentFile.getAbsolutePath());
+  }
 
-    getJvmArgumentProviders().add(() -> {
-      List<String> jvmArgs = new ArrayList<>();
+  /**
+   * Whether the java launcher of the forked JVM expands {@code @argfiles},
+   * which needs Java 9 or later
+   *
+   * @return {@code true} if argument files are supported
+   */
+  protected boolean supportsArgumentFiles() {
+    return forkedJvmIsAtLeast(9);
+  }
 
-      if (!isCodeServerTask() && getCacheDir().isPresent()) {
-        jvmArgs.add("-Dgwt.persistentunitcachedir=" + getCacheDir().get().getAsFile().getPath());
-      }
+  /**
+   * Whether the forked JVM runs the given Java version or a later one
+   *
+   * @param version The Java language version
+   * @return {@code true} if the forked JVM runs this version or a later one
+   */
+  protected boolean forkedJvmIsAtLeast(int version) {
+    if (getJavaLauncher().isPresent()) {
+      return getJavaLauncher().get().getMetadata().getLanguageVersion()
+          .canCompileOrRun(version);
+    }
+    return JavaVersion.current().isCompatibleWith(JavaVersion.toVersion(version));
+  }
 
-      return jvmArgs;
+  /**
+   * Leases the maximum heap of the forked JVMs from the build-wide memory
+   * budget, waiting until it fits.
+   *
+   * @return The lease, to be closed once the JVM exited
+   */
+  protected GwtMemoryBudgetService.Lease acquireMemory() {
+    if (!getMemoryBudget().isPresent()) {
+      return () -> { };
+    }
+    // Without -Xmx, the JVM takes a quarter of the physical memory
+    long heapMb = getMaxHeapSize() != null
+        ? GwtMemoryBudgetService.parseMemoryMb(getMaxHeapSize())
+        : GwtAutoSizer.physicalMemoryMb() / 4;
+    return getMemoryBudget().get().acquire(getPath(), heapMb * forkedJvms());
+  }
 
-    });
+  /**
+   * The number of JVMs with the maximum heap of this task that run at the
+   * same time.
+   *
+   * @return The number of JVMs
+   */
+  protected int forkedJvms() {
+    return 1;
   }
 
-  @Override
-  public void exec() {
+  /**
+   * Creates the output directories and logs the resolved command line.
+   * Called before the GWT main class is launched, whichever way it is
+   * launched.
+   */
+  protected void prepareExec() {
     // Ensure the war directory exists before executing
-    if (!isCodeServerTask() && getWar().isPresent()) {
-      if (!getWar().get().getAsFile().exists()) {
-        boolean mkdirs = getWar().get().getAsFile().mkdirs();
-        if (!mkdirs) {
-          throw new GradleException(
-              "Failed to create war directory: " + getWar().get().getAsFile());
-        }
-      }
+    if (acceptsArg("war")) {
+      createDirectory("war", getWar());
+    }
+    // Not outputs, so Gradle does not create them
+    if (acceptsArg("workDir")) {
+      createDirectory("work", getWorkDir());
+    }
+    if (!isCodeServerTask()) {
+      createDirectory("cache", getCacheDir());
     }
 
     // Log the classpath and args
@@ -104,14 +302,50 @@ public abstract class AbstractBaseTask extends JavaExec {
     log.info("classpath: {}", getClasspath().getAsPath());
     log.info("allJvmArgs: {}", getAllJvmArgs().stream().map(arg -> "\"" + arg + "\"").collect(Collectors.joining(", ")));
     log.info("main: {}", getMainClass().get());
-    log.info("args: {}", getArgs().stream().map(arg -> "\"" + arg + "\"").collect(Collectors.joining(", ")));
-    super.exec();
+    log.info("args: {}", getAllArguments().stream().map(arg -> "\"" + arg + "\"").collect(Collectors.joining(", ")));
+  }
+
+  private static void createDirectory(String name, DirectoryProperty dir) {
+    if (dir.isPresent() && !dir.get().getAsFile().exists()) {
+      boolean mkdirs = dir.get().getAsFile().mkdirs();
+      if (!mkdirs) {
+        throw new GradleException(
+            "Failed to create " + name + " directory: " + dir.get().getAsFile());
+      }
+    }
+  }
+
+  /**
+   * The arguments passed to the main class, in the same order as
+   * {@link JavaExec} passes them: plain args first, then the arguments of
+   * the argument providers.
+   *
+   * @return The program arguments
+   */
+  @Internal
+  protected List<String> getAllArguments() {
+    List<String> allArgs = new ArrayList<>(getArgs());
+    getArgumentProviders().forEach(provider -> provider.asArguments().forEach(allArgs::add));
+    return allArgs;
   }
 
   private boolean isCodeServerTask() {
     return CODE_SERVER_CLASS.equals(getMainClass().get());
   }
 
+  /**
+   * Whether the main class of this task accepts the given command line
+   * argument. Arguments that are not accepted are not passed, even when the
+   * corresponding property is set.
+   *
+   * @param argName The argument name, without the leading dash
+   * @return {@code true} if the argument is passed to the main class
+   */
+  protected boolean acceptsArg(String argName) {
+    // The code server manages its own output directories
+    return !isCodeServerTask() || !CODE_SERVER_UNSUPPORTED_ARGS.contains(argName);
+  }
+
   /**
    * The level of logging detail: ERROR, WARN, INFO, TRACE, DEBUG, SPAM or ALL
    * (defaults to INFO)
@@ -123,12 +357,12 @@ public abstract class AbstractBaseTask extends JavaExec {
 
   /**
    * The compiler's working directory for internal use (must be writeable;
-   * defaults to a system temp dir)
+   * defaults to a system temp dir). Scratch space, so not part of the task
+   * outputs.
    *
    * @return The working directory
    */
-  @OutputDirectory
-  @Optional
+  @Internal
   public abstract DirectoryProperty getWorkDir();
 
   /**
@@ -173,12 +407,12 @@ public abstract class AbstractBaseTask extends JavaExec {
   public abstract DirectoryProperty getExtra();
 
   /**
-   * The directory to use for the persistent unit cache
+   * The directory to use for the persistent unit cache. It only speeds up
+   * the compiler, so it is neither part of the task outputs nor cached.
    *
    * @return The cache directory
    */
-  @OutputDirectory
-  @Optional
+  @Internal
   public abstract DirectoryProperty getCacheDir();
 
   /**
@@ -284,6 +518,126 @@ public abstract class AbstractBaseTask extends JavaExec {
   @Optional
   public abstract ConfigurableFileCollection getExtraSourceDirs();
 
+  /**
+   * The build-wide memory budget the forked JVM is leased from
+   *
+   * @return The memory budget service
+   */
+  @Internal
+  public abstract Property<GwtMemoryBudgetService> getMemoryBudget();
+
+  /**
+   * The build-wide resolver of module graphs
+   *
+   * @return The module graph service
+   */
+  @Internal
+  public abstract Property<GwtModuleGraphService> getModuleGraphService();
+
+  /**
+   * The build-wide coordinator of the shared unit cache directories
+   *
+   * @return The unit cache service
+   */
+  @Internal
+  public abstract Property<GwtUnitCacheService> getUnitCacheService();
+
+  /**
+   * The number of unit cache namespaces to keep, if the unit cache is split
+   * per GWT version, source level and cache relevant compiler flags
+   *
+   * @return The number of namespaces
+   */
+  @Internal
+  public abstract Property<Integer> getUnitCacheNamespaces();
+
+  /**
+   * The GWT version the classpath was resolved for
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<String> getGwtVersion();
+
+  /**
+   * Whether the forked JVM uses the AppCDS archive of the GWT jars
+   *
+   * @return The AppCDS flag
+   */
+  @Internal
+  public abstract Property<Boolean> getAppCds();
+
+  /**
+   * The directory holding the AppCDS archives made by {@link GwtAppCdsTask}
+   *
+   * @return The archive directory
+   */
+  @Internal
+  public abstract DirectoryProperty getAppCdsDir();
+
+  /**
+   * Whether the heap usage of the forked JVM is recorded from its GC log
+   *
+   * @return The heap telemetry flag
+   */
+  @Internal
+  public abstract Property<Boolean> getHeapTelemetry();
+
+  /**
+   * Whether the maximum heap size is taken from the heap usage of the last
+   * run
+   *
+   * @return The auto heap size flag
+   */
+  @Internal
+  public abstract Property<Boolean> getAutoHeapSize();
+
+  /**
+   * The file holding the heap usage of the last run
+   *
+   * @return The telemetry file
+   */
+  @Internal
+  public abstract RegularFileProperty getHeapTelemetryFile();
+
+  /**
+   * The source directories the GWT modules of the project are looked up in
+   *
+   * @return The module source directories
+   */
+  @Internal
+  public abstract ConfigurableFileCollection getModuleSourceDirs();
+
+  /**
+   * The modules reachable from {@link #getModules()} through
+   * {@code <inherits>}, in the project sources and on the classpath.
+   * Resolved when called; descriptors are parsed once per build.
+   *
+   * @return The module graph
+   */
+  @Internal
+  public GwtModuleGraph getModuleGraph() {
+    return getModuleGraphService().get().resolve(getModuleSourceDirs().getFiles(),
+        getClasspath().getFiles(), getModules().get());
+  }
+
+  /**
+   * The files the compiler reads from the project modules in the
+   * {@link #getModuleGraph() module graph}, following the include, exclude
+   * and skip patterns of their path elements
+   *
+   * @return The module sources
+   */
+  @InputFiles
+  @IgnoreEmptyDirectories
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public FileCollection getModuleSources() {
+    if (!getModuleGraphService().isPresent() || getModules().get().isEmpty()) {
+      return getObjectFactory().fileCollection();
+    }
+    return getModuleGraph().sourceTrees(getObjectFactory());
+  }
+
   /**
    * The GWT dev runtime classpath
    *
@@ -315,6 +669,9 @@ public abstract class AbstractBaseTask extends JavaExec {
       allSourcePaths = allSourcePaths.plus(getExtraSourceDirs());
     }
 
+    // The project modules are looked up in the source directories
+    getModuleSourceDirs().from(allSourcePaths);
+
     // Set up the GWT dev runtime classpath
     getGwtDevRuntimeClasspath().from(
         project.getConfigurations().getByName(GwtPlugin.GWT_DEV_RUNTIME_CLASSPATH_CONFIGURATION_NAME)
@@ -337,4 +694,95 @@ public abstract class AbstractBaseTask extends JavaExec {
   public void configureArgs() {
     getLogger().warn("{}.configureArgs() is deprecated", AbstractBaseTask.class.getName());
   }
+
+  /**
+   * Passes the options shared by the GWT tools.
+   */
+  private final class GwtArgumentProvider implements CommandLineArgumentProvider {
+
+    @Override
+    public Iterable<String> asArguments() {
+      List<String> args = new ArrayList<>();
+
+      if (acceptsArg("logLevel")) {
+        addStringArg(args, "logLevel", getLogLevel());
+      }
+
+      if (acceptsArg("workDir")) {
+        addStringArg(args, "workDir", getWorkDir());
+      }
+
+      if (acceptsArg("gen")) {
+        addStringArg(args, "gen", getGen());
+      }
+
+      if (acceptsArg("war")) {
+        addStringArg(args, "war", getWar());
+      }
+
+      if (acceptsArg("deploy")) {
+        addStringArg(args, "deploy", getDeploy());
+      }
+
+      if (acceptsArg("extra")) {
+        addStringArg(args, "extra", getExtra());
+      }
+
+      if (acceptsArg("sourceLevel")) {
+        addStringArg(args, "sourceLevel", getSourceLevel());
+      }
+
+      if (acceptsArg("XmethodNameDisplayMode")) {
+        addStringArg(args, "XmethodNameDisplayMode", getMethodNameDisplayMode());
+      }
+
+      if (acceptsArg("generateJsInteropExports")) {
+        addBooleanArg(args, "generateJsInteropExports", getGenerateJsInteropExports());
+      }
+
+      if (acceptsArg("includeJsInteropExports")) {
+        addListArg(args, "includeJsInteropExports", getIncludeJsInteropExports());
+      }
+      if (acceptsArg("excludeJsInteropExports")) {
+        addListArg(args, "excludeJsInteropExports", getExcludeJsInteropExports());
+      }
+
+      if (acceptsArg("style")) {
+        addStringArg(args, "style", getStyle());
+      }
+
+      if (acceptsArg("failOnError")) {
+        addBooleanArg(args, "failOnError", getFailOnError());
+      }
+
+      if (acceptsArg("setProperty")) {
+        addListArg(args, "setProperty", getSetProperty());
+      }
+
+      if (acceptsArg("incremental")) {
+        addBooleanArg(args, "incremental", getIncremental());
+      }
+
+      args.addAll(getModules().get());
+
+      return args;
+    }
+  }
+
+  /**
+   * Points the GWT tools to the persistent unit cache.
+   */
+  private final class UnitCacheArgumentProvider implements CommandLineArgumentProvider {
+
+    @Override
+    public Iterable<String> asArguments() {
+      if (!isCodeServerTask() && getCacheDir().isPresent()) {
+        File cacheDir = unitCacheDir != null
+            ? unitCacheDir
+            : getCacheDir().get().getAsFile();
+        return List.of("-Dgwt.persistentunitcachedir=" + cacheDir.getPath());
+      }
+      return List.of();
+    }
+  }
 }
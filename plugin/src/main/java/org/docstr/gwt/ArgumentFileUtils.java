@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.experimental.UtilityClass;
+import org.gradle.api.GradleException;
+
+/**
+ * Utility-Methods for passing JVM options through {@code @argfiles}, which
+ * the {@code java} launcher of Java 9 and later expands in place.
+ * <p>
+ * Keeps the command line of forked JVMs short, however long the classpath
+ * is, so spawning the process and parsing its command line stay fast.
+ */
+@UtilityClass
+public class ArgumentFileUtils {
+
+  // The launcher reads argument files in the platform encoding
+  private static final Charset NATIVE_CHARSET = Charset.forName(
+      System.getProperty("native.encoding", Charset.defaultCharset().name()));
+
+  /**
+   * Writes the given JVM options to an argument file in a directory, unless
+   * a file with the same options already exists there. The file name is
+   * derived from the options, so unchanged options reuse the file of a
+   * previous run.
+   *
+   * @param dir     The directory holding the argument files
+   * @param options The JVM options
+   * @return The argument file
+   */
+  static File write(File dir, List<String> options) {
+    String content = options.stream()
+        .map(ArgumentFileUtils::quote)
+        .collect(Collectors.joining(System.lineSeparator(), "", System.lineSeparator()));
+    Path file = dir.toPath().resolve("jvm-" + HashUtils.sha256(content) + ".args");
+    if (Files.isRegularFile(file)) {
+      return file.toFile();
+    }
+    try {
+      // Write to a temporary file first, so concurrent launches never read a
+      // partial file
+      Files.createDirectories(dir.toPath());
+      Path tmpFile = Files.createTempFile(dir.toPath(), file.getFileName().toString(), ".tmp");
+      Files.writeString(tmpFile, content, NATIVE_CHARSET);
+      Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new GradleException("Failed to write argument file " + file, e);
+    }
+    return file.toFile();
+  }
+
+  /**
+   * Quotes an option for an argument file, where a backslash escapes the
+   * next character inside quotes.
+   *
+   * @param option The option
+   * @return The quoted option
+   */
+  static String quote(String option) {
+    return '"' + option.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+  }
+}
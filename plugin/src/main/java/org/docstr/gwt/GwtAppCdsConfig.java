@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.jvm.toolchain.JavaToolchainService;
+
+/**
+ * Configures the task creating the AppCDS archive of the GWT jars.
+ */
+public class GwtAppCdsConfig implements Action<GwtAppCdsTask> {
+
+  /**
+   * Constructor.
+   */
+  public GwtAppCdsConfig() {
+  }
+
+  @Override
+  public void execute(GwtAppCdsTask task) {
+    Project project = task.getProject();
+    task.getGwtDevRuntimeClasspath().from(project.getConfigurations()
+        .getByName(GwtPlugin.GWT_DEV_RUNTIME_CLASSPATH_CONFIGURATION_NAME));
+    // Same JVM as the GWT tasks, which default to the toolchain of the project
+    JavaToolchainService toolchains = project.getExtensions()
+        .getByType(JavaToolchainService.class);
+    JavaPluginExtension java = project.getExtensions()
+        .getByType(JavaPluginExtension.class);
+    task.getJavaLauncher().convention(toolchains.launcherFor(java.getToolchain()));
+    task.getArchiveDir().set(archiveDir(project));
+  }
+
+  /**
+   * The directory holding the AppCDS archives, shared by all projects of the
+   * build
+   *
+   * @param project The project
+   * @return The archive directory
+   */
+  static File archiveDir(Project project) {
+    return new File(GwtPlugin.projectCacheDir(project), GwtAppCdsTask.ARCHIVE_DIR);
+  }
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.JavaVersion;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+
+/**
+ * Creates a dynamic AppCDS archive of the classes the GWT tools load from
+ * the GWT dev runtime classpath, e.g. gwt-dev, gwt-user and JDT.
+ * <p>
+ * The archive is made by a training run of the GWT compiler validating
+ * {@code com.google.gwt.user.User}, which loads the module loader, JDT and
+ * the type oracle shared by the compiler, the code server and dev mode.
+ * Archives are keyed by the Java runtime and the GWT jars, so an archive is
+ * only made once per JDK and GWT version, and the GWT tasks only use an
+ * archive made for their own JVM and classpath.
+ * <p>
+ * A JVM can only use an archive if its classpath starts with the classpath
+ * the archive was made with. The GWT tasks move the GWT jars to the front
+ * of their classpath to use an archive, unless a project entry provides a
+ * class or resource the GWT jars also provide, in which case they run
+ * without the archive.
+ */
+@UntrackedTask(because = "The archive is keyed by the Java runtime and the GWT classpath")
+public abstract class GwtAppCdsTask extends DefaultTask {
+
+  static final String ARCHIVE_DIR = "gwt/appcds";
+
+  private static final String TRAINING_MAIN_CLASS = "com.google.gwt.dev.Compiler";
+  private static final String TRAINING_MODULE = "com.google.gwt.user.User";
+
+  /**
+   * The GWT dev runtime classpath the archive is made for
+   *
+   * @return The GWT dev runtime classpath
+   */
+  @Classpath
+  public abstract ConfigurableFileCollection getGwtDevRuntimeClasspath();
+
+  /**
+   * The JVM the archive is made with, the current JVM if not set
+   *
+   * @return The java launcher
+   */
+  @Nested
+  @Optional
+  public abstract Property<JavaLauncher> getJavaLauncher();
+
+  /**
+   * The directory holding the archives
+   *
+   * @return The archive directory
+   */
+  @Internal
+  public abstract DirectoryProperty getArchiveDir();
+
+  /**
+   * The Gradle exec operations, running the training JVM.
+   *
+   * @return The exec operations
+   */
+  @Inject
+  protected abstract ExecOperations getExecOperations();
+
+  /**
+   * Runs the training JVM, unless an archive for the Java runtime and the
+   * GWT classpath already exists.
+   */
+  @TaskAction
+  public void createArchive() {
+    JavaLauncher launcher = getJavaLauncher().getOrNull();
+    if (launcher != null
+        ? !launcher.getMetadata().getLanguageVersion().canCompileOrRun(13)
+        : !JavaVersion.current().isCompatibleWith(JavaVersion.VERSION_13)) {
+      getLogger().warn("{}: dynamic AppCDS archives need Java 13 or later, skipping",
+          getPath());
+      return;
+    }
+
+    File archive = archiveFile(getArchiveDir().get().getAsFile(),
+        javaExecutable(launcher), javaRuntimeVersion(launcher),
+        getGwtDevRuntimeClasspath().getFiles());
+    if (archive.isFile()) {
+      getLogger().info("{}: {} is up to date", getPath(), archive);
+      return;
+    }
+
+    Path trainingDir = getTemporaryDir().toPath();
+    Path trainingArchive = trainingDir.resolve(archive.getName());
+    try {
+      Files.deleteIfExists(trainingArchive);
+    } catch (IOException e) {
+      throw new GradleException("Failed to delete " + trainingArchive, e);
+    }
+
+    getLogger().lifecycle("Creating AppCDS archive {}", archive);
+    ExecResult result = getExecOperations().javaexec(spec -> {
+      spec.setExecutable(javaExecutable(launcher));
+      spec.setClasspath(getGwtDevRuntimeClasspath());
+      spec.getMainClass().set(TRAINING_MAIN_CLASS);
+      spec.jvmArgs("-XX:ArchiveClassesAtExit=" + trainingArchive);
+      spec.args("-validateOnly", "-logLevel", "ERROR",
+          "-war", trainingDir.resolve("war").toString(),
+          "-workDir", trainingDir.resolve("work").toString(),
+          TRAINING_MODULE);
+      // The archive is dumped whatever the outcome of the training run
+      spec.setIgnoreExitValue(true);
+    });
+    if (!Files.isRegularFile(trainingArchive)) {
+      getLogger().warn("{}: the training run (exit value {}) did not create an AppCDS archive",
+          getPath(), result.getExitValue());
+      return;
+    }
+
+    try {
+      Files.createDirectories(archive.getParentFile().toPath());
+      Files.move(trainingArchive, archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new GradleException("Failed to store AppCDS archive " + archive, e);
+    }
+  }
+
+  /**
+   * The archive for a Java runtime and a GWT classpath. The sizes and
+   * modification times of the GWT jars are part of the key, as the JVM
+   * refuses archives made with other jars.
+   *
+   * @param dir                The directory holding the archives
+   * @param javaExecutable     The java executable
+   * @param javaRuntimeVersion The full version of the Java runtime
+   * @param classpath          The GWT dev runtime classpath
+   * @return The archive file, which may not exist
+   */
+  static File archiveFile(File dir, String javaExecutable, String javaRuntimeVersion,
+      Collection<File> classpath) {
+    StringBuilder key = new StringBuilder()
+        .append(javaExecutable).append('\n')
+        .append(javaRuntimeVersion).append('\n');
+    for (File entry : classpath) {
+      key.append(entry.getAbsolutePath()).append('|').append(entry.length())
+          .append('|').append(entry.lastModified()).append('\n');
+    }
+    return new File(dir, "gwt-" + HashUtils.sha256(key.toString()) + ".jsa");
+  }
+
+  /**
+   * Whether a classpath already starts with the GWT dev runtime classpath the
+   * archive was made with.
+   *
+   * @param classpath The classpath
+   * @param gwtDev    The GWT dev runtime classpath
+   * @return {@code true} if the archive can be used as is
+   */
+  static boolean startsWithGwtDev(List<File> classpath, Collection<File> gwtDev) {
+    return classpath.size() >= gwtDev.size()
+        && classpath.subList(0, gwtDev.size()).equals(new ArrayList<>(gwtDev));
+  }
+
+  /**
+   * Reorders a classpath so it starts with the GWT dev runtime classpath the
+   * archive was made with.
+   *
+   * @param classpath The classpath
+   * @param gwtDev    The GWT dev runtime classpath
+   * @return The reordered classpath
+   */
+  static List<File> gwtDevFirst(Collection<File> classpath, Collection<File> gwtDev) {
+    Set<File> reordered = new LinkedHashSet<>(gwtDev);
+    reordered.addAll(classpath);
+    return new ArrayList<>(reordered);
+  }
+
+  /**
+   * Finds a class or resource of a classpath entry that a GWT jar after it
+   * also provides, e.g. a patched GWT or JDT class, which
+   * {@link #gwtDevFirst moving the GWT jars to the front} would shadow.
+   * Entries below {@code META-INF/} are not compared.
+   *
+   * @param classpath The classpath
+   * @param gwtDev    The GWT dev runtime classpath
+   * @return The shadowed entry and where it comes from, or {@code null}
+   */
+  static String shadowedEntry(List<File> classpath, Collection<File> gwtDev) {
+    // GWT jars missing from the classpath would be added in front of everything
+    Set<String> gwtEntriesAfter = new HashSet<>();
+    gwtDev.stream().filter(jar -> !classpath.contains(jar))
+        .forEach(jar -> gwtEntriesAfter.addAll(entryNames(jar)));
+    for (int i = classpath.size() - 1; i >= 0; i--) {
+      File entry = classpath.get(i);
+      if (gwtDev.contains(entry)) {
+        gwtEntriesAfter.addAll(entryNames(entry));
+        continue;
+      }
+      for (String name : entryNames(entry)) {
+        if (gwtEntriesAfter.contains(name)) {
+          return name + " of " + entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static List<String> entryNames(File entry) {
+    List<String> names = new ArrayList<>();
+    try {
+      if (entry.isDirectory()) {
+        Path dir = entry.toPath();
+        try (Stream<Path> files = Files.walk(dir)) {
+          files.filter(Files::isRegularFile)
+              .map(file -> dir.relativize(file).toString().replace(File.separatorChar, '/'))
+              .forEach(names::add);
+        }
+      } else if (entry.isFile()) {
+        try (ZipFile zip = new ZipFile(entry)) {
+          zip.stream().filter(zipEntry -> !zipEntry.isDirectory())
+              .map(ZipEntry::getName)
+              .forEach(names::add);
+        }
+      }
+    } catch (ZipException e) {
+      // Not a jar, so it provides no classes
+    } catch (IOException e) {
+      throw new GradleException("Failed to list " + entry, e);
+    }
+    names.removeIf(name -> name.startsWith("META-INF/"));
+    return names;
+  }
+
+  /**
+   * The java executable of a launcher, or of the current JVM
+   *
+   * @param launcher The launcher, or {@code null}
+   * @return The java executable
+   */
+  static String javaExecutable(JavaLauncher launcher) {
+    if (launcher != null) {
+      return launcher.getExecutablePath().getAsFile().getAbsolutePath();
+    }
+    return new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+  }
+
+  /**
+   * The full version of the Java runtime of a launcher, or of the current
+   * JVM
+   *
+   * @param launcher The launcher, or {@code null}
+   * @return The Java runtime version
+   */
+  static String javaRuntimeVersion(JavaLauncher launcher) {
+    if (launcher != null) {
+      return launcher.getMetadata().getJavaRuntimeVersion();
+    }
+    return System.getProperty("java.runtime.version");
+  }
+}
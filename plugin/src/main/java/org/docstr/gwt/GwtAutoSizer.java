@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.docstr.gwt.GwtModuleScanner.Descriptor;
+
+/**
+ * Chooses {@code -localWorkers} and the maximum heap size of a GWT
+ * compilation from the number of permutations and the cores and physical
+ * memory of the host.
+ * <p>
+ * The permutations are estimated from the descriptors of the
+ * {@link GwtModuleGraph module graph}: the values of every
+ * {@code <define-property>}, extended by {@code <extend-property>},
+ * restricted by unconditional {@code <set-property>} and reduced by
+ * {@code <collapse-property>}. Inherited modules are applied before the
+ * elements of the module inheriting them. Conditional
+ * {@code <set-property>} elements are ignored, so the estimate errs on the
+ * high side.
+ */
+class GwtAutoSizer {
+
+  /**
+   * Heap of each compiler JVM, in MB. Permutation workers are forked JVMs
+   * that inherit the {@code -Xmx} of the compiler, so every JVM gets the
+   * same heap.
+   */
+  static final long HEAP_MB = 1024;
+
+  /**
+   * Share of the physical memory, in percent, the compiler may use.
+   */
+  static final int MEMORY_BUDGET_PERCENT = 75;
+
+  // Guards against absurd products of property values
+  private static final int MAX_PERMUTATIONS = 10_000;
+
+  private static final long MB = 1024 * 1024;
+
+  /**
+   * The chosen sizing.
+   *
+   * @param localWorkers The number of permutations compiled concurrently
+   * @param maxHeapMb    The maximum heap size of each compiler JVM, in MB
+   * @param reason       Why these values were chosen
+   */
+  record Sizing(int localWorkers, long maxHeapMb, String reason) {
+  }
+
+  private GwtAutoSizer() {
+  }
+
+  /**
+   * Sizes a compilation for this host.
+   *
+   * @param permutations The number of permutations of the largest module
+   * @param heapMb       The heap of each compiler JVM, in MB
+   * @return The sizing
+   */
+  static Sizing sizeForHost(int permutations, long heapMb) {
+    return size(permutations, Runtime.getRuntime().availableProcessors(),
+        physicalMemoryMb(), Runtime.getRuntime().maxMemory() / MB, heapMb);
+  }
+
+  /**
+   * Chooses as many workers as there are permutations and cores, as long as
+   * the compiler and the workers, each with the given heap, fit in the
+   * memory budget.
+   *
+   * @param permutations     The number of permutations of the largest module
+   * @param cores            The number of available cores
+   * @param physicalMemoryMb The physical memory of the host, in MB
+   * @param reservedMb       Memory already taken by the Gradle daemon, in MB
+   * @param heapMb           The heap of each compiler JVM, in MB
+   * @return The sizing
+   */
+  static Sizing size(int permutations, int cores, long physicalMemoryMb,
+      long reservedMb, long heapMb) {
+    long budgetMb = physicalMemoryMb * MEMORY_BUDGET_PERCENT / 100 - reservedMb;
+    // The compiler JVM itself takes one heap besides its workers
+    int byMemory = (int) Math.max(1, budgetMb / heapMb - 1);
+    int workers = Math.max(1, Math.min(Math.min(permutations, cores), byMemory));
+
+    String limit;
+    if (workers == byMemory && byMemory < Math.min(permutations, cores)) {
+      limit = "limited by memory";
+    } else if (workers == permutations) {
+      limit = "one worker per permutation";
+    } else {
+      limit = "one worker per core";
+    }
+    String reason = String.format("%d permutations, %d cores, %dM physical memory"
+            + " (%dM budget, %dM per JVM): %s", permutations, cores,
+        physicalMemoryMb, budgetMb, heapMb, limit);
+    return new Sizing(workers, heapMb, reason);
+  }
+
+  /**
+   * Estimates the number of permutations of the largest of the given
+   * modules.
+   *
+   * @param graph         The module graph holding the modules
+   * @param modules       The module names
+   * @param setProperties Additional {@code name=value1[,value2...]} bindings,
+   *                      as passed to {@code -setProperty}
+   * @return The number of permutations, at least 1
+   */
+  static int estimatePermutations(GwtModuleGraph graph, List<String> modules,
+      List<String> setProperties) {
+    int max = 1;
+    for (String module : modules) {
+      PropertyValues values = new PropertyValues();
+      values.readModule(graph, module, new HashSet<>());
+      setProperties.forEach(values::set);
+      max = Math.max(max, values.permutations());
+    }
+    return max;
+  }
+
+  /**
+   * The physical memory of the host.
+   *
+   * @return The physical memory, in MB
+   */
+  static long physicalMemoryMb() {
+    OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+    if (bean instanceof com.sun.management.OperatingSystemMXBean osBean) {
+      return osBean.getTotalMemorySize() / MB;
+    }
+    // Assume the Gradle daemon was given a quarter of the memory
+    return Runtime.getRuntime().maxMemory() * 4 / MB;
+  }
+
+  // Properties are name=value1,value2 pairs
+  private static String name(String property) {
+    int eq = property.indexOf('=');
+    return eq < 0 ? property : property.substring(0, eq);
+  }
+
+  private static List<String> values(String property) {
+    int eq = property.indexOf('=');
+    return eq < 0 ? List.of() : Arrays.stream(property.substring(eq + 1).split(","))
+        .map(String::trim)
+        .filter(value -> !value.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * The deferred binding property values collected from a module graph.
+   */
+  private static final class PropertyValues {
+
+    private final Map<String, Set<String>> values = new LinkedHashMap<>();
+    private final Map<String, List<Set<String>>> collapsed = new HashMap<>();
+    private boolean collapseAll;
+
+    void readModule(GwtModuleGraph graph, String module, Set<String> visited) {
+      Descriptor descriptor = graph.getDescriptor(module);
+      if (!visited.add(module) || descriptor == null) {
+        return;
+      }
+      for (String inherited : descriptor.inherits()) {
+        readModule(graph, inherited, visited);
+      }
+      descriptor.definedProperties().forEach(property ->
+          values.put(name(property), new LinkedHashSet<>(values(property))));
+      descriptor.extendedProperties().forEach(property -> {
+        if (values.containsKey(name(property))) {
+          values.get(name(property)).addAll(values(property));
+        }
+      });
+      descriptor.properties().forEach(this::set);
+      descriptor.collapsedProperties().forEach(property -> {
+        if (GwtModuleScanner.COLLAPSE_ALL.equals(property)) {
+          collapseAll = true;
+        } else {
+          collapsed.computeIfAbsent(name(property), key -> new ArrayList<>())
+              .add(new LinkedHashSet<>(values(property)));
+        }
+      });
+    }
+
+    void set(String property) {
+      set(name(property), values(property));
+    }
+
+    void set(String name, List<String> newValues) {
+      if (values.containsKey(name) && !newValues.isEmpty()) {
+        values.put(name, new LinkedHashSet<>(newValues));
+      }
+    }
+
+    int permutations() {
+      if (collapseAll) {
+        return 1;
+      }
+      long permutations = 1;
+      for (Map.Entry<String, Set<String>> entry : values.entrySet()) {
+        int count = entry.getValue().size();
+        for (Set<String> patterns : collapsed.getOrDefault(entry.getKey(), List.of())) {
+          long matching = entry.getValue().stream()
+              .filter(value -> patterns.stream().anyMatch(pattern -> matches(pattern, value)))
+              .count();
+          count -= (int) Math.max(0, matching - 1);
+        }
+        permutations = Math.min(MAX_PERMUTATIONS, permutations * Math.max(1, count));
+      }
+      return (int) permutations;
+    }
+
+    private static boolean matches(String pattern, String value) {
+      return pattern.endsWith("*")
+          ? value.startsWith(pattern.substring(0, pattern.length() - 1))
+          : pattern.equals(value);
+    }
+  }
+}
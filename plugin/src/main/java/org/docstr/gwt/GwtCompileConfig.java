@@ -15,29 +15,16 @@
  */
 package org.docstr.gwt;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
+import java.io.File;
 import java.nio.file.Path;
 import java.util.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.FactoryConfigurationError;
-import javax.xml.parsers.ParserConfigurationException;
 
 import lombok.extern.slf4j.Slf4j;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
-import org.gradle.api.file.FileCollection;
-import org.gradle.api.logging.Logger;
-import org.gradle.api.tasks.SourceSet;
-import org.gradle.api.tasks.SourceSetContainer;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
 
 /**
  * Configures the GWT compiler task.
@@ -46,8 +33,7 @@ import org.xml.sax.InputSource;
 public class GwtCompileConfig implements Action<GwtCompileTask> {
 
   private final GwtPluginExtension extension;
-  private final DocumentBuilderFactory dbFactory;
-  private final DocumentBuilder dBuilder;
+  private final String module;
 
   /**
    * Constructor.
@@ -55,161 +41,45 @@ public class GwtCompileConfig implements Action<GwtCompileTask> {
    * @param extension The GWT plugin extension
    */
   public GwtCompileConfig(GwtPluginExtension extension) {
-    this.extension = extension;
-
-    try {
-      dbFactory = DocumentBuilderFactory.newInstance();
-      dBuilder = dbFactory.newDocumentBuilder();
-
-      // Create a fix for DTD loading. Google provides an http: -> https redirect on DTDs, however
-      // Http(s)URLConnection will not follow across protocols. It will follow within the same protocol.
-      // Therefore, markup all DTD URLs to https proactively.
-      dBuilder.setEntityResolver((publicId, systemId) -> {
-        try {
-          return new InputSource(new URI(systemId.replace("http://", "https://")).toURL().openStream());
-        } catch (URISyntaxException e) {
-            throw new IOException("Unable to change DTD URL", e);
-        }
-      });
-    } catch (FactoryConfigurationError | ParserConfigurationException e) {
-      throw new GradleException("Unable to create XML parser", e);
-    }
-  }
-
-  /**
-   * Locate all GWT modules in the source set (both src/main/java and src/main/resources).
-   * @param project The project being operated on
-   * @return A set of GWT modules found within the sources (both src/main/(java|kotlin|...) and src/main/resources)
-   */
-  Collection<Module> findAllModules(Project project) {
-    SourceSetContainer sourceSets = project.getExtensions()
-            .getByType(SourceSetContainer.class);
-    SourceSet mainSourceSet = sourceSets.getByName(
-            SourceSet.MAIN_SOURCE_SET_NAME);
-
-    // Need to scan both java and resources as GWT can appear in both.
-    Set<Module> modules = new HashSet<>();
-    mainSourceSet.getAllSource()
-            .matching(pf -> pf.include("**/*.gwt.xml"))
-            .visit(v -> {
-              if (v.getRelativePath().isFile()) {
-                var module = new Module(
-                        v.getFile().toPath(),
-                        Path.of(v.getRelativePath().getPathString()),
-                        mainSourceSet
-                );
-                modules.add(module);
-                log.debug("Found module: {}",
-                          module.name());
-              }
-            });
-
-    return modules;
+    this(extension, null);
   }
 
   /**
-   * 1. Add the module path to the source paths.
-   * 2. Add the package directory for each entry-point to the source paths.
-   * 3. Extract the source paths from the GWT module XML path.
-   * 4. Extract the public paths from the GWT module XML path.
-   * <br><br>
-   * As mentioned in <a href="https://www.gwtproject.org/doc/latest/DevGuideOrganizingProjects.html">https://www.gwtproject.org/doc/latest/DevGuideOrganizingProjects.html</a>
-   * if no source or public element is defined in a module XML path, the
-   * client and public subpackage is implicitly added to the source/public
-   * path as if <source path="client" /> or <public path="public"> had been
-   * found in the XML.
+   * Constructor for a task compiling a single module. The task gets its own
+   * subdirectory of workDir, cacheDir, gen, deploy, extra and
+   * saveSourceOutput, so it neither shares intermediate outputs nor a unit
+   * cache with the other modules. The war directory stays shared, as GWT
+   * writes each module to {@code war/<rename-to>}.
+   *
+   * @param extension The GWT plugin extension
+   * @param module    The module to compile, or {@code null} to compile all
+   *                  configured modules
    */
-  TreeSet<Path> extractSourcePaths(Module module) {
-    TreeSet<Path> sourcePaths = new TreeSet<>();
-    sourcePaths.add(module.path);
-    try (InputStream moduleInputStream = Files.newInputStream(module.path)) {
-      // Using InputStream to allow character set detection by the XML declaration.
-      var doc = dBuilder.parse(new InputSource(moduleInputStream));
-      var moduleParent = module.path.getParent();
-      var sourceRoot = module.sourceDirectorySetRootPath();
-
-      // Add the package directory for each entry-point to the source paths
-      NodeList entryPointNodes = doc.getElementsByTagName("entry-point");
-      for (int i = 0; i < entryPointNodes.getLength(); i++) {
-        Element entryPointElement = (Element) entryPointNodes.item(i);
-        String path = entryPointElement.getAttribute("class");
-        String packageName = path.substring(0, path.lastIndexOf('.'));
-        String packagePath = packageName.replace('.', '/');
-        var packageDir = sourceRoot.resolve(packagePath);
-        sourcePaths.add(packageDir);
-      }
-
-      // Extract the source paths from the GWT module XML path
-      NodeList sourceNodes = doc.getElementsByTagName("source");
-      if (sourceNodes.getLength() == 0) {
-        var defaultClientDir = moduleParent.resolve("client");
-        if (Files.isDirectory(defaultClientDir)) {
-          sourcePaths.add(defaultClientDir);
-        }
-      } else {
-        for (int i = 0; i < sourceNodes.getLength(); i++) {
-          String path = sourceNodes.item(i).getAttributes().getNamedItem("path")
-              .getNodeValue();
-          var sourceDir = moduleParent.resolve(path);
-          sourcePaths.add(sourceDir);
-        }
-      }
-
-      // Extract the public paths from the GWT module XML path
-      NodeList publicNodes = doc.getElementsByTagName("public");
-      if (publicNodes.getLength() == 0) {
-        var defaultPublicDir = moduleParent.resolve("public");
-        if (Files.isDirectory(defaultPublicDir)) {
-          sourcePaths.add(defaultPublicDir);
-        }
-      } else {
-        for (int i = 0; i < publicNodes.getLength(); i++) {
-          String path = publicNodes.item(i).getAttributes().getNamedItem("path")
-              .getNodeValue();
-          var publicDir = moduleParent.resolve(path);
-          sourcePaths.add(publicDir);
-        }
-      }
-    } catch (Exception e) {
-      log.error("Error reading GWT module path: '{}'", module.path, e);
-    }
-    return sourcePaths;
+  public GwtCompileConfig(GwtPluginExtension extension, String module) {
+    this.extension = extension;
+    this.module = module;
   }
 
   @Override
   public void execute(GwtCompileTask task) {
     Project project = task.getProject();
-    Logger log = project.getLogger();
-
-    // Process each GWT module to find source paths
-    Set<Path> trackedPaths = new HashSet<>();
-    var allModules = findAllModules(project);
-    var moduleNames = extension.getModules().get();
-
-    for (var module: allModules) {
-      if (!moduleNames.contains(module.name())) {
-        continue;
-      }
-      log.info("gwtCompile - Processing GWT module: '{}' ({})", module.name(), module.path);
-      trackedPaths.addAll(extractSourcePaths(module));
-    }
-
-    // Create a path collection for tracking
-    FileCollection trackedFiles = project.files(trackedPaths.toArray());
-    log.info("gwtCompile - Tracking GWT source files: {}",
-        trackedFiles.getFiles());
-    task.getInputs().files(trackedFiles);
 
     if (extension.getCompiler().getMinHeapSize().isPresent()) {
       task.setMinHeapSize(extension.getCompiler().getMinHeapSize().get());
     } else {
       task.setMinHeapSize(extension.getMinHeapSize().getOrElse("256M"));
     }
+    boolean autoSize = extension.getCompiler().getAutoSize().getOrElse(false);
     if (extension.getCompiler().getMaxHeapSize().isPresent()) {
       task.setMaxHeapSize(extension.getCompiler().getMaxHeapSize().get());
-    } else {
+    } else if (extension.getMaxHeapSize().isPresent() || !autoSize) {
       task.setMaxHeapSize(extension.getMaxHeapSize().getOrElse("512M"));
     }
+    task.getAutoSize().set(autoSize);
+    task.getCompileAvoidance()
+        .set(extension.getCompiler().getCompileAvoidance().getOrElse(false));
+    task.getNarrowClasspath()
+        .set(extension.getCompiler().getNarrowClasspath().getOrElse(false));
 
     if (extension.getCompiler().getLogLevel().isPresent()) {
       task.getLogLevel().set(extension.getCompiler().getLogLevel().get());
@@ -322,6 +192,22 @@ public class GwtCompileConfig implements Action<GwtCompileTask> {
     }
     task.getSaveSourceOutput()
         .set(extension.getCompiler().getSaveSourceOutput().getOrNull());
+    task.getUseWorkers()
+        .set(extension.getCompiler().getUseWorkers().getOrNull());
+    task.getUseDaemon()
+        .set(extension.getCompiler().getUseDaemon().getOrNull());
+    task.getDaemonIdleTimeout()
+        .set(extension.getCompiler().getDaemonIdleTimeout().getOrNull());
+    task.getDaemonMemoryCeiling()
+        .set(extension.getCompiler().getDaemonMemoryCeiling().getOrNull());
+    task.getDaemonRegistryFile().set(new File(
+        project.getGradle().getGradleUserHomeDir(),
+        "caches/org.docstr.gwt/daemons/"
+            + HashUtils.sha256(project.getProjectDir() + task.getPath())
+            + ".properties"));
+    task.getUnitCacheStats().set(extension.getUnitCache().getStats());
+    task.getUnitCacheStatsReport().set(project.getLayout().getBuildDirectory()
+        .file("reports/gwt/" + task.getName() + "-unitCache.json"));
     if (extension.getCompiler().getModules().isPresent()
         && !extension.getCompiler().getModules().get().isEmpty()) {
       task.getModules().set(extension.getCompiler().getModules().get());
@@ -336,6 +222,16 @@ public class GwtCompileConfig implements Action<GwtCompileTask> {
       task.getExtraSourceDirs().from(extension.getExtraSourceDirs());
     }
 
+    if (module != null) {
+      task.getModules().set(List.of(module));
+      task.getWorkDir().set(subdir(task.getWorkDir()));
+      task.getCacheDir().set(subdir(task.getCacheDir()));
+      task.getGen().set(subdir(task.getGen()));
+      task.getDeploy().set(subdir(task.getDeploy()));
+      task.getExtra().set(subdir(task.getExtra()));
+      task.getSaveSourceOutput().set(subdir(task.getSaveSourceOutput()));
+    }
+
     // Check if the modules property is specified
     if (task.getModules().get().isEmpty()) {
       throw new GradleException(
@@ -347,10 +243,14 @@ public class GwtCompileConfig implements Action<GwtCompileTask> {
     task.configureCompileArgs();
   }
 
+  private Directory subdir(DirectoryProperty dir) {
+    return dir.isPresent() ? dir.get().dir(module) : null;
+  }
+
   /**
    * A representation of a path.
    */
-  record Module(Path path, Path relativePath, SourceSet sourceSet) {
+  record Module(Path path, Path relativePath) {
     String name() {
       return relativePath.toString()
               .replace("/", ".")
@@ -358,18 +258,11 @@ public class GwtCompileConfig implements Action<GwtCompileTask> {
               .replace(".gwt.xml", "");
     }
     Path sourceDirectorySetRootPath() {
-      // Sanity check. Should always be the case as both objects came from the source set
+      // Sanity check. Should always be the case as both paths came from the same walk
       if (!path.endsWith(relativePath)) {
         throw new GradleException("Invalid module. Path '" + path + "' does not end with relative part '" + relativePath +"'");
       }
-      var rootPath = path.getRoot().resolve(path.subpath(0, path.getNameCount() - relativePath().getNameCount()));
-      var rootFile = rootPath.toFile();
-
-      // Check the root path is in the list of source directories for the SourceSet
-      if (!sourceSet.getAllSource().getSrcDirs().contains(rootFile)) {
-        throw new GradleException("Invalid module. Root path '" + rootPath + "' is not a valid source set root");
-      }
-      return rootPath;
+      return path.getRoot().resolve(path.subpath(0, path.getNameCount() - relativePath().getNameCount()));
     }
   }
 }
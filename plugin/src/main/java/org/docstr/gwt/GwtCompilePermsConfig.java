@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskProvider;
+
+/**
+ * Configures a GWT compile permutations task of a split compilation.
+ */
+public class GwtCompilePermsConfig implements Action<GwtCompilePermsTask> {
+
+  private final GwtPluginExtension extension;
+  private final TaskProvider<? extends GwtCompileTask> precompileTask;
+  private final int shard;
+  private final int shardCount;
+
+  /**
+   * Constructor.
+   *
+   * @param extension      The GWT plugin extension
+   * @param precompileTask The precompile task
+   * @param shard          The index of the shard, starting at 0
+   * @param shardCount     The total number of shards
+   */
+  public GwtCompilePermsConfig(GwtPluginExtension extension,
+      TaskProvider<? extends GwtCompileTask> precompileTask, int shard,
+      int shardCount) {
+    this.extension = extension;
+    this.precompileTask = precompileTask;
+    this.shard = shard;
+    this.shardCount = shardCount;
+  }
+
+  @Override
+  public void execute(GwtCompilePermsTask task) {
+    Project project = task.getProject();
+
+    task.setMinHeapSize(extension.getCompiler().getMinHeapSize()
+        .getOrElse(extension.getMinHeapSize().getOrElse("256M")));
+    task.setMaxHeapSize(extension.getCompiler().getMaxHeapSize()
+        .getOrElse(extension.getMaxHeapSize().getOrElse("512M")));
+    task.getLogLevel().set(precompileTask.flatMap(AbstractBaseTask::getLogLevel));
+    task.getLocalWorkers()
+        .set(extension.getCompiler().getLocalWorkers().getOrNull());
+
+    task.getPrecompileDir().set(precompileTask.flatMap(AbstractBaseTask::getWorkDir));
+    task.getWorkDir().set(project.getLayout().getBuildDirectory()
+        .dir("gwt/split/perms" + shard));
+    task.getShard().set(shard);
+    task.getShardCount().set(shardCount);
+    task.getPermutationCacheDir().set(extension.getCompiler().getPermutationCacheDir());
+
+    task.configureClasspath(project);
+  }
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+/**
+ * Task running the second stage of a split GWT compilation: compiles one
+ * shard of the permutations precompiled by {@link GwtPrecompileTask}.
+ * <p>
+ * The permutation count is only known once the modules are precompiled, so
+ * permutations are assigned to shards round-robin at execution time: shard
+ * {@code i} of {@code n} compiles every permutation {@code p} with
+ * {@code p % n == i}. The output directory only keeps the compiled
+ * permutations, never the (large) precompilation.
+ * <p>
+ * On top of the task output, every compiled permutation is stored in the
+ * permutation cache, keyed by the hash of the precompiled AST, the module
+ * and the permutation id. The id identifies the property bindings of the
+ * permutation within a given precompilation, so a permutation found in the
+ * cache is restored instead of compiled again, whichever shard compiled it.
+ */
+@CacheableTask
+public abstract class GwtCompilePermsTask extends AbstractBaseTask {
+
+  /**
+   * The main class for compiling precompiled permutations.
+   */
+  public static final String COMPILE_PERMS_CLASS = "com.google.gwt.dev.CompilePerms";
+
+  /**
+   * The file holding the number of permutations of a precompiled module.
+   */
+  static final String PERM_COUNT_FILENAME = "permCount.txt";
+
+  /**
+   * The file holding the precompiled AST of a module.
+   */
+  static final String PRECOMPILATION_FILENAME = "precompilation.ser";
+
+  static final Pattern PERMUTATION_FILE = Pattern.compile("permutation-(\\d+)\\.js");
+
+  private static final Set<String> SUPPORTED_ARGS = Set.of("logLevel", "workDir");
+
+  /**
+   * Constructs a new GwtCompilePermsTask.
+   */
+  @Inject
+  public GwtCompilePermsTask() {
+    getMainClass().set(COMPILE_PERMS_CLASS);
+
+    // The modules are read from the precompilation at execution time
+    getModules().empty();
+  }
+
+  /**
+   * The working directory of the precompile task
+   *
+   * @return The precompile directory
+   */
+  @InputDirectory
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public abstract DirectoryProperty getPrecompileDir();
+
+  /**
+   * The index of this shard, starting at 0
+   *
+   * @return The shard index
+   */
+  @Input
+  public abstract Property<Integer> getShard();
+
+  /**
+   * The total number of shards
+   *
+   * @return The shard count
+   */
+  @Input
+  public abstract Property<Integer> getShardCount();
+
+  /**
+   * The number of local workers to use when compiling permutations
+   *
+   * @return The property
+   */
+  @Input
+  @Optional
+  public abstract Property<Integer> getLocalWorkers();
+
+  /**
+   * The directory receiving the compiled permutations, laid out like the
+   * precompile directory
+   *
+   * @return The working directory
+   */
+  @Override
+  @OutputDirectory
+  public abstract DirectoryProperty getWorkDir();
+
+  /**
+   * The directory compiled permutations are stored in and restored from.
+   * Permutations are always compiled when not set.
+   *
+   * @return The permutation cache directory
+   */
+  @Internal
+  public abstract DirectoryProperty getPermutationCacheDir();
+
+  /**
+   * Used to copy the precompilation into the working directory
+   *
+   * @return The file system operations
+   */
+  @Inject
+  protected abstract FileSystemOperations getFileSystemOperations();
+
+  @Override
+  protected boolean acceptsArg(String argName) {
+    return SUPPORTED_ARGS.contains(argName);
+  }
+
+  @Override
+  public void exec() {
+    File workDir = getWorkDir().get().getAsFile();
+    getFileSystemOperations().sync(spec -> {
+      spec.from(getPrecompileDir());
+      spec.into(workDir);
+    });
+
+    for (String module : listModules(workDir.toPath())) {
+      Path compilerDir = workDir.toPath().resolve(module).resolve("compiler");
+      List<Integer> perms = permutationsOfShard(
+          readPermutationCount(compilerDir), getShard().get(),
+          getShardCount().get());
+      if (perms.isEmpty()) {
+        getLogger().info("No permutations of {} in shard {}", module, getShard().get());
+        continue;
+      }
+
+      String astHash = hashPrecompilation(compilerDir);
+      List<Integer> misses = new ArrayList<>();
+      for (int perm : perms) {
+        if (astHash == null || !restorePermutation(compilerDir,
+            permutationKey(astHash, module, perm), perm)) {
+          misses.add(perm);
+        }
+      }
+      if (misses.size() < perms.size()) {
+        getLogger().lifecycle("Restored {} of {} permutations of {} from the permutation cache",
+            perms.size() - misses.size(), perms.size(), module);
+      }
+      if (misses.isEmpty()) {
+        continue;
+      }
+
+      List<String> args = new ArrayList<>();
+      if (getLocalWorkers().isPresent()) {
+        args.add("-localWorkers");
+        args.add(getLocalWorkers().get().toString());
+      }
+      args.add("-perms");
+      args.add(misses.stream().map(String::valueOf).collect(Collectors.joining(",")));
+      args.add(module);
+      compilePermutations(args);
+
+      if (astHash != null) {
+        for (int perm : misses) {
+          storePermutation(compilerDir, permutationKey(astHash, module, perm), perm);
+        }
+      }
+    }
+
+    // Only keep the compiled permutations as the output of this shard
+    deleteAllExceptPermutations(workDir.toPath());
+  }
+
+  /**
+   * Runs {@link #COMPILE_PERMS_CLASS} in a forked JVM.
+   *
+   * @param args The compiler arguments
+   */
+  void compilePermutations(List<String> args) {
+    setArgs(args);
+    super.exec();
+  }
+
+  /**
+   * Lists the modules of a precompile directory.
+   *
+   * @param workDir The precompile directory
+   * @return The module names
+   */
+  static List<String> listModules(Path workDir) {
+    try (Stream<Path> dirs = Files.list(workDir)) {
+      return dirs
+          .filter(dir -> Files.isRegularFile(
+              dir.resolve("compiler").resolve(PERM_COUNT_FILENAME)))
+          .map(dir -> dir.getFileName().toString())
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Computes the permutations compiled by a shard.
+   *
+   * @param permutationCount The number of permutations of the module
+   * @param shard            The index of the shard
+   * @param shardCount       The number of shards
+   * @return The permutation ids
+   */
+  static List<Integer> permutationsOfShard(int permutationCount, int shard,
+      int shardCount) {
+    return IntStream.range(0, permutationCount)
+        .filter(perm -> perm % shardCount == shard)
+        .boxed()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Computes the permutation cache key of a permutation.
+   *
+   * @param astHash The hash of the precompilation of the module
+   * @param module  The module name
+   * @param perm    The permutation id
+   * @return The cache key
+   */
+  static String permutationKey(String astHash, String module, int perm) {
+    return HashUtils.sha256(astHash + "\n" + module + "\n" + perm);
+  }
+
+  private String hashPrecompilation(Path compilerDir) {
+    if (!getPermutationCacheDir().isPresent()) {
+      return null;
+    }
+    Path file = compilerDir.resolve(PRECOMPILATION_FILENAME);
+    try {
+      return HashUtils.sha256(file);
+    } catch (IOException e) {
+      getLogger().info("Not using the permutation cache, unable to hash {}: {}", file, e.toString());
+      return null;
+    }
+  }
+
+  private Path cacheEntry(String key) {
+    return getPermutationCacheDir().get().getAsFile().toPath()
+        .resolve(key.substring(0, 2)).resolve(key + ".js");
+  }
+
+  private boolean restorePermutation(Path compilerDir, String key, int perm) {
+    Path entry = cacheEntry(key);
+    if (!Files.isRegularFile(entry)) {
+      return false;
+    }
+    try {
+      Files.copy(entry, compilerDir.resolve(permutationFilename(perm)),
+          StandardCopyOption.REPLACE_EXISTING);
+      // Record the use, so unused entries can be told apart
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } catch (IOException e) {
+      getLogger().info("Unable to restore permutation {} from {}: {}", perm, entry, e.toString());
+      return false;
+    }
+  }
+
+  private void storePermutation(Path compilerDir, String key, int perm) {
+    Path file = compilerDir.resolve(permutationFilename(perm));
+    Path entry = cacheEntry(key);
+    try {
+      // Copy to a temporary file first, so concurrent builds never restore a partial entry
+      Files.createDirectories(entry.getParent());
+      Path tmpFile = Files.createTempFile(entry.getParent(), key, ".tmp");
+      Files.copy(file, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmpFile, entry, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      getLogger().info("Unable to store permutation {} in {}: {}", perm, entry, e.toString());
+    }
+  }
+
+  private static String permutationFilename(int perm) {
+    return "permutation-" + perm + ".js";
+  }
+
+  private static int readPermutationCount(Path compilerDir) {
+    Path file = compilerDir.resolve(PERM_COUNT_FILENAME);
+    try {
+      return Integer.parseInt(Files.readString(file).trim());
+    } catch (IOException | NumberFormatException e) {
+      throw new GradleException("Unable to read the permutation count from " + file, e);
+    }
+  }
+
+  private static void deleteAllExceptPermutations(Path workDir) {
+    try (Stream<Path> files = Files.walk(workDir)) {
+      for (Path file : files.filter(Files::isRegularFile).toList()) {
+        if (!PERMUTATION_FILE.matcher(file.getFileName().toString()).matches()) {
+          Files.delete(file);
+        }
+      }
+    } catch (IOException e) {
+      throw new GradleException("Unable to clean up " + workDir, e);
+    }
+  }
+}
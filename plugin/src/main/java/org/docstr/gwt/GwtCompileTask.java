@@ -15,14 +15,30 @@
  */
 package org.docstr.gwt;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import javax.inject.Inject;
+import org.gradle.api.GradleException;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.process.CommandLineArgumentProvider;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 /**
  * Task for compiling GWT modules.
@@ -35,14 +51,28 @@ public abstract class GwtCompileTask extends AbstractBaseTask {
    */
   public static final String COMPILER_CLASS = "com.google.gwt.dev.Compiler";
 
+  // Named rather than referenced, as it must not be loaded by the Gradle daemon
+  private static final String STATS_COMPILER_CLASS = "org.docstr.gwt.GwtCompilerRunner";
+
+  // The plugin classes run by the worker, the daemon and the statistics
+  // wrapper in the forked JVM are compiled for this Java version
+  private static final int PLUGIN_JAVA_VERSION = 17;
+
   /**
    * Constructs a new GwtCompileTask.
    */
   @Inject
   public GwtCompileTask() {
 
-    // Set GWT compiler as the main class
-    getMainClass().set(COMPILER_CLASS);
+    // Set GWT compiler as the main class, or the wrapper recording the unit
+    // cache statistics if the forked JVM can load it
+    getMainClass().set(getUnitCacheStats()
+        .map(stats -> stats && runsPluginClasses() ? STATS_COMPILER_CLASS : COMPILER_CLASS)
+        .orElse(COMPILER_CLASS));
+
+    // Passed by a provider, as an absolute path in the args would end up in
+    // the cache key
+    getArgumentProviders().add(0, new SaveSourceOutputArgumentProvider());
 
     // This task will depend on the compileJava and processResources tasks automatically
     dependsOn(getProject().getTasks().withType(JavaCompile.class)
@@ -168,6 +198,129 @@ public abstract class GwtCompileTask extends AbstractBaseTask {
   @Optional
   public abstract DirectoryProperty getSaveSourceOutput();
 
+  /**
+   * Runs the compiler in a reusable Gradle worker process instead of a new
+   * JVM per compilation. This does not change the compiler output.
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Boolean> getUseWorkers();
+
+  /**
+   * Sends the compilation to a long-lived compiler daemon, which keeps
+   * gwt-dev and the unit cache warm in memory between builds. This does not
+   * change the compiler output.
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Boolean> getUseDaemon();
+
+  /**
+   * The number of minutes after which an idle compiler daemon exits
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Integer> getDaemonIdleTimeout();
+
+  /**
+   * The heap usage, in percent of the maximum heap size, above which the
+   * compiler daemon exits after a compilation
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Integer> getDaemonMemoryCeiling();
+
+  /**
+   * The file the compiler daemon of this task registers itself in
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract RegularFileProperty getDaemonRegistryFile();
+
+  /**
+   * Records the statistics of the persistent unit cache of the compiler, and
+   * reports them in the build output and in {@link #getUnitCacheStatsReport()}
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Boolean> getUnitCacheStats();
+
+  /**
+   * The JSON report of the unit cache statistics
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract RegularFileProperty getUnitCacheStatsReport();
+
+  /**
+   * Chooses the local workers and the maximum heap size from the permutation
+   * count, cores and physical memory, unless they are set explicitly
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Boolean> getAutoSize();
+
+  /**
+   * Only tracks the translatable sources of the modules and the library
+   * classpath, instead of the whole compiler classpath, so changes to
+   * server-side code do not rerun the compilation
+   *
+   * @return The property
+   */
+  @Internal
+  public abstract Property<Boolean> getCompileAvoidance();
+
+  /**
+   * Only passes the classpath entries the module graph needs to the
+   * compiler
+   *
+   * @return The property
+   */
+  @Input
+  @Optional
+  public abstract Property<Boolean> getNarrowClasspath();
+
+  /**
+   * The compiler classpath, tracked through {@link #getTrackedClasspath()}
+   *
+   * @return The classpath
+   */
+  @Override
+  @Internal
+  public FileCollection getClasspath() {
+    return super.getClasspath();
+  }
+
+  /**
+   * The part of the compiler classpath the output depends on: only the
+   * libraries with compile avoidance, as the project's translatable sources
+   * are tracked as task inputs, otherwise the whole classpath
+   *
+   * @return The tracked classpath
+   */
+  @Classpath
+  public FileCollection getTrackedClasspath() {
+    return getCompileAvoidance().getOrElse(false)
+        ? getGwtDevRuntimeClasspath()
+        : getClasspath();
+  }
+
+  /**
+   * The Gradle worker executor, used when {@link #getUseWorkers()} is set.
+   *
+   * @return The worker executor
+   */
+  @Inject
+  protected abstract WorkerExecutor getWorkerExecutor();
+
   /**
    * Configure task-specific arguments during configuration phase.
    */
@@ -246,20 +399,238 @@ public abstract class GwtCompileTask extends AbstractBaseTask {
       }
     }
 
-    if (getLocalWorkers().isPresent()) {
+    if (acceptsArg("localWorkers") && getLocalWorkers().isPresent()) {
       args("-localWorkers", getLocalWorkers().get());
     }
-
-    if (getSaveSourceOutput().isPresent()) {
-      args("-saveSourceOutput",
-          getSaveSourceOutput().get().getAsFile().getPath());
-    }
   }
 
   @Override
   public void exec() {
     getLogger()
         .info("inputs: {}", getInputs().getFiles().getAsPath());
-    super.exec();
+    if (getNarrowClasspath().getOrElse(false)) {
+      narrowClasspath();
+    }
+    applyHeapTelemetry();
+    if (getAutoSize().getOrElse(false)) {
+      applyAutoSize();
+    }
+    File statsFile = recordsUnitCacheStats() ? recordUnitCacheStats() : null;
+    boolean useDaemon = getUseDaemon().getOrElse(false);
+    boolean useWorkers = getUseWorkers().getOrElse(false);
+    boolean useStats = getUnitCacheStats().getOrElse(false);
+    if ((useDaemon || useWorkers || useStats) && !runsPluginClasses()) {
+      getLogger().warn("{}: the compile daemon, workers and unit cache statistics"
+              + " need Java {} or later, falling back to {} in a plain JVM",
+          getPath(), PLUGIN_JAVA_VERSION, COMPILER_CLASS);
+      useDaemon = false;
+      useWorkers = false;
+    }
+    if (useDaemon) {
+      try (GwtMemoryBudgetService.Lease lease = acquireMemory()) {
+        useAppCdsArchive();
+        useSharedUnitCache();
+        prepareExec();
+        execInDaemon();
+      }
+    } else if (useWorkers) {
+      try (GwtMemoryBudgetService.Lease lease = acquireMemory()) {
+        // Gradle reuses the worker after the task, like the daemon
+        useSharedUnitCache();
+        prepareExec();
+        execInWorker();
+      }
+    } else {
+      super.exec();
+    }
+    if (statsFile != null) {
+      reportUnitCacheStats(statsFile);
+    }
+  }
+
+  /**
+   * Whether the forked JVM can run the classes of this plugin.
+   *
+   * @return {@code true} if the forked JVM runs Java 17 or later
+   */
+  boolean runsPluginClasses() {
+    return forkedJvmIsAtLeast(PLUGIN_JAVA_VERSION);
+  }
+
+  /**
+   * Whether the forked JVM records the unit cache statistics: only the
+   * compiler wrapper understands the statistics argument, e.g. not the
+   * precompiler of a split compilation.
+   *
+   * @return {@code true} if the unit cache statistics are recorded
+   */
+  boolean recordsUnitCacheStats() {
+    return getUnitCacheStats().getOrElse(false)
+        && STATS_COMPILER_CLASS.equals(getMainClass().get());
+  }
+
+  private File recordUnitCacheStats() {
+    File statsFile = new File(getTemporaryDir(), "unitCache-stats.properties");
+    try {
+      // Left over by the previous run
+      Files.deleteIfExists(statsFile.toPath());
+    } catch (IOException e) {
+      throw new GradleException("Failed to delete " + statsFile, e);
+    }
+    args(GwtUnitCacheStats.STATS_FILE_ARG, statsFile.getAbsolutePath());
+    if (!getUseDaemon().getOrElse(false) && !getUseWorkers().getOrElse(false)) {
+      // The forked JVM runs the wrapper in the plugin jar
+      setClasspath(getClasspath().plus(getObjectFactory().fileCollection()
+          .from(getPluginLocation())));
+    }
+    return statsFile;
+  }
+
+  private void reportUnitCacheStats(File statsFile) {
+    if (!statsFile.isFile()) {
+      getLogger().info("{}: the compiler recorded no unit cache statistics", getPath());
+      return;
+    }
+    try {
+      GwtUnitCacheStats stats = GwtUnitCacheStats.read(statsFile.toPath());
+      File report = getUnitCacheStatsReport().get().getAsFile();
+      stats.writeReport(report.toPath(), getPath());
+      getLogger().lifecycle("{}: unit cache: {}, see {}", getPath(), stats.summary(), report);
+    } catch (IOException e) {
+      getLogger().warn("{}: failed to report the unit cache statistics: {}", getPath(),
+          e.getMessage());
+    }
+  }
+
+  private void narrowClasspath() {
+    if (!getModuleGraphService().isPresent()) {
+      return;
+    }
+    List<File> classpath = new ArrayList<>(getClasspath().getFiles());
+    List<File> narrowed = getModuleGraph().narrowClasspath(classpath,
+        getGwtDevRuntimeClasspath().getFiles());
+    getLogger().info("{}: narrowed the classpath from {} to {} entries", getPath(),
+        classpath.size(), narrowed.size());
+    setClasspath(getObjectFactory().fileCollection().from(narrowed));
+  }
+
+  /**
+   * The compiler and its permutation workers, which inherit the maximum heap
+   * of the compiler.
+   *
+   * @return The number of JVMs
+   */
+  @Override
+  protected int forkedJvms() {
+    // The auto sizer passes the worker count as an argument only
+    int index = getArgs().lastIndexOf("-localWorkers");
+    if (index < 0 || index + 1 >= getArgs().size()) {
+      return 1;
+    }
+    return Integer.parseInt(getArgs().get(index + 1)) + 1;
+  }
+
+  private void applyAutoSize() {
+    boolean sizeWorkers = acceptsArg("localWorkers") && !getLocalWorkers().isPresent();
+    boolean sizeHeap = getMaxHeapSize() == null;
+    if (!sizeWorkers && !sizeHeap) {
+      return;
+    }
+
+    if (!getModuleGraphService().isPresent()) {
+      getLogger().warn("{}: no module graph to count the permutations, not sizing"
+          + " the compiler", getPath());
+      return;
+    }
+    int permutations = GwtAutoSizer.estimatePermutations(getModuleGraph(),
+        getModules().get(), getSetProperty().getOrElse(List.of()));
+
+    long heapMb = sizeHeap ? GwtAutoSizer.HEAP_MB
+        : GwtMemoryBudgetService.parseMemoryMb(getMaxHeapSize());
+    GwtAutoSizer.Sizing sizing = GwtAutoSizer.sizeForHost(permutations, heapMb);
+    List<String> chosen = new ArrayList<>();
+    if (sizeWorkers) {
+      args("-localWorkers", sizing.localWorkers());
+      chosen.add("-localWorkers " + sizing.localWorkers());
+    }
+    if (sizeHeap) {
+      setMaxHeapSize(sizing.maxHeapMb() + "m");
+      chosen.add("-Xmx" + sizing.maxHeapMb() + "m");
+    }
+    getLogger().lifecycle("{}: using {} for {}", getPath(),
+        String.join(" ", chosen), sizing.reason());
+  }
+
+  private void execInWorker() {
+    WorkQueue workQueue = getWorkerExecutor().processIsolation(spec -> {
+      spec.getClasspath().from(getClasspath());
+      spec.forkOptions(fork -> {
+        fork.setExecutable(GwtAppCdsTask.javaExecutable(getJavaLauncher().getOrNull()));
+        fork.setJvmArgs(getAllJvmArgs());
+        fork.setEnvironment(getEnvironment());
+      });
+    });
+    workQueue.submit(GwtCompileWorkAction.class,
+        parameters -> parameters.getArgs().set(getAllArguments()));
+    workQueue.await();
+  }
+
+  private void execInDaemon() {
+    List<String> command = new ArrayList<>();
+    command.add(GwtAppCdsTask.javaExecutable(getJavaLauncher().getOrNull()));
+    command.addAll(getAllJvmArgs());
+    String classpath = getClasspath().getAsPath() + File.pathSeparator
+        + getPluginLocation().getAbsolutePath();
+    if (supportsArgumentFiles()) {
+      command.add("@" + ArgumentFileUtils.write(getTemporaryDir(),
+          List.of("-cp", classpath)).getAbsolutePath());
+    } else {
+      command.add("-cp");
+      command.add(classpath);
+    }
+    command.add(GwtCompilerDaemon.class.getName());
+
+    Map<String, String> environment = new TreeMap<>();
+    getEnvironment().forEach((name, value) -> environment.put(name, String.valueOf(value)));
+
+    // Any change to the GWT version, the classpath, the JVM arguments or the
+    // environment needs a fresh daemon
+    String config = HashUtils.sha256(getGwtVersion().getOrElse("") + "\n"
+        + String.join("\n", command) + "\n" + environment);
+
+    GwtCompilerDaemonClient client = new GwtCompilerDaemonClient(
+        getDaemonRegistryFile().get().getAsFile().toPath(), getWorkingDir(),
+        getLogger());
+    boolean success = client.compile(command, environment, config,
+        getDaemonIdleTimeout().getOrElse(60),
+        getDaemonMemoryCeiling().getOrElse(80), getAllArguments());
+    if (!success) {
+      throw new GradleException("GWT compilation failed");
+    }
+  }
+
+  private static File getPluginLocation() {
+    try {
+      return new File(GwtCompilerDaemon.class.getProtectionDomain()
+          .getCodeSource().getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new GradleException("Unable to locate the GWT plugin classes", e);
+    }
+  }
+
+  /**
+   * Passes the directory source files useful to debuggers are written to.
+   */
+  private final class SaveSourceOutputArgumentProvider implements
+      CommandLineArgumentProvider {
+
+    @Override
+    public Iterable<String> asArguments() {
+      if (acceptsArg("saveSourceOutput") && getSaveSourceOutput().isPresent()) {
+        return List.of("-saveSourceOutput",
+            getSaveSourceOutput().get().getAsFile().getPath());
+      }
+      return List.of();
+    }
   }
 }
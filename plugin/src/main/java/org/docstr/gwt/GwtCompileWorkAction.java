@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Runs the GWT compiler in a process-isolated Gradle worker.
+ * <p>
+ * Gradle keeps worker processes with the same classpath and fork options
+ * alive between builds, so gwt-dev, JDT and the persistent unit cache stay
+ * loaded and warm across compilations.
+ */
+public abstract class GwtCompileWorkAction
+    implements WorkAction<GwtCompileWorkAction.Parameters> {
+
+  /**
+   * Parameters of a single compilation.
+   */
+  public interface Parameters extends WorkParameters {
+
+    /**
+     * The compiler arguments, including the module names
+     *
+     * @return The compiler arguments
+     */
+    ListProperty<String> getArgs();
+  }
+
+  @Override
+  public void execute() {
+    if (!GwtCompilerRunner.compile(getParameters().getArgs().get())) {
+      throw new GradleException("GWT compilation failed");
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived GWT compiler process that accepts compile requests over a
+ * loopback socket.
+ * <p>
+ * Because the process outlives a single build, gwt-dev stays JIT-compiled
+ * and GWT's in-memory unit cache ({@code UnitCacheSingleton}) keeps the
+ * compilation units parsed by previous compiles. The daemon exits when it
+ * has been idle for too long, when its heap stays above the configured
+ * ceiling after a compile, or when asked to stop.
+ * <p>
+ * Runs outside of Gradle, so this class must only depend on the JDK, gwt-dev
+ * and {@link GwtCompilerRunner} with {@link GwtUnitCacheStats}.
+ *
+ * @see GwtCompilerDaemonClient
+ */
+public final class GwtCompilerDaemon {
+
+  static final String COMMAND_COMPILE = "compile";
+  static final String COMMAND_STOP = "stop";
+
+  static final byte FRAME_OUTPUT = 'O';
+  static final byte FRAME_RESULT = 'R';
+
+  static final String KEY_PORT = "port";
+  static final String KEY_TOKEN = "token";
+  static final String KEY_PID = "pid";
+  static final String KEY_CONFIG = "config";
+
+  private final Path registryFile;
+  private final String config;
+  private final long idleTimeoutMillis;
+  private final int memoryCeilingPercent;
+  private final Compilation compilation;
+  private final String token = UUID.randomUUID().toString();
+
+  /**
+   * Constructor.
+   *
+   * @param registryFile         The file the daemon registers itself in
+   * @param config               The key identifying the daemon configuration
+   * @param idleTimeoutMillis    The time after which an idle daemon exits
+   * @param memoryCeilingPercent The heap usage above which the daemon exits
+   * @param compilation          Runs the compile requests
+   */
+  GwtCompilerDaemon(Path registryFile, String config, long idleTimeoutMillis,
+      int memoryCeilingPercent, Compilation compilation) {
+    this.registryFile = registryFile;
+    this.config = config;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.memoryCeilingPercent = memoryCeilingPercent;
+    this.compilation = compilation;
+  }
+
+  /**
+   * Runs a compile request, {@link GwtCompilerRunner#compile} outside of
+   * tests.
+   */
+  interface Compilation {
+
+    boolean compile(List<String> args, PrintWriter out);
+  }
+
+  /**
+   * Starts the daemon.
+   *
+   * @param args The registry file, the configuration key, the idle timeout
+   *             in minutes and the memory ceiling in percent of the maximum
+   *             heap
+   * @throws IOException If the daemon cannot listen or register itself
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 4) {
+      System.err.println("Usage: GwtCompilerDaemon <registryFile> <config>"
+          + " <idleTimeoutMinutes> <memoryCeilingPercent>");
+      System.exit(1);
+    }
+    new GwtCompilerDaemon(Path.of(args[0]), args[1],
+        TimeUnit.MINUTES.toMillis(Long.parseLong(args[2])),
+        Integer.parseInt(args[3]), GwtCompilerRunner::compile).run();
+    System.exit(0);
+  }
+
+  /**
+   * Registers the daemon and handles requests until it is stopped, idle or
+   * above its memory ceiling.
+   *
+   * @throws IOException If the daemon cannot listen or register itself
+   */
+  void run() throws IOException {
+    try (ServerSocket serverSocket = new ServerSocket(0, 50,
+        InetAddress.getLoopbackAddress())) {
+      serverSocket.setSoTimeout((int) Math.min(idleTimeoutMillis,
+          Integer.MAX_VALUE));
+      register(serverSocket.getLocalPort());
+      log("Listening on port " + serverSocket.getLocalPort());
+
+      boolean running = true;
+      while (running) {
+        try (Socket socket = serverSocket.accept()) {
+          running = handle(socket);
+        } catch (SocketTimeoutException e) {
+          log("Idle for " + idleTimeoutMillis + "ms, shutting down");
+          running = false;
+        } catch (IOException e) {
+          log("Failed to handle request: " + e);
+        }
+      }
+    } finally {
+      unregister();
+    }
+  }
+
+  /**
+   * Handles a single request.
+   *
+   * @return {@code false} if the daemon should shut down
+   */
+  private boolean handle(Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+
+    if (!token.equals(in.readUTF())) {
+      log("Rejected request with an invalid token");
+      return true;
+    }
+    String command = in.readUTF();
+    if (COMMAND_STOP.equals(command)) {
+      log("Stop requested");
+      out.writeByte(FRAME_RESULT);
+      out.writeBoolean(true);
+      out.flush();
+      return false;
+    }
+    if (!COMMAND_COMPILE.equals(command)) {
+      log("Unknown command: " + command);
+      return true;
+    }
+
+    int argCount = in.readInt();
+    List<String> args = new ArrayList<>(argCount);
+    for (int i = 0; i < argCount; i++) {
+      args.add(in.readUTF());
+    }
+    log("Compiling: " + args);
+
+    boolean success;
+    try (PrintWriter writer = new PrintWriter(new FrameWriter(out), true)) {
+      success = compilation.compile(args, writer);
+      writer.flush();
+      out.writeByte(FRAME_RESULT);
+      out.writeBoolean(success);
+      out.flush();
+    }
+    return !isAboveMemoryCeiling();
+  }
+
+  private boolean isAboveMemoryCeiling() {
+    System.gc();
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    if (heap.getMax() <= 0) {
+      return false;
+    }
+    long percent = heap.getUsed() * 100 / heap.getMax();
+    if (percent > memoryCeilingPercent) {
+      log("Heap usage " + percent + "% is above the ceiling of "
+          + memoryCeilingPercent + "%, shutting down");
+      return true;
+    }
+    return false;
+  }
+
+  private void register(int port) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(KEY_PORT, Integer.toString(port));
+    properties.setProperty(KEY_TOKEN, token);
+    properties.setProperty(KEY_PID, Long.toString(ProcessHandle.current().pid()));
+    properties.setProperty(KEY_CONFIG, config);
+
+    // Write to a temporary file first, so clients never read a partial file
+    Files.createDirectories(registryFile.getParent());
+    Path tmpFile = Files.createTempFile(registryFile.getParent(),
+        registryFile.getFileName().toString(), ".tmp");
+    try (OutputStream stream = Files.newOutputStream(tmpFile)) {
+      properties.store(stream, "GWT compiler daemon");
+    }
+    Files.move(tmpFile, registryFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void unregister() {
+    // Only remove the registry file if it still points to this daemon
+    try {
+      Properties properties = new Properties();
+      try (var stream = Files.newInputStream(registryFile)) {
+        properties.load(stream);
+      }
+      if (token.equals(properties.getProperty(KEY_TOKEN))) {
+        Files.deleteIfExists(registryFile);
+      }
+    } catch (IOException e) {
+      log("Failed to unregister: " + e);
+    }
+  }
+
+  private static void log(String message) {
+    System.out.println("[gwt-daemon] " + message);
+  }
+
+  /**
+   * Sends everything written to it as {@link #FRAME_OUTPUT} frames.
+   */
+  private static final class FrameWriter extends Writer {
+
+    // Keeps every frame well below the 64K limit of writeUTF
+    private static final int MAX_CHUNK = 16 * 1024;
+
+    private final DataOutputStream out;
+
+    FrameWriter(DataOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      for (int i = offset; i < offset + length; i += MAX_CHUNK) {
+        int chunk = Math.min(MAX_CHUNK, offset + length - i);
+        out.writeByte(FRAME_OUTPUT);
+        out.writeUTF(new String(buffer, i, chunk));
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The socket is closed by the caller
+      flush();
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.docstr.gwt.GwtCompilerDaemon.COMMAND_COMPILE;
+import static org.docstr.gwt.GwtCompilerDaemon.COMMAND_STOP;
+import static org.docstr.gwt.GwtCompilerDaemon.FRAME_OUTPUT;
+import static org.docstr.gwt.GwtCompilerDaemon.FRAME_RESULT;
+import static org.docstr.gwt.GwtCompilerDaemon.KEY_CONFIG;
+import static org.docstr.gwt.GwtCompilerDaemon.KEY_PORT;
+import static org.docstr.gwt.GwtCompilerDaemon.KEY_TOKEN;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Sends compile requests to a {@link GwtCompilerDaemon}, starting one when
+ * none is running.
+ * <p>
+ * A daemon is registered in a small properties file holding its port, an
+ * access token and the configuration key it was started with. When the key
+ * of a request differs, e.g. because the GWT version, the classpath or the
+ * JVM arguments or the environment changed, the old daemon is stopped and a
+ * new one started. Builds find, stop and start daemons holding a file lock
+ * next to the registry file, so concurrent builds agree on one daemon.
+ */
+class GwtCompilerDaemonClient {
+
+  private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  // Monitors of the registry lock files, as file locks do not exclude the
+  // threads of one JVM
+  private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+  private final Path registryFile;
+  private final File workingDir;
+  private final Logger logger;
+
+  /**
+   * Constructor.
+   *
+   * @param registryFile The file the daemon registers itself in
+   * @param workingDir   The working directory of a new daemon
+   * @param logger       The logger receiving the compiler output
+   */
+  GwtCompilerDaemonClient(Path registryFile, File workingDir, Logger logger) {
+    this.registryFile = registryFile;
+    this.workingDir = workingDir;
+    this.logger = logger;
+  }
+
+  /**
+   * Compiles in a running daemon, starting a new one if needed.
+   *
+   * @param launchCommand The command starting the daemon JVM, up to and
+   *                      including the daemon main class
+   * @param environment   The environment of a new daemon
+   * @param config        The key identifying the daemon configuration
+   * @param idleTimeout   The idle timeout of a new daemon, in minutes
+   * @param memoryCeiling The memory ceiling of a new daemon, in percent
+   * @param args          The compiler arguments
+   * @return {@code true} if the compilation succeeded
+   */
+  boolean compile(List<String> launchCommand, Map<String, String> environment,
+      String config, int idleTimeout, int memoryCeiling, List<String> args) {
+    Properties registration = withRegistryLock(() -> daemon(launchCommand,
+        environment, config, idleTimeout, memoryCeiling, null));
+    try {
+      return send(registration, args);
+    } catch (ConnectException e) {
+      logger.info("GWT compiler daemon is not reachable, starting a new one");
+    } catch (IOException e) {
+      throw new GradleException(
+          "Lost connection to the GWT compiler daemon, see " + logFile(), e);
+    }
+
+    String unreachableToken = registration.getProperty(KEY_TOKEN);
+    registration = withRegistryLock(() -> daemon(launchCommand, environment,
+        config, idleTimeout, memoryCeiling, unreachableToken));
+    try {
+      return send(registration, args);
+    } catch (IOException e) {
+      throw new GradleException(
+          "Failed to compile with the GWT compiler daemon, see " + logFile(), e);
+    }
+  }
+
+  /**
+   * Finds the registered daemon with a configuration, stopping a daemon
+   * with another configuration and starting a new one if needed. Only
+   * called holding the registry lock, so concurrent builds never start two
+   * daemons or stop each other's new daemon.
+   *
+   * @param unreachableToken The token of a daemon found unreachable, which
+   *                         is replaced unless another build already did
+   */
+  private Properties daemon(List<String> launchCommand, Map<String, String> environment,
+      String config, int idleTimeout, int memoryCeiling, String unreachableToken) {
+    Properties registration = readRegistration();
+    if (registration != null
+        && !config.equals(registration.getProperty(KEY_CONFIG))) {
+      logger.lifecycle("GWT compiler daemon configuration changed, restarting it");
+      stop(registration);
+      registration = null;
+    } else if (registration != null
+        && registration.getProperty(KEY_TOKEN).equals(unreachableToken)) {
+      registration = null;
+    }
+    return registration != null ? registration
+        : launch(launchCommand, environment, config, idleTimeout, memoryCeiling);
+  }
+
+  /**
+   * Runs an action holding the lock of the registry file in this build and
+   * the file lock next to it across builds.
+   */
+  private <T> T withRegistryLock(Supplier<T> action) {
+    Path lockFile = registryFile.resolveSibling(registryFile.getFileName() + ".lock");
+    synchronized (LOCKS.computeIfAbsent(lockFile, key -> new Object())) {
+      try {
+        Files.createDirectories(lockFile.getParent());
+        try (FileChannel channel = FileChannel.open(lockFile,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.lock()) {
+          return action.get();
+        }
+      } catch (IOException e) {
+        throw new GradleException("Failed to lock the GWT compiler daemon registry "
+            + registryFile, e);
+      }
+    }
+  }
+
+  private boolean send(Properties registration, List<String> args)
+      throws IOException {
+    try (Socket socket = connect(registration)) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+      out.writeUTF(registration.getProperty(KEY_TOKEN));
+      out.writeUTF(COMMAND_COMPILE);
+      out.writeInt(args.size());
+      for (String arg : args) {
+        out.writeUTF(arg);
+      }
+      out.flush();
+
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream()));
+      StringBuilder line = new StringBuilder();
+      while (true) {
+        byte frame = in.readByte();
+        if (frame == FRAME_OUTPUT) {
+          line.append(in.readUTF());
+          int newline;
+          while ((newline = line.indexOf("\n")) >= 0) {
+            logger.lifecycle(line.substring(0, newline).stripTrailing());
+            line.delete(0, newline + 1);
+          }
+        } else if (frame == FRAME_RESULT) {
+          if (line.length() > 0) {
+            logger.lifecycle(line.toString());
+          }
+          return in.readBoolean();
+        } else {
+          throw new IOException("Unexpected frame from GWT compiler daemon: " + frame);
+        }
+      }
+    }
+  }
+
+  private void stop(Properties registration) {
+    try (Socket socket = connect(registration)) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeUTF(registration.getProperty(KEY_TOKEN));
+      out.writeUTF(COMMAND_STOP);
+      out.flush();
+      socket.getInputStream().read();
+    } catch (IOException e) {
+      logger.info("Failed to stop GWT compiler daemon: {}", e.toString());
+    }
+    try {
+      Files.deleteIfExists(registryFile);
+    } catch (IOException e) {
+      logger.info("Failed to delete {}: {}", registryFile, e.toString());
+    }
+  }
+
+  private Properties launch(List<String> launchCommand, Map<String, String> environment,
+      String config, int idleTimeout, int memoryCeiling) {
+    List<String> command = new ArrayList<>(launchCommand);
+    command.add(registryFile.toString());
+    command.add(config);
+    command.add(Integer.toString(idleTimeout));
+    command.add(Integer.toString(memoryCeiling));
+
+    logger.lifecycle("Starting GWT compiler daemon, log: {}", logFile());
+    logger.info("GWT compiler daemon command: {}", command);
+    Process process;
+    try {
+      Files.createDirectories(registryFile.getParent());
+      Files.deleteIfExists(registryFile);
+      ProcessBuilder builder = new ProcessBuilder(command)
+          .directory(workingDir)
+          .redirectErrorStream(true)
+          // Each daemon starts a new log, so it does not grow across restarts
+          .redirectOutput(ProcessBuilder.Redirect.to(logFile()));
+      builder.environment().clear();
+      builder.environment().putAll(environment);
+      process = builder.start();
+    } catch (IOException e) {
+      throw new GradleException("Failed to start the GWT compiler daemon", e);
+    }
+
+    long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline) {
+      Properties registration = readRegistration();
+      if (registration != null
+          && config.equals(registration.getProperty(KEY_CONFIG))) {
+        return registration;
+      }
+      if (!process.isAlive()) {
+        throw new GradleException(
+            "The GWT compiler daemon exited during startup, see " + logFile());
+      }
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GradleException("Interrupted while starting the GWT compiler daemon", e);
+      }
+    }
+    process.destroy();
+    throw new GradleException(
+        "The GWT compiler daemon did not start in time, see " + logFile());
+  }
+
+  private Properties readRegistration() {
+    if (!Files.isRegularFile(registryFile)) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (InputStream stream = Files.newInputStream(registryFile)) {
+      properties.load(stream);
+    } catch (IOException e) {
+      logger.info("Failed to read {}: {}", registryFile, e.toString());
+      return null;
+    }
+    return properties.getProperty(KEY_PORT) != null ? properties : null;
+  }
+
+  private Socket connect(Properties registration) throws IOException {
+    return new Socket(InetAddress.getLoopbackAddress(),
+        Integer.parseInt(registration.getProperty(KEY_PORT)));
+  }
+
+  private File logFile() {
+    return new File(registryFile.toString().replaceFirst("\\.properties$", "") + ".log");
+  }
+}
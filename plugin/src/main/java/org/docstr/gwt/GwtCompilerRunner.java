@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.Compiler;
+import com.google.gwt.dev.CompilerOptions;
+import com.google.gwt.dev.CompilerOptionsImpl;
+import com.google.gwt.dev.util.log.PrintWriterTreeLogger;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link Compiler} inside the current JVM.
+ * <p>
+ * {@code Compiler.main} calls {@code System.exit}, which would kill a
+ * long-lived process, so this class replicates what {@code main} does
+ * without exiting. It references gwt-dev directly and must only be loaded by
+ * a class loader that has gwt-dev on its classpath, i.e. inside a worker
+ * process, never inside the Gradle daemon.
+ * <p>
+ * Given {@link GwtUnitCacheStats#STATS_FILE_ARG}, it records the statistics
+ * of the persistent unit cache from the compiler log into that file.
+ * <p>
+ * GWT keeps writing to the persistent unit cache directory after a compile
+ * returns, so the JVM holds a shared lock on the {@link #IN_USE_SUFFIX} file
+ * next to that directory for as long as it lives. Compiler daemons and
+ * Gradle workers outlive the task, and {@link GwtUnitCacheService} does not
+ * prune or evict a directory while a JVM holds that lock.
+ */
+public final class GwtCompilerRunner {
+
+  /**
+   * The suffix of the file, next to a unit cache directory, locked by the
+   * JVMs using the directory.
+   */
+  static final String IN_USE_SUFFIX = ".inuse.lock";
+
+  // Held until the JVM exits, the unit cache directory of a JVM never changes
+  private static FileLock unitCacheInUse;
+
+  private GwtCompilerRunner() {
+  }
+
+  /**
+   * Compiles like {@code com.google.gwt.dev.Compiler}, for forked JVMs
+   * recording unit cache statistics.
+   *
+   * @param args The compiler arguments
+   */
+  public static void main(String[] args) {
+    System.exit(compile(List.of(args)) ? 0 : 1);
+  }
+
+  /**
+   * Compiles with the given command line arguments.
+   *
+   * @param args The arguments, exactly as they would be passed to
+   *             {@code com.google.gwt.dev.Compiler}
+   * @return {@code true} if the compilation succeeded
+   */
+  static boolean compile(List<String> args) {
+    return compile(args, new PrintWriter(System.out, true));
+  }
+
+  /**
+   * Compiles with the given command line arguments, writing the compiler log
+   * to the given writer.
+   *
+   * @param args The arguments, exactly as they would be passed to
+   *             {@code com.google.gwt.dev.Compiler}
+   * @param out  The writer receiving the compiler log
+   * @return {@code true} if the compilation succeeded
+   */
+  static boolean compile(List<String> args, PrintWriter out) {
+    markUnitCacheInUse(out);
+    List<String> gwtArgs = new ArrayList<>(args);
+    Path statsFile = null;
+    int statsArg = gwtArgs.indexOf(GwtUnitCacheStats.STATS_FILE_ARG);
+    if (statsArg >= 0 && statsArg + 1 < gwtArgs.size()) {
+      statsFile = Path.of(gwtArgs.remove(statsArg + 1));
+      gwtArgs.remove(statsArg);
+    }
+
+    CompilerOptions options = new CompilerOptionsImpl();
+    if (!new Compiler.ArgProcessor(options).processArgs(
+        gwtArgs.toArray(new String[0]))) {
+      return false;
+    }
+
+    PrintWriterTreeLogger logger = new PrintWriterTreeLogger(out);
+    logger.setMaxDetail(options.getLogLevel());
+    GwtUnitCacheStats stats = statsFile != null ? new GwtUnitCacheStats() : null;
+    try {
+      return Compiler.compile(stats != null ? new StatsTreeLogger(logger, stats) : logger,
+          options);
+    } catch (UnableToCompleteException e) {
+      // The details have already been logged by the compiler
+      return false;
+    } finally {
+      if (stats != null) {
+        writeStats(stats, statsFile, out);
+      }
+    }
+  }
+
+  private static synchronized void markUnitCacheInUse(PrintWriter out) {
+    String cacheDir = System.getProperty("gwt.persistentunitcachedir");
+    if (unitCacheInUse != null || cacheDir == null) {
+      return;
+    }
+    Path dir = Path.of(cacheDir).toAbsolutePath().normalize();
+    Path lockFile = dir.resolveSibling(dir.getFileName() + IN_USE_SUFFIX);
+    try {
+      FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+      unitCacheInUse = channel.lock(0, Long.MAX_VALUE, true);
+    } catch (IOException e) {
+      out.println("Failed to mark the unit cache " + dir + " as in use: " + e);
+    }
+  }
+
+  private static void writeStats(GwtUnitCacheStats stats, Path statsFile, PrintWriter out) {
+    try {
+      String cacheDir = System.getProperty("gwt.persistentunitcachedir");
+      if (cacheDir != null) {
+        stats.countCacheFiles(Path.of(cacheDir));
+      }
+      stats.write(statsFile);
+    } catch (IOException e) {
+      out.println("Failed to write the unit cache statistics to " + statsFile + ": " + e);
+    }
+  }
+
+  /**
+   * Hands the TRACE and DEBUG messages, which report the unit cache
+   * activity, to the unit cache statistics, and the messages within the
+   * configured log level to the actual logger.
+   */
+  private static final class StatsTreeLogger extends TreeLogger {
+
+    // Null within branches the actual logger does not log
+    private final TreeLogger delegate;
+    private final GwtUnitCacheStats stats;
+
+    StatsTreeLogger(TreeLogger delegate, GwtUnitCacheStats stats) {
+      this.delegate = delegate;
+      this.stats = stats;
+    }
+
+    @Override
+    public TreeLogger branch(Type type, String msg, Throwable caught, HelpInfo helpInfo) {
+      stats.onMessage(msg);
+      return new StatsTreeLogger(delegate != null && delegate.isLoggable(type)
+          ? delegate.branch(type, msg, caught, helpInfo)
+          : null, stats);
+    }
+
+    @Override
+    public boolean isLoggable(Type type) {
+      return !type.isLowerPriorityThan(Type.DEBUG)
+          || delegate != null && delegate.isLoggable(type);
+    }
+
+    @Override
+    public void log(Type type, String msg, Throwable caught, HelpInfo helpInfo) {
+      stats.onMessage(msg);
+      if (delegate != null && delegate.isLoggable(type)) {
+        delegate.log(type, msg, caught, helpInfo);
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Records the heap usage of forked GWT JVMs from their GC logs, and derives
+ * the maximum heap size of the next run from it.
+ * <p>
+ * The JVMs log their garbage collections with {@code -Xlog:gc}, one file
+ * per process. After they exit, the logs are reduced to the peak heap, the
+ * largest heap left after a collection and the time spent in GC pauses,
+ * which are kept in a properties file per task. The recommended heap is
+ * twice the largest heap left after a full collection, or after any
+ * collection if there was no full one, with more headroom when the JVM
+ * spent much of its time collecting.
+ */
+final class GwtHeapTelemetry {
+
+  /**
+   * The directory holding the telemetry, relative to the project cache
+   * directory.
+   */
+  static final String TELEMETRY_DIR = "gwt/heap";
+
+  /**
+   * The smallest heap ever recommended, in MB.
+   */
+  static final long MIN_HEAP_MB = 256;
+
+  /**
+   * Share of the run time, in percent, spent in GC pauses above which more
+   * headroom is given.
+   */
+  static final int GC_TIME_PERCENT = 10;
+
+  private static final String GC_LOG_PREFIX = "gc-";
+
+  // e.g. "[1.234s] GC(3) Pause Young (Normal) (G1 Evacuation Pause) 24M->5M(256M) 3.456ms"
+  private static final Pattern PAUSE = Pattern.compile(
+      "^\\[([\\d.]+)s\\] GC\\(\\d+\\) Pause (\\w+).*?"
+          + "(\\d+)([KMG])->(\\d+)([KMG])\\((\\d+)([KMG])\\) ([\\d.]+)ms$");
+  private static final Pattern UPTIME = Pattern.compile("^\\[([\\d.]+)s\\]");
+
+  /**
+   * The heap usage of a run, in MB and milliseconds.
+   *
+   * @param peakHeapMb    The largest heap before a collection
+   * @param liveHeapMb    The largest heap after a full collection, or after
+   *                      any collection if there was no full one
+   * @param maxHeapMb     The largest heap capacity
+   * @param gcPauseMillis The time spent in GC pauses
+   * @param uptimeMillis  The run time of the longest running JVM
+   */
+  record Usage(long peakHeapMb, long liveHeapMb, long maxHeapMb,
+      long gcPauseMillis, long uptimeMillis) {
+
+    /**
+     * The maximum heap size to use for the next run, rounded up to 64 MB.
+     *
+     * @return The recommended heap size, in MB
+     */
+    long recommendedHeapMb() {
+      long heapMb = liveHeapMb * 2;
+      if (uptimeMillis > 0 && gcPauseMillis * 100 / uptimeMillis > GC_TIME_PERCENT) {
+        heapMb = heapMb * 3 / 2;
+      }
+      return (Math.max(MIN_HEAP_MB, heapMb) + 63) / 64 * 64;
+    }
+  }
+
+  private final Path gcLogDir;
+  private final Path telemetryFile;
+
+  /**
+   * Constructor.
+   *
+   * @param gcLogDir      The directory the JVMs write their GC logs to
+   * @param telemetryFile The file holding the usage of the last run
+   */
+  GwtHeapTelemetry(File gcLogDir, File telemetryFile) {
+    this.gcLogDir = gcLogDir.toPath();
+    this.telemetryFile = telemetryFile.toPath();
+  }
+
+  /**
+   * The file holding the heap usage of the last run of a task, shared by
+   * all projects of the build.
+   *
+   * @param project  The project
+   * @param taskPath The path of the task
+   * @return The telemetry file
+   */
+  static File telemetryFile(Project project, String taskPath) {
+    return new File(GwtPlugin.projectCacheDir(project), TELEMETRY_DIR + "/"
+        + taskPath.substring(1).replace(':', '.') + ".properties");
+  }
+
+  /**
+   * The JVM arguments writing a GC log per process. Needs Java 9 or later.
+   * Creates the log directory, as the JVM does not start if it is missing.
+   *
+   * @return The JVM arguments
+   */
+  List<String> jvmArgs() {
+    try {
+      Files.createDirectories(gcLogDir);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // Quoted, as a colon separates the options of -Xlog
+    return List.of("-Xlog:gc:file=\"" + gcLogDir.resolve(GC_LOG_PREFIX + "%p.log")
+        + "\":uptime");
+  }
+
+  /**
+   * Reduces the GC logs of the last run to its heap usage, stores it and
+   * deletes the logs.
+   *
+   * @return The usage, or empty if there are no GC logs
+   * @throws IOException If the logs cannot be read or the usage not stored
+   */
+  Optional<Usage> record() throws IOException {
+    if (!Files.isDirectory(gcLogDir)) {
+      return Optional.empty();
+    }
+    Usage usage = null;
+    try (DirectoryStream<Path> logs = Files.newDirectoryStream(gcLogDir,
+        GC_LOG_PREFIX + "*.log")) {
+      for (Path log : logs) {
+        try (Stream<String> lines = Files.lines(log)) {
+          usage = merge(usage, parse(lines));
+        }
+        Files.delete(log);
+      }
+    }
+    if (usage == null) {
+      return Optional.empty();
+    }
+    store(usage);
+    return Optional.of(usage);
+  }
+
+  /**
+   * The usage stored by the last run.
+   *
+   * @return The usage, or empty if there is none or it cannot be read
+   */
+  Optional<Usage> read() {
+    if (!Files.isRegularFile(telemetryFile)) {
+      return Optional.empty();
+    }
+    Properties properties = new Properties();
+    try (InputStream stream = Files.newInputStream(telemetryFile)) {
+      properties.load(stream);
+      return Optional.of(new Usage(
+          Long.parseLong(properties.getProperty("peakHeapMb")),
+          Long.parseLong(properties.getProperty("liveHeapMb")),
+          Long.parseLong(properties.getProperty("maxHeapMb")),
+          Long.parseLong(properties.getProperty("gcPauseMillis")),
+          Long.parseLong(properties.getProperty("uptimeMillis"))));
+    } catch (IOException | RuntimeException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Logs the usage of the last run, and recommends a heap size if the
+   * configured one is far from it.
+   *
+   * @param usage        The usage of the last run
+   * @param taskPath     The path of the task
+   * @param maxHeapSize  The configured maximum heap size, or {@code null}
+   * @param logger       The logger
+   */
+  static void report(Usage usage, String taskPath, String maxHeapSize, Logger logger) {
+    logger.info("{}: peak heap {}M, {}M after GC, {}M capacity, {}ms in GC pauses of {}ms",
+        taskPath, usage.peakHeapMb(), usage.liveHeapMb(), usage.maxHeapMb(),
+        usage.gcPauseMillis(), usage.uptimeMillis());
+    long recommendedMb = usage.recommendedHeapMb();
+    long configuredMb = maxHeapSize != null
+        ? GwtMemoryBudgetService.parseMemoryMb(maxHeapSize)
+        : 0;
+    // Only worth a warning if off by more than a quarter
+    if (Math.abs(configuredMb - recommendedMb) * 4 > recommendedMb) {
+      logger.lifecycle("{}: consider maxHeapSize = '{}M' ({}M left after GC, {}ms of {}ms"
+              + " in GC pauses), or set gwt.autoHeapSize to apply it", taskPath,
+          recommendedMb, usage.liveHeapMb(), usage.gcPauseMillis(), usage.uptimeMillis());
+    }
+  }
+
+  /**
+   * Reduces a GC log to the heap usage of its JVM.
+   *
+   * @param lines The lines of the log
+   * @return The usage
+   */
+  static Usage parse(Stream<String> lines) {
+    long peak = 0;
+    long liveAfterFull = 0;
+    long liveAfterAny = 0;
+    long max = 0;
+    double pauseMillis = 0;
+    double uptimeSeconds = 0;
+    for (String line : (Iterable<String>) lines::iterator) {
+      Matcher uptime = UPTIME.matcher(line);
+      if (uptime.find()) {
+        uptimeSeconds = Math.max(uptimeSeconds, Double.parseDouble(uptime.group(1)));
+      }
+      Matcher pause = PAUSE.matcher(line.strip());
+      if (!pause.matches()) {
+        continue;
+      }
+      long before = toMb(pause.group(3), pause.group(4));
+      long after = toMb(pause.group(5), pause.group(6));
+      peak = Math.max(peak, before);
+      liveAfterAny = Math.max(liveAfterAny, after);
+      if ("Full".equals(pause.group(2))) {
+        liveAfterFull = Math.max(liveAfterFull, after);
+      }
+      max = Math.max(max, toMb(pause.group(7), pause.group(8)));
+      pauseMillis += Double.parseDouble(pause.group(9));
+    }
+    return new Usage(peak, liveAfterFull > 0 ? liveAfterFull : liveAfterAny, max,
+        Math.round(pauseMillis), Math.round(uptimeSeconds * 1000));
+  }
+
+  private static Usage merge(Usage a, Usage b) {
+    if (a == null) {
+      return b;
+    }
+    return new Usage(Math.max(a.peakHeapMb(), b.peakHeapMb()),
+        Math.max(a.liveHeapMb(), b.liveHeapMb()),
+        Math.max(a.maxHeapMb(), b.maxHeapMb()),
+        Math.max(a.gcPauseMillis(), b.gcPauseMillis()),
+        Math.max(a.uptimeMillis(), b.uptimeMillis()));
+  }
+
+  private static long toMb(String value, String unit) {
+    long amount = Long.parseLong(value);
+    return switch (unit) {
+      case "K" -> (amount + 1023) / 1024;
+      case "G" -> amount * 1024;
+      default -> amount;
+    };
+  }
+
+  private void store(Usage usage) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("peakHeapMb", Long.toString(usage.peakHeapMb()));
+    properties.setProperty("liveHeapMb", Long.toString(usage.liveHeapMb()));
+    properties.setProperty("maxHeapMb", Long.toString(usage.maxHeapMb()));
+    properties.setProperty("gcPauseMillis", Long.toString(usage.gcPauseMillis()));
+    properties.setProperty("uptimeMillis", Long.toString(usage.uptimeMillis()));
+
+    // Write to a temporary file first, so a concurrent reader never sees a
+    // partial file
+    Files.createDirectories(telemetryFile.getParent());
+    Path tmpFile = Files.createTempFile(telemetryFile.getParent(),
+        telemetryFile.getFileName().toString(), ".tmp");
+    try (OutputStream stream = Files.newOutputStream(tmpFile)) {
+      properties.store(stream, "GWT heap telemetry");
+    }
+    Files.move(tmpFile, telemetryFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.util.List;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskProvider;
+
+/**
+ * Configures the GWT link task of a split compilation.
+ */
+public class GwtLinkConfig implements Action<GwtLinkTask> {
+
+  private final GwtPluginExtension extension;
+  private final TaskProvider<? extends GwtCompileTask> precompileTask;
+  private final List<TaskProvider<GwtCompilePermsTask>> permsTasks;
+
+  /**
+   * Constructor.
+   *
+   * @param extension      The GWT plugin extension
+   * @param precompileTask The precompile task
+   * @param permsTasks     The compile permutations tasks
+   */
+  public GwtLinkConfig(GwtPluginExtension extension,
+      TaskProvider<? extends GwtCompileTask> precompileTask,
+      List<TaskProvider<GwtCompilePermsTask>> permsTasks) {
+    this.extension = extension;
+    this.precompileTask = precompileTask;
+    this.permsTasks = permsTasks;
+  }
+
+  @Override
+  public void execute(GwtLinkTask task) {
+    Project project = task.getProject();
+
+    task.setMinHeapSize(extension.getCompiler().getMinHeapSize()
+        .getOrElse(extension.getMinHeapSize().getOrElse("256M")));
+    task.setMaxHeapSize(extension.getCompiler().getMaxHeapSize()
+        .getOrElse(extension.getMaxHeapSize().getOrElse("512M")));
+    task.getLogLevel().set(precompileTask.flatMap(AbstractBaseTask::getLogLevel));
+    task.getModules().set(precompileTask.flatMap(AbstractBaseTask::getModules));
+
+    task.getPrecompileDir().set(precompileTask.flatMap(AbstractBaseTask::getWorkDir));
+    for (TaskProvider<GwtCompilePermsTask> permsTask : permsTasks) {
+      task.getPermutationDirs().from(permsTask.flatMap(AbstractBaseTask::getWorkDir));
+    }
+    task.getWorkDir().set(project.getLayout().getBuildDirectory()
+        .dir("gwt/split/link"));
+
+    task.getWar().set(extension.getCompiler().getWar()
+        .orElse(extension.getWar()));
+    task.getDeploy().set(extension.getCompiler().getDeploy()
+        .orElse(extension.getDeploy()));
+    task.getExtra().set(extension.getCompiler().getExtra()
+        .orElse(extension.getExtra()));
+
+    task.configureClasspath(project);
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.util.Set;
+import javax.inject.Inject;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+/**
+ * Task running the last stage of a split GWT compilation: links the
+ * permutations compiled by the {@link GwtCompilePermsTask} shards into the
+ * war, deploy and extra directories.
+ */
+@CacheableTask
+public abstract class GwtLinkTask extends AbstractBaseTask {
+
+  /**
+   * The main class for linking compiled permutations.
+   */
+  public static final String LINK_CLASS = "com.google.gwt.dev.Link";
+
+  private static final Set<String> SUPPORTED_ARGS = Set.of(
+      "logLevel", "workDir", "war", "deploy", "extra");
+
+  /**
+   * Constructs a new GwtLinkTask.
+   */
+  @Inject
+  public GwtLinkTask() {
+    getMainClass().set(LINK_CLASS);
+  }
+
+  /**
+   * The working directory of the precompile task
+   *
+   * @return The precompile directory
+   */
+  @InputDirectory
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public abstract DirectoryProperty getPrecompileDir();
+
+  /**
+   * The working directories of the compile permutations tasks
+   *
+   * @return The permutation directories
+   */
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  public abstract ConfigurableFileCollection getPermutationDirs();
+
+  /**
+   * Scratch directory the precompilation and the permutations are assembled
+   * in before linking
+   *
+   * @return The working directory
+   */
+  @Override
+  @Internal
+  public abstract DirectoryProperty getWorkDir();
+
+  /**
+   * Used to assemble the working directory
+   *
+   * @return The file system operations
+   */
+  @Inject
+  protected abstract FileSystemOperations getFileSystemOperations();
+
+  @Override
+  protected boolean acceptsArg(String argName) {
+    return SUPPORTED_ARGS.contains(argName);
+  }
+
+  @Override
+  public void exec() {
+    getFileSystemOperations().sync(spec -> {
+      spec.from(getPrecompileDir());
+      spec.from(getPermutationDirs());
+      spec.into(getWorkDir());
+    });
+    super.exec();
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+
+/**
+ * Build-wide memory budget shared by the JVMs forked by GWT tasks of all
+ * projects.
+ * <p>
+ * Before forking, a task leases as much memory as the maximum heap of the
+ * JVMs it runs: the compiler and each of its {@code -localWorkers}. A lease
+ * waits while it does not fit in what is left of the budget, so that with
+ * {@code --parallel} as many JVMs run at the same time as the budget allows.
+ * A lease larger than the whole budget runs once nothing else holds a lease.
+ * Leases of a task are released when the task finishes, even if it fails.
+ * <p>
+ * The budget is set with the {@value #BUDGET_PROPERTY} Gradle property,
+ * e.g. {@code 48g}. Without it, leases are granted immediately.
+ */
+public abstract class GwtMemoryBudgetService implements
+    BuildService<GwtMemoryBudgetService.Params>, OperationCompletionListener {
+
+  /**
+   * The name of the build service.
+   */
+  public static final String SERVICE_NAME = "gwtMemoryBudget";
+
+  /**
+   * The Gradle property holding the total memory budget.
+   */
+  public static final String BUDGET_PROPERTY = "gwt.memoryBudget";
+
+  private static final Logger LOG = Logging.getLogger(GwtMemoryBudgetService.class);
+
+  private final Map<String, Long> leases = new HashMap<>();
+  private long usedMb;
+
+  /**
+   * Parameters of the memory budget.
+   */
+  public interface Params extends BuildServiceParameters {
+
+    /**
+     * The total memory budget in MB, 0 or absent for no budget
+     *
+     * @return The budget
+     */
+    Property<Long> getBudgetMb();
+  }
+
+  /**
+   * A memory lease, released when closed.
+   */
+  public interface Lease extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  /**
+   * Registers the build service, unless it is already registered by another
+   * project of the build.
+   *
+   * @param project The project
+   * @return The build service
+   */
+  public static Provider<GwtMemoryBudgetService> register(Project project) {
+    return project.getGradle().getSharedServices().registerIfAbsent(
+        SERVICE_NAME, GwtMemoryBudgetService.class, spec ->
+            spec.getParameters().getBudgetMb().set(project.getProviders()
+                .gradleProperty(BUDGET_PROPERTY)
+                .map(GwtMemoryBudgetService::parseMemoryMb)));
+  }
+
+  /**
+   * Leases memory, waiting until it fits in the budget.
+   *
+   * @param owner The path of the task leasing the memory
+   * @param mb    The amount of memory, in MB
+   * @return The lease
+   */
+  public Lease acquire(String owner, long mb) {
+    long budgetMb = getParameters().getBudgetMb().getOrElse(0L);
+    if (budgetMb <= 0) {
+      return () -> { };
+    }
+
+    synchronized (this) {
+      if (usedMb > 0 && usedMb + mb > budgetMb) {
+        LOG.lifecycle("{} waits for {}M of the GWT memory budget ({}M of {}M in use)",
+            owner, mb, usedMb, budgetMb);
+      }
+      while (usedMb > 0 && usedMb + mb > budgetMb) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new GradleException("Interrupted while waiting for the GWT memory budget", e);
+        }
+      }
+      usedMb += mb;
+      leases.merge(owner, mb, Long::sum);
+    }
+    return () -> release(owner, mb);
+  }
+
+  private synchronized void release(String owner, long mb) {
+    Long leased = leases.get(owner);
+    if (leased == null) {
+      // Already released when the task finished
+      return;
+    }
+    long released = Math.min(leased, mb);
+    if (leased > released) {
+      leases.put(owner, leased - released);
+    } else {
+      leases.remove(owner);
+    }
+    usedMb -= released;
+    notifyAll();
+  }
+
+  /**
+   * Releases all leases of a task.
+   *
+   * @param owner The path of the task
+   */
+  public void releaseAll(String owner) {
+    release(owner, Long.MAX_VALUE);
+  }
+
+  @Override
+  public void onFinish(FinishEvent event) {
+    if (event instanceof TaskFinishEvent taskEvent) {
+      releaseAll(taskEvent.getDescriptor().getTaskPath());
+    }
+  }
+
+  /**
+   * Parses a JVM memory size such as {@code 512m}, {@code 2G} or
+   * {@code 1048576}.
+   *
+   * @param size The memory size
+   * @return The size in MB
+   */
+  static long parseMemoryMb(String size) {
+    String value = size.trim().toLowerCase(Locale.ROOT);
+    if (value.isEmpty()) {
+      throw new GradleException("Invalid memory size: '" + size + "'");
+    }
+    long factorKb;
+    switch (value.charAt(value.length() - 1)) {
+      case 'k' -> factorKb = 1;
+      case 'm' -> factorKb = 1024;
+      case 'g' -> factorKb = 1024 * 1024;
+      case 't' -> factorKb = 1024L * 1024 * 1024;
+      default -> {
+        factorKb = 0;
+        value = value + "b";
+      }
+    }
+    try {
+      long amount = Long.parseLong(value.substring(0, value.length() - 1));
+      return factorKb == 0 ? amount / (1024 * 1024) : amount * factorKb / 1024;
+    } catch (NumberFormatException e) {
+      throw new GradleException("Invalid memory size: '" + size + "'", e);
+    }
+  }
+}
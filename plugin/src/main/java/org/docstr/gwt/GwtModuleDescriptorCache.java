@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.docstr.gwt.GwtModuleScanner.Descriptor;
+import org.docstr.gwt.GwtModuleScanner.PathElement;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Persistent cache of parsed module descriptors, keyed by the SHA-256 of the
+ * descriptor content, so unchanged descriptors are never parsed again.
+ * <p>
+ * The cache is a small binary file, read on first use and written back when
+ * new descriptors were parsed. A file that cannot be read, e.g. written by
+ * another version of the plugin, is ignored. Once the cache holds more than
+ * {@value #MAX_ENTRIES} descriptors, only the ones used by the current build
+ * are written back.
+ */
+final class GwtModuleDescriptorCache {
+
+  private static final Logger LOG = Logging.getLogger(GwtModuleDescriptorCache.class);
+
+  // "GWTD", followed by the format version
+  private static final int MAGIC = 0x47575444;
+  private static final int VERSION = 3;
+
+  static final int MAX_ENTRIES = 4096;
+
+  private final Path file;
+  private final Map<String, Descriptor> entries = new ConcurrentHashMap<>();
+  private final Set<String> used = ConcurrentHashMap.newKeySet();
+  private volatile boolean loaded;
+  private volatile boolean dirty;
+
+  /**
+   * Constructor.
+   *
+   * @param file The cache file
+   */
+  GwtModuleDescriptorCache(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Returns the cached descriptor of the given content, parsing and caching
+   * it when unknown.
+   *
+   * @param content The descriptor content
+   * @param parser  Parses the content
+   * @return The descriptor
+   */
+  Descriptor get(byte[] content, Function<byte[], Descriptor> parser) {
+    load();
+    String hash = HashUtils.sha256(content);
+    used.add(hash);
+    Descriptor descriptor = entries.get(hash);
+    if (descriptor == null) {
+      descriptor = parser.apply(content);
+      entries.put(hash, descriptor);
+      dirty = true;
+    }
+    return descriptor;
+  }
+
+  /**
+   * Writes the cache file, if descriptors were added since it was read.
+   */
+  void save() {
+    if (!dirty) {
+      return;
+    }
+    boolean pruned = entries.size() > MAX_ENTRIES;
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmpFile = Files.createTempFile(file.getParent(),
+          file.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        List<Map.Entry<String, Descriptor>> written = entries.entrySet().stream()
+            .filter(entry -> !pruned || used.contains(entry.getKey()))
+            .toList();
+        out.writeInt(written.size());
+        for (Map.Entry<String, Descriptor> entry : written) {
+          out.writeUTF(entry.getKey());
+          Descriptor descriptor = entry.getValue();
+          writeList(out, descriptor.inherits());
+          writeList(out, descriptor.entryPoints());
+          writePathElements(out, descriptor.sources());
+          writePathElements(out, descriptor.superSources());
+          writePathElements(out, descriptor.publics());
+          writePathElements(out, descriptor.resources());
+          writeList(out, descriptor.properties());
+          writeList(out, descriptor.definedProperties());
+          writeList(out, descriptor.extendedProperties());
+          writeList(out, descriptor.collapsedProperties());
+        }
+      }
+      // Concurrent builds replace the whole file, never leave a partial one
+      Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      dirty = false;
+    } catch (IOException e) {
+      LOG.info("Failed to write GWT module descriptor cache {}: {}", file, e.toString());
+    }
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      if (Files.isRegularFile(file)) {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file)))) {
+          if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+              String hash = in.readUTF();
+              entries.put(hash, new Descriptor(readList(in), readList(in),
+                  readPathElements(in), readPathElements(in), readPathElements(in),
+                  readPathElements(in), readList(in), readList(in), readList(in),
+                  readList(in)));
+            }
+          }
+        } catch (IOException e) {
+          LOG.info("Ignoring unreadable GWT module descriptor cache {}: {}", file, e.toString());
+          entries.clear();
+        }
+      }
+      loaded = true;
+    }
+  }
+
+  private static void writeList(DataOutputStream out, List<String> values)
+      throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static void writePathElements(DataOutputStream out,
+      List<PathElement> elements) throws IOException {
+    out.writeInt(elements.size());
+    for (PathElement element : elements) {
+      out.writeUTF(element.path());
+      writeList(out, element.includes());
+      writeList(out, element.excludes());
+      writeList(out, element.skips());
+      out.writeBoolean(element.defaultExcludes());
+      out.writeBoolean(element.caseSensitive());
+    }
+  }
+
+  private static List<PathElement> readPathElements(DataInputStream in)
+      throws IOException {
+    int size = in.readInt();
+    List<PathElement> elements = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      elements.add(new PathElement(in.readUTF(), readList(in), readList(in),
+          readList(in), in.readBoolean(), in.readBoolean()));
+    }
+    return List.copyOf(elements);
+  }
+
+  private static List<String> readList(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    List<String> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(in.readUTF());
+    }
+    return List.copyOf(values);
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.model.ObjectFactory;
+
+/**
+ * The GWT modules reachable from a set of root modules through
+ * {@code <inherits>}, resolved from the project sources and the classpath.
+ * <p>
+ * Modules of the project sources contribute the files the compiler reads to
+ * {@link #getSourceFiles()}: their module file and the files of their
+ * source, super-source, public and resource paths that match the path
+ * patterns.
+ * Modules found on the classpath are tracked through the classpath itself.
+ *
+ * @see GwtModuleGraphService
+ */
+public final class GwtModuleGraph {
+
+  private final Map<String, Node> nodes;
+
+  GwtModuleGraph(Map<String, Node> nodes) {
+    this.nodes = Collections.unmodifiableMap(new LinkedHashMap<>(nodes));
+  }
+
+  /**
+   * The names of all resolved modules, roots first
+   *
+   * @return The module names
+   */
+  public Set<String> getModuleNames() {
+    return nodes.keySet();
+  }
+
+  /**
+   * The names of the modules a module inherits, including the ones that
+   * could not be resolved
+   *
+   * @param module The module name
+   * @return The inherited module names, or an empty list for an unknown module
+   */
+  public List<String> getInherits(String module) {
+    Node node = nodes.get(module);
+    return node != null ? node.descriptor().inherits() : List.of();
+  }
+
+  /**
+   * The parsed descriptor of a module
+   *
+   * @param module The module name
+   * @return The descriptor, or {@code null} for an unknown module
+   */
+  GwtModuleScanner.Descriptor getDescriptor(String module) {
+    Node node = nodes.get(module);
+    return node != null ? node.descriptor() : null;
+  }
+
+  /**
+   * Where a module was found: its module file, or the classpath entry it was
+   * found in
+   *
+   * @param module The module name
+   * @return The location, or {@code null} for an unknown module
+   */
+  public File getLocation(String module) {
+    Node node = nodes.get(module);
+    return node != null ? node.location() : null;
+  }
+
+  /**
+   * Whether a module belongs to the project sources
+   *
+   * @param module The module name
+   * @return {@code true} for a module of the project sources
+   */
+  public boolean isProjectModule(String module) {
+    Node node = nodes.get(module);
+    return node != null && node.sourceTrees() != null;
+  }
+
+  /**
+   * The files the compiler reads from the modules of the project sources in
+   * the graph
+   *
+   * @return The files
+   */
+  public List<File> getSourceFiles() {
+    Set<File> files = new TreeSet<>();
+    sourceTrees().forEach(tree -> files.addAll(tree.files()));
+    return List.copyOf(files);
+  }
+
+  /**
+   * The files the compiler reads from the modules of the project sources, as
+   * file trees rooted at the path element directories, so that the files
+   * are fingerprinted relative to their source path. The trees only descend
+   * into directories that may hold such files, and the directories they do
+   * visit are left out of the fingerprint by {@code @IgnoreEmptyDirectories}.
+   *
+   * @param objects The object factory creating the file trees
+   * @return The file trees
+   */
+  FileCollection sourceTrees(ObjectFactory objects) {
+    ConfigurableFileCollection trees = objects.fileCollection();
+    sourceTrees().forEach(tree -> trees.from(objects.fileTree().from(tree.dir())
+        .matching(patterns -> patterns.include(element -> element.isDirectory()
+            ? tree.descendsInto(element.getRelativePath().getPathString())
+            : tree.accepts(element.getRelativePath().getPathString())))));
+    return trees;
+  }
+
+  /**
+   * The entries of a classpath the compiler needs for this graph, in
+   * classpath order: the given runtime entries, the jars and directories
+   * holding the classpath modules and the project module files, and the
+   * directories holding files of the packages of the project source paths,
+   * e.g. their sources, resources and compiled classes.
+   *
+   * @param classpath The classpath the graph was resolved from
+   * @param runtime   The entries to keep regardless, e.g. the GWT jars
+   * @return The narrowed classpath
+   */
+  List<File> narrowClasspath(List<File> classpath, Set<File> runtime) {
+    Set<File> kept = new HashSet<>(runtime);
+    Set<String> packages = new LinkedHashSet<>();
+    for (Node node : nodes.values()) {
+      if (node.sourceTrees() == null) {
+        kept.add(node.location());
+        continue;
+      }
+      rootOf(classpath, node.location().toPath()).ifPresent(kept::add);
+      node.sourceTrees().forEach(tree -> packageOf(classpath, tree.dir())
+          .ifPresent(packages::add));
+    }
+
+    List<File> narrowed = new ArrayList<>();
+    for (File entry : classpath) {
+      if (kept.contains(entry) || entry.isDirectory() && packages.stream()
+          .anyMatch(pkg -> new File(entry, pkg).isDirectory())) {
+        narrowed.add(entry);
+      }
+    }
+    return narrowed;
+  }
+
+  /**
+   * The path of a directory relative to the classpath directory holding it
+   */
+  private static Optional<String> packageOf(List<File> classpath, Path dir) {
+    Path absolute = dir.toAbsolutePath().normalize();
+    return rootOf(classpath, absolute)
+        .map(root -> root.toPath().toAbsolutePath().normalize()
+            .relativize(absolute).toString());
+  }
+
+  /**
+   * The classpath directory holding a file
+   */
+  private static Optional<File> rootOf(List<File> classpath, Path file) {
+    Path absolute = file.toAbsolutePath().normalize();
+    return classpath.stream()
+        .filter(entry -> absolute.startsWith(entry.toPath().toAbsolutePath().normalize()))
+        .findFirst();
+  }
+
+  private List<GwtSourceTree> sourceTrees() {
+    return nodes.values().stream()
+        .filter(node -> node.sourceTrees() != null)
+        .flatMap(node -> node.sourceTrees().stream())
+        .toList();
+  }
+
+  /**
+   * A resolved module.
+   *
+   * @param name        The module name
+   * @param location    The module file or classpath entry
+   * @param descriptor  The parsed module descriptor
+   * @param sourceTrees The files read from a project module, {@code null}
+   *                    for a classpath module
+   */
+  record Node(String name, File location, GwtModuleScanner.Descriptor descriptor,
+      List<GwtSourceTree> sourceTrees) {
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.docstr.gwt.GwtModuleScanner.Descriptor;
+import org.gradle.api.Project;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Resolves {@link GwtModuleGraph module graphs} for the GWT tasks of all
+ * projects.
+ * <p>
+ * Each module descriptor, whether a file or a jar entry, is parsed at most
+ * once per build, and each jar on a classpath is indexed at most once.
+ * Descriptors are keyed by their location, size and modification time, so a
+ * descriptor changed during the build is read again.
+ * <p>
+ * Across builds, parsed descriptors are kept in a
+ * {@link GwtModuleDescriptorCache} below the project cache directory, keyed
+ * by their content, so that only new or changed descriptors are parsed.
+ */
+public abstract class GwtModuleGraphService implements
+    BuildService<GwtModuleGraphService.Params>, AutoCloseable {
+
+  /**
+   * The name of the build service.
+   */
+  public static final String SERVICE_NAME = "gwtModuleGraph";
+
+  /**
+   * The descriptor cache file, relative to the project cache directory.
+   */
+  public static final String DESCRIPTOR_CACHE_FILE = "gwt/module-descriptors.bin";
+
+  private static final Logger LOG = Logging.getLogger(GwtModuleGraphService.class);
+
+  private final Map<String, Descriptor> descriptors = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> jarIndexes = new ConcurrentHashMap<>();
+  private GwtModuleDescriptorCache descriptorCache;
+
+  /**
+   * Parameters of the module graph service.
+   */
+  public interface Params extends BuildServiceParameters {
+
+    /**
+     * The persistent cache of parsed module descriptors
+     *
+     * @return The cache file
+     */
+    RegularFileProperty getDescriptorCacheFile();
+  }
+
+  /**
+   * Registers the build service, unless it is already registered by another
+   * project of the build.
+   *
+   * @param project The project
+   * @return The build service
+   */
+  public static Provider<GwtModuleGraphService> register(Project project) {
+    return project.getGradle().getSharedServices().registerIfAbsent(
+        SERVICE_NAME, GwtModuleGraphService.class, spec -> {
+          spec.getParameters().getDescriptorCacheFile().set(
+              new File(GwtPlugin.projectCacheDir(project), DESCRIPTOR_CACHE_FILE));
+        });
+  }
+
+  @Override
+  public synchronized void close() {
+    if (descriptorCache != null) {
+      descriptorCache.save();
+    }
+  }
+
+  /**
+   * Resolves the modules reachable from the given modules. A module is
+   * looked up in the source directories first, then in the classpath
+   * entries, in order.
+   *
+   * @param sourceDirs The source directories of the project
+   * @param classpath  The classpath holding the library modules
+   * @param roots      The root module names, or an empty collection to start
+   *                   from every module of the source directories
+   * @return The module graph
+   */
+  public GwtModuleGraph resolve(Collection<File> sourceDirs,
+      Collection<File> classpath, Collection<String> roots) {
+    GwtModuleScanner scanner = new GwtModuleScanner();
+    Map<String, GwtCompileConfig.Module> projectModules = new HashMap<>();
+    scanner.findAllModules(sourceDirs)
+        .forEach(module -> projectModules.putIfAbsent(module.name(), module));
+
+    // Lookups that miss the project modules go through the whole classpath,
+    // so index the jars up front, concurrently
+    GwtModuleScanner.scanConcurrently(classpath.stream()
+        .filter(File::isFile)
+        .filter(jar -> !jarIndexes.containsKey(key(jar.getPath(), jar)))
+        .toList(), this::jarIndex);
+
+    Map<String, GwtModuleGraph.Node> nodes = new LinkedHashMap<>();
+    Set<String> visited = new HashSet<>();
+    Deque<String> pending = new ArrayDeque<>(
+        roots.isEmpty() ? new TreeSet<>(projectModules.keySet()) : roots);
+    while (!pending.isEmpty()) {
+      String name = pending.removeFirst();
+      if (!visited.add(name)) {
+        continue;
+      }
+      GwtModuleGraph.Node node = resolveModule(scanner, name, projectModules, classpath);
+      if (node == null) {
+        LOG.debug("GWT module not found: {}", name);
+        continue;
+      }
+      nodes.put(name, node);
+      pending.addAll(node.descriptor().inherits());
+    }
+    return new GwtModuleGraph(nodes);
+  }
+
+  private GwtModuleGraph.Node resolveModule(GwtModuleScanner scanner, String name,
+      Map<String, GwtCompileConfig.Module> projectModules, Collection<File> classpath) {
+    GwtCompileConfig.Module module = projectModules.get(name);
+    if (module != null) {
+      File file = module.path().toFile();
+      Descriptor descriptor = descriptor(file.getPath(), file,
+          () -> readFile(scanner, file));
+      return new GwtModuleGraph.Node(name, file, descriptor,
+          scanner.sourceTrees(module, descriptor));
+    }
+
+    String entryName = name.replace('.', '/') + ".gwt.xml";
+    for (File entry : classpath) {
+      if (entry.isDirectory()) {
+        File file = new File(entry, entryName);
+        if (file.isFile()) {
+          Descriptor descriptor = descriptor(file.getPath(), file,
+              () -> readFile(scanner, file));
+          return new GwtModuleGraph.Node(name, entry, descriptor, null);
+        }
+      } else if (entry.isFile() && jarIndex(entry).contains(entryName)) {
+        Descriptor descriptor = descriptor(entry.getPath() + "!/" + entryName, entry,
+            () -> readJarEntry(scanner, entry, entryName));
+        return new GwtModuleGraph.Node(name, entry, descriptor, null);
+      }
+    }
+    return null;
+  }
+
+  private Descriptor descriptor(String location, File file, Supplier<Descriptor> reader) {
+    return descriptors.computeIfAbsent(key(location, file), key -> reader.get());
+  }
+
+  private Set<String> jarIndex(File jar) {
+    return jarIndexes.computeIfAbsent(key(jar.getPath(), jar), key -> {
+      Set<String> entries = new HashSet<>();
+      try (ZipFile zipFile = new ZipFile(jar)) {
+        zipFile.stream()
+            .map(ZipEntry::getName)
+            .filter(entryName -> entryName.endsWith(".gwt.xml"))
+            .forEach(entries::add);
+      } catch (IOException e) {
+        LOG.debug("Not a jar, skipping GWT module lookup: {} ({})", jar, e.toString());
+      }
+      return entries;
+    });
+  }
+
+  private Descriptor readFile(GwtModuleScanner scanner, File file) {
+    try {
+      return parse(scanner, Files.readAllBytes(file.toPath()), file.getPath());
+    } catch (IOException e) {
+      LOG.error("Error reading GWT module path: '{}'", file, e);
+      return Descriptor.EMPTY;
+    }
+  }
+
+  private Descriptor readJarEntry(GwtModuleScanner scanner, File jar, String entryName) {
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      ZipEntry entry = zipFile.getEntry(entryName);
+      try (InputStream stream = zipFile.getInputStream(entry)) {
+        return parse(scanner, stream.readAllBytes(), jar + "!/" + entryName);
+      }
+    } catch (IOException e) {
+      LOG.error("Error reading GWT module '{}' from {}", entryName, jar, e);
+      return Descriptor.EMPTY;
+    }
+  }
+
+  private Descriptor parse(GwtModuleScanner scanner, byte[] content, String location) {
+    return descriptorCache().get(content, bytes -> scanner.parse(bytes, location));
+  }
+
+  private synchronized GwtModuleDescriptorCache descriptorCache() {
+    if (descriptorCache == null) {
+      descriptorCache = new GwtModuleDescriptorCache(
+          getParameters().getDescriptorCacheFile().get().getAsFile().toPath());
+    }
+    return descriptorCache;
+  }
+
+  private static String key(String location, File file) {
+    return location + '|' + file.length() + '|' + file.lastModified();
+  }
+}
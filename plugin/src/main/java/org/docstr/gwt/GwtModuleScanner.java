@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads GWT module descriptors from the project sources. Does not depend on
+ * the Gradle project model, so it can run in a build service.
+ */
+@Slf4j
+class GwtModuleScanner {
+
+  // Stream readers are cheap to create; the factory is thread-safe once
+  // configured. The DTD is never read, so parsing needs no network access.
+  private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+
+  // Scans wait on I/O most of the time, so more threads than cores pay off
+  static final int MAX_SCAN_THREADS = 8;
+
+  /**
+   * The collapsed property of {@code <collapse-all-properties>}.
+   */
+  static final String COLLAPSE_ALL = "*=*";
+
+  private static XMLInputFactory newInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    return factory;
+  }
+
+  /**
+   * Locates all GWT modules in the given source directories. The
+   * directories are walked concurrently, as walking is bound by I/O latency
+   * rather than CPU, e.g. on network mounted workspaces.
+   *
+   * @param sourceDirs The source directories
+   * @return The modules found, in the order of the source directories
+   */
+  Collection<GwtCompileConfig.Module> findAllModules(Collection<File> sourceDirs) {
+    Set<GwtCompileConfig.Module> modules = new LinkedHashSet<>();
+    scanConcurrently(sourceDirs, GwtModuleScanner::findModules).forEach(modules::addAll);
+    return modules;
+  }
+
+  private static List<GwtCompileConfig.Module> findModules(File sourceDir) {
+    if (!sourceDir.isDirectory()) {
+      return List.of();
+    }
+    Path root = sourceDir.toPath();
+    try (Stream<Path> files = Files.walk(root)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".gwt.xml"))
+          .filter(Files::isRegularFile)
+          .sorted()
+          .map(file -> {
+            var module = new GwtCompileConfig.Module(file, root.relativize(file));
+            log.debug("Found module: {}", module.name());
+            return module;
+          })
+          .toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Applies a scan to each item on a bounded thread pool, and returns the
+   * results in the order of the items. A single item is scanned on the
+   * calling thread.
+   *
+   * @param items The items to scan, e.g. source directories or jars
+   * @param scan  The scan
+   * @param <T>   The item type
+   * @param <R>   The result type
+   * @return The results
+   */
+  static <T, R> List<R> scanConcurrently(Collection<T> items, Function<T, R> scan) {
+    if (items.size() <= 1) {
+      return items.stream().map(scan).toList();
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(items.size(), MAX_SCAN_THREADS), runnable -> {
+          Thread thread = new Thread(runnable,
+              "gwt-module-scan-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      List<Future<R>> futures = items.stream()
+          .map(item -> executor.submit(() -> scan.apply(item)))
+          .toList();
+      List<R> results = new ArrayList<>(futures.size());
+      for (Future<R> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning GWT modules", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException("Failed to scan GWT modules", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Computes the files of a module the compiler reads: the module file, the
+   * entry point sources, and the source, super-source, public and resource
+   * paths filtered by their include, exclude and skip patterns. As
+   * described in <a href="https://www.gwtproject.org/doc/latest/DevGuideOrganizingProjects.html">Organizing Projects</a>,
+   * a module without source or public elements uses its client and public
+   * subpackages.
+   *
+   * @param module     The module
+   * @param descriptor The parsed descriptor of the module
+   * @return The source trees
+   */
+  List<GwtSourceTree> sourceTrees(GwtCompileConfig.Module module, Descriptor descriptor) {
+    List<GwtSourceTree> trees = new ArrayList<>();
+    var moduleParent = module.path().getParent();
+    trees.add(new GwtSourceTree(moduleParent,
+        PathElement.file(module.path().getFileName().toString()), false));
+
+    if (!descriptor.entryPoints().isEmpty()) {
+      var sourceRoot = module.sourceDirectorySetRootPath();
+      for (String entryPoint : descriptor.entryPoints()) {
+        int lastDot = entryPoint.lastIndexOf('.');
+        trees.add(new GwtSourceTree(
+            sourceRoot.resolve(entryPoint.substring(0, lastDot).replace('.', '/')),
+            PathElement.file(entryPoint.substring(lastDot + 1) + ".java"), false));
+      }
+    }
+
+    List<PathElement> sources = descriptor.sources().isEmpty()
+        ? List.of(PathElement.of("client")) : descriptor.sources();
+    sources.forEach(source ->
+        trees.add(new GwtSourceTree(moduleParent.resolve(source.path()), source, true)));
+    descriptor.superSources().forEach(superSource -> trees.add(
+        new GwtSourceTree(moduleParent.resolve(superSource.path()), superSource, true)));
+
+    List<PathElement> publics = descriptor.publics().isEmpty()
+        ? List.of(PathElement.of("public")) : descriptor.publics();
+    publics.forEach(element ->
+        trees.add(new GwtSourceTree(moduleParent.resolve(element.path()), element, false)));
+    descriptor.resources().forEach(resource ->
+        trees.add(new GwtSourceTree(moduleParent.resolve(resource.path()), resource, false)));
+    return trees;
+  }
+
+  /**
+   * Parses a module descriptor. Elements are matched at any depth, like the
+   * GWT module loader does, and the DTD is neither read nor validated.
+   *
+   * @param moduleInputStream The descriptor content
+   * @return The parsed descriptor
+   * @throws XMLStreamException If the content is not well-formed
+   */
+  Descriptor parse(InputStream moduleInputStream) throws XMLStreamException {
+    List<String> inherits = new ArrayList<>();
+    List<String> entryPoints = new ArrayList<>();
+    List<PathElement> sources = new ArrayList<>();
+    List<PathElement> superSources = new ArrayList<>();
+    List<PathElement> publics = new ArrayList<>();
+    List<PathElement> resources = new ArrayList<>();
+    List<String> properties = new ArrayList<>();
+    List<String> definedProperties = new ArrayList<>();
+    List<String> extendedProperties = new ArrayList<>();
+    List<String> collapsedProperties = new ArrayList<>();
+
+    // Using InputStream to allow character set detection by the XML declaration.
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(moduleInputStream);
+    try {
+      // A set-property binding is unconditional unless it has child elements
+      String pendingProperty = null;
+      // The path element the nested include, exclude and skip elements belong to
+      PathElementBuilder pathElement = null;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          pendingProperty = null;
+          switch (reader.getLocalName()) {
+            case "inherits" -> inherits.add(attribute(reader, "name"));
+            case "entry-point" -> entryPoints.add(attribute(reader, "class"));
+            case "source" -> pathElement = new PathElementBuilder(reader, sources);
+            case "super-source" -> pathElement = new PathElementBuilder(reader, superSources);
+            case "public" -> pathElement = new PathElementBuilder(reader, publics);
+            case "resource" -> pathElement = new PathElementBuilder(reader, resources);
+            case "include" -> {
+              if (pathElement != null) {
+                pathElement.includes.add(attribute(reader, "name"));
+              }
+            }
+            case "exclude" -> {
+              if (pathElement != null) {
+                pathElement.excludes.add(attribute(reader, "name"));
+              }
+            }
+            case "skip" -> {
+              if (pathElement != null) {
+                pathElement.skips.add(attribute(reader, "name"));
+              }
+            }
+            case "set-property" -> pendingProperty =
+                attribute(reader, "name") + "=" + attribute(reader, "value");
+            case "define-property" -> definedProperties.add(
+                attribute(reader, "name") + "=" + attribute(reader, "values"));
+            case "extend-property" -> extendedProperties.add(
+                attribute(reader, "name") + "=" + attribute(reader, "values"));
+            case "collapse-property" -> collapsedProperties.add(
+                attribute(reader, "name") + "=" + attribute(reader, "values"));
+            case "collapse-all-properties" -> collapsedProperties.add(COLLAPSE_ALL);
+            default -> {
+              // Not relevant for the plugin
+            }
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (pendingProperty != null) {
+            properties.add(pendingProperty);
+            pendingProperty = null;
+          }
+          if (pathElement != null && pathElement.tagName.equals(reader.getLocalName())) {
+            pathElement.build();
+            pathElement = null;
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return new Descriptor(List.copyOf(inherits), List.copyOf(entryPoints),
+        List.copyOf(sources), List.copyOf(superSources), List.copyOf(publics),
+        List.copyOf(resources), List.copyOf(properties), List.copyOf(definedProperties),
+        List.copyOf(extendedProperties), List.copyOf(collapsedProperties));
+  }
+
+  /**
+   * Parses a module descriptor, logging errors.
+   *
+   * @param content  The descriptor content
+   * @param location The location of the descriptor, for error messages
+   * @return The parsed descriptor, or an empty descriptor on errors
+   */
+  Descriptor parse(byte[] content, String location) {
+    try {
+      return parse(new ByteArrayInputStream(content));
+    } catch (Exception e) {
+      log.error("Error reading GWT module path: '{}'", location, e);
+      return Descriptor.EMPTY;
+    }
+  }
+
+  private static String attribute(XMLStreamReader reader, String name) {
+    String value = reader.getAttributeValue(null, name);
+    return value != null ? value : "";
+  }
+
+  /**
+   * The parts of a module descriptor the plugin relies on.
+   *
+   * @param inherits     The names of the inherited modules
+   * @param entryPoints  The entry point classes
+   * @param sources      The source paths
+   * @param superSources The super-source paths
+   * @param publics      The public paths
+   * @param resources    The resource paths
+   * @param properties   The unconditional deferred binding properties, as
+   *                     {@code name=value} pairs
+   * @param definedProperties   The defined deferred binding properties, as
+   *                            {@code name=value1,value2} pairs
+   * @param extendedProperties  The values added to properties, as
+   *                            {@code name=value1,value2} pairs
+   * @param collapsedProperties The collapsed property values, as
+   *                            {@code name=pattern1,pattern2} pairs, or
+   *                            {@value #COLLAPSE_ALL} for all properties
+   */
+  record Descriptor(List<String> inherits, List<String> entryPoints,
+      List<PathElement> sources, List<PathElement> superSources,
+      List<PathElement> publics, List<PathElement> resources,
+      List<String> properties, List<String> definedProperties,
+      List<String> extendedProperties, List<String> collapsedProperties) {
+
+    static final Descriptor EMPTY = new Descriptor(List.of(), List.of(),
+        List.of(), List.of(), List.of(), List.of(), List.of(), List.of(),
+        List.of(), List.of());
+  }
+
+  /**
+   * A {@code <source>}, {@code <super-source>}, {@code <public>} or
+   * {@code <resource>} element.
+   *
+   * @param path            The path, relative to the module file
+   * @param includes        The include patterns, all files if empty
+   * @param excludes        The exclude patterns
+   * @param skips           The skip patterns
+   * @param defaultExcludes Whether the default excludes of Ant apply
+   * @param caseSensitive   Whether the patterns are case-sensitive
+   */
+  record PathElement(String path, List<String> includes, List<String> excludes,
+      List<String> skips, boolean defaultExcludes, boolean caseSensitive) {
+
+    /**
+     * A path element without patterns.
+     *
+     * @param path The path
+     * @return The path element
+     */
+    static PathElement of(String path) {
+      return new PathElement(path, List.of(), List.of(), List.of(), true, true);
+    }
+
+    /**
+     * A path element matching a single file of the module directory.
+     *
+     * @param fileName The file name
+     * @return The path element
+     */
+    static PathElement file(String fileName) {
+      return new PathElement("", List.of(fileName), List.of(), List.of(), false, true);
+    }
+  }
+
+  /**
+   * Collects a path element and its nested patterns while it is being read.
+   */
+  private static final class PathElementBuilder {
+
+    private final String tagName;
+    private final List<PathElement> target;
+    private final String path;
+    private final List<String> includes = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private final List<String> skips = new ArrayList<>();
+    private final boolean defaultExcludes;
+    private final boolean caseSensitive;
+
+    PathElementBuilder(XMLStreamReader reader, List<PathElement> target) {
+      this.tagName = reader.getLocalName();
+      this.target = target;
+      this.path = attribute(reader, "path");
+      this.includes.addAll(splitPatterns(attribute(reader, "includes")));
+      this.excludes.addAll(splitPatterns(attribute(reader, "excludes")));
+      this.defaultExcludes = !"no".equalsIgnoreCase(attribute(reader, "defaultexcludes"));
+      this.caseSensitive = !"false".equalsIgnoreCase(attribute(reader, "casesensitive"));
+    }
+
+    void build() {
+      target.add(new PathElement(path, List.copyOf(includes), List.copyOf(excludes),
+          List.copyOf(skips), defaultExcludes, caseSensitive));
+    }
+
+    // Ant separates patterns by commas or spaces
+    private static List<String> splitPatterns(String patterns) {
+      return Arrays.stream(patterns.split("[,\\s]+"))
+          .filter(pattern -> !pattern.isEmpty())
+          .toList();
+    }
+  }
+}
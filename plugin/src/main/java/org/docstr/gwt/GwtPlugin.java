@@ -15,21 +15,29 @@
  */
 package org.docstr.gwt;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.inject.Inject;
+
+import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.plugins.JavaPlugin;
-import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.testing.Test;
+import org.gradle.build.event.BuildEventsListenerRegistry;
 
 /**
  * A plugin that adds GWT support to a project.
@@ -53,8 +61,21 @@ public class GwtPlugin implements Plugin<Project> {
   private static final String SERVLET_API_DEPENDENCY = "jakarta.servlet:jakarta.servlet-api";
 
 
+  private final BuildEventsListenerRegistry buildEventsListenerRegistry;
+
   private Project project;
 
+  /**
+   * Constructor.
+   *
+   * @param buildEventsListenerRegistry Used to release the memory leases of
+   *                                    finished tasks
+   */
+  @Inject
+  public GwtPlugin(BuildEventsListenerRegistry buildEventsListenerRegistry) {
+    this.buildEventsListenerRegistry = buildEventsListenerRegistry;
+  }
+
   @Override
   public void apply(Project project) {
     this.project = project;
@@ -125,19 +146,30 @@ public class GwtPlugin implements Plugin<Project> {
         .dir("gwt/gwt-unitCache"));
     extension.getGwtVersion().convention(GWT_DEFAULT_VERSION);
 
+    // Set default values for compiler options
+    extension.getCompiler().getPermutationCacheDir().convention(project.getLayout()
+        .dir(project.provider(() -> new File(project.getGradle().getGradleUserHomeDir(),
+            "caches/org.docstr.gwt/permutations"))));
+
     // Set default values for test options
     extension.getGwtTest().getShowStandardStreams().convention(false);
 
+    // Set default values for unit cache options
+    extension.getUnitCache().getAutoPrune().convention(false);
+    extension.getUnitCache().getSnapshotDir().convention(project.getLayout()
+        .getBuildDirectory().dir("gwt/unitCache-snapshots"));
+    extension.getUnitCache().getImportSnapshot().convention(false);
+
     return extension;
   }
 
   private void configureGwtProject(GwtPluginExtension extension) {
-    project.afterEvaluate(p -> {
-      // Add extra source directories to Java source sets if configured
-      SourceSetContainer sourceSets = project.getExtensions()
-          .getByType(SourceSetContainer.class);
-      SourceSet mainSourceSet = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
-      
+    // Add extra source directories to Java source sets if configured. The
+    // provider is only resolved when the source directories are queried.
+    SourceSetContainer sourceSets = project.getExtensions()
+        .getByType(SourceSetContainer.class);
+    SourceSet mainSourceSet = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+    mainSourceSet.getJava().srcDirs(project.getProviders().provider(() -> {
       // Collect all extra source directories from different configuration locations
       // Using LinkedHashSet to maintain order and avoid duplicates
       Set<Object> allExtraSourceDirs = new LinkedHashSet<>();
@@ -145,57 +177,128 @@ public class GwtPlugin implements Plugin<Project> {
       allExtraSourceDirs.addAll(extension.getCompiler().getExtraSourceDirs().getFiles());
       allExtraSourceDirs.addAll(extension.getDevMode().getExtraSourceDirs().getFiles());
       allExtraSourceDirs.addAll(extension.getSuperDev().getExtraSourceDirs().getFiles());
-      
-      // Add all collected directories to the source set at once
-      if (!allExtraSourceDirs.isEmpty()) {
-        mainSourceSet.getJava().srcDirs(allExtraSourceDirs);
-      }
+      return allExtraSourceDirs;
+    }));
 
-      DependencyHandler dependencies = project.getDependencies();
-
-      // The configured GWT version
-      final String gwtVersion = extension.getGwtVersion().get();
-
-      // default to Jakarta packages, unless explicitly set to false
-      final Boolean useJakarta = extension.getJakarta().getOrElse(true);
-      final String gwtServlet = useJakarta ? "org.gwtproject:gwt-servlet-jakarta" : "org.gwtproject:gwt-servlet";
-
-      // Add GWT dependencies automatically based on the gwtVersion in the extension. Add the platform to both
-      // configurations in case the caller decides to split the inheritance.
-      dependencies.add(
-              JavaPlugin.IMPLEMENTATION_CONFIGURATION_NAME,
-              dependencies.platform("org.gwtproject:gwt:" + gwtVersion));
-      dependencies.add(
-              GWT_DEV_CONFIGURATION_NAME,
-              dependencies.platform("org.gwtproject:gwt:" + gwtVersion));
-
-      // Assume that the servlet API is also provided by the servlet container.  Hence, the compileOnly here.
-      // Use addProvider interface because it uses Action. In Gradle's documents, Action is preferred over Closure,
-      // and it is much easier to use.
-      dependencies.addProvider(JavaPlugin.COMPILE_ONLY_CONFIGURATION_NAME, project.getProviders().provider(() -> SERVLET_API_DEPENDENCY), d -> {
-        d.version(v -> {
-          if (useJakarta) {
-            // Want jakarta namespace
-            v.strictly("[5.0.0,)");
-            v.prefer("6.1.0");
-            v.reject("6.2.0-M1");
-          } else {
-            // Want javax namespace
-            v.strictly("(,5.0.0)");
-            v.prefer("4.0.4");
-          }
-        });
-      });
-      dependencies.add(JavaPlugin.IMPLEMENTATION_CONFIGURATION_NAME, gwtServlet);
+    DependencyHandler dependencies = project.getDependencies();
 
-      // gwtCompile and gwtDevMode requires gwt-dev (the compiler proper) and gwt-user (JRE emulation, Widgets, etc)
-      dependencies.add(GWT_DEV_CONFIGURATION_NAME, "org.gwtproject:gwt-dev");
-      dependencies.add(GWT_DEV_CONFIGURATION_NAME, "org.gwtproject:gwt-user");
-      dependencies.add(GWT_DEV_CONFIGURATION_NAME, "org.gwtproject:gwt-codeserver");
+    // Add GWT dependencies automatically based on the gwtVersion in the extension. Add the platform to both
+    // configurations in case the caller decides to split the inheritance.
+    Provider<Dependency> gwtPlatform = extension.getGwtVersion()
+        .map(gwtVersion -> dependencies.platform("org.gwtproject:gwt:" + gwtVersion));
+    dependencies.addProvider(JavaPlugin.IMPLEMENTATION_CONFIGURATION_NAME, gwtPlatform);
+    dependencies.addProvider(GWT_DEV_CONFIGURATION_NAME, gwtPlatform);
+
+    // default to Jakarta packages, unless explicitly set to false
+    Provider<Boolean> useJakarta = extension.getJakarta().orElse(true);
+
+    // Assume that the servlet API is also provided by the servlet container.  Hence, the compileOnly here.
+    // Use addProvider interface because it uses Action. In Gradle's documents, Action is preferred over Closure,
+    // and it is much easier to use.
+    dependencies.addProvider(JavaPlugin.COMPILE_ONLY_CONFIGURATION_NAME, project.getProviders().provider(() -> SERVLET_API_DEPENDENCY), d -> {
+      d.version(v -> {
+        if (useJakarta.get()) {
+          // Want jakarta namespace
+          v.strictly("[5.0.0,)");
+          v.prefer("6.1.0");
+          v.reject("6.2.0-M1");
+        } else {
+          // Want javax namespace
+          v.strictly("(,5.0.0)");
+          v.prefer("4.0.4");
+        }
+      });
     });
+    dependencies.addProvider(JavaPlugin.IMPLEMENTATION_CONFIGURATION_NAME, useJakarta.map(
+        jakarta -> jakarta ? "org.gwtproject:gwt-servlet-jakarta" : "org.gwtproject:gwt-servlet"));
+
+    // gwtCompile and gwtDevMode requires gwt-dev (the compiler proper) and gwt-user (JRE emulation, Widgets, etc)
+    dependencies.add(GWT_DEV_CONFIGURATION_NAME, "org.gwtproject:gwt-dev");
+    dependencies.add(GWT_DEV_CONFIGURATION_NAME, "org.gwtproject:gwt-user");
+    dependencies.add(GWT_DEV_CONFIGURATION_NAME, "org.gwtproject:gwt-codeserver");
   }
 
   private void configureGwtTasks(GwtPluginExtension extension) {
+    // Lease the memory of every forked GWT JVM from the build-wide budget
+    Provider<GwtMemoryBudgetService> memoryBudget =
+        GwtMemoryBudgetService.register(project);
+    buildEventsListenerRegistry.onTaskCompletion(memoryBudget);
+    project.getTasks().withType(AbstractBaseTask.class).configureEach(task -> {
+      task.getMemoryBudget().set(memoryBudget);
+      task.usesService(memoryBudget);
+    });
+
+    // Share the parsed module descriptors between all GWT tasks of the build
+    Provider<GwtModuleGraphService> moduleGraph =
+        GwtModuleGraphService.register(project);
+    project.getTasks().withType(AbstractBaseTask.class).configureEach(task -> {
+      task.getModuleGraphService().set(moduleGraph);
+      task.usesService(moduleGraph);
+    });
+
+    // Start the GWT JVMs with an AppCDS archive of the GWT jars if requested
+    TaskProvider<GwtAppCdsTask> appCdsTask = project.getTasks()
+        .register("gwtAppCds", GwtAppCdsTask.class, new GwtAppCdsConfig());
+    File appCdsDir = GwtAppCdsConfig.archiveDir(project);
+    project.getTasks().withType(AbstractBaseTask.class).configureEach(task -> {
+      task.getAppCds().set(extension.getAppCds());
+      task.getAppCdsDir().set(appCdsDir);
+      task.dependsOn(extension.getAppCds().orElse(false)
+          .map(appCds -> appCds ? List.of(appCdsTask) : List.of()));
+    });
+
+    // Record the heap usage of the GWT JVMs to size the next run
+    project.getTasks().withType(AbstractBaseTask.class).configureEach(task -> {
+      task.getHeapTelemetry().set(extension.getHeapTelemetry());
+      task.getAutoHeapSize().set(extension.getAutoHeapSize());
+      task.getHeapTelemetryFile().set(
+          GwtHeapTelemetry.telemetryFile(project, task.getPath()));
+    });
+
+    // Give the GWT JVMs overlays of the shared unit cache, so that parallel
+    // tasks do not compact it under each other's feet, in namespaces per GWT
+    // version and compiler flags if requested
+    Provider<GwtUnitCacheService> unitCache = GwtUnitCacheService.register(project);
+    buildEventsListenerRegistry.onTaskCompletion(unitCache);
+    project.getTasks().withType(AbstractBaseTask.class).configureEach(task -> {
+      task.getUnitCacheService().set(unitCache);
+      task.usesService(unitCache);
+      task.getUnitCacheNamespaces().set(extension.getUnitCache().getNamespaces());
+      task.getGwtVersion().set(extension.getGwtVersion());
+    });
+
+    // Keep the unit caches within bounds, after each compile if requested
+    TaskProvider<GwtUnitCachePruneTask> unitCachePruneTask = project.getTasks()
+        .register("gwtUnitCachePrune", GwtUnitCachePruneTask.class,
+            new GwtUnitCachePruneConfig(extension));
+    unitCachePruneTask.configure(task -> {
+      task.getUnitCacheService().set(unitCache);
+      task.usesService(unitCache);
+    });
+    project.getTasks().withType(GwtCompileTask.class).configureEach(task ->
+        task.finalizedBy(extension.getUnitCache().getAutoPrune()
+            .map(autoPrune -> autoPrune ? List.of(unitCachePruneTask) : List.of())));
+
+    // Export the unit cache into snapshots and seed it from them, before
+    // each compile if requested
+    GwtUnitCacheSnapshotConfig unitCacheSnapshotConfig =
+        new GwtUnitCacheSnapshotConfig(extension);
+    TaskProvider<GwtUnitCacheExportTask> unitCacheExportTask = project.getTasks()
+        .register("gwtUnitCacheExport", GwtUnitCacheExportTask.class,
+            unitCacheSnapshotConfig);
+    TaskProvider<GwtUnitCacheImportTask> unitCacheImportTask = project.getTasks()
+        .register("gwtUnitCacheImport", GwtUnitCacheImportTask.class,
+            unitCacheSnapshotConfig);
+    project.getTasks().withType(GwtUnitCacheSnapshotTask.class).configureEach(task -> {
+      task.getUnitCacheService().set(unitCache);
+      task.usesService(unitCache);
+    });
+    unitCacheExportTask.configure(task ->
+        task.mustRunAfter(project.getTasks().withType(GwtCompileTask.class)));
+    project.getTasks().withType(GwtCompileTask.class).configureEach(task ->
+        task.dependsOn(extension.getUnitCache().getImportSnapshot()
+            .map(importSnapshot -> importSnapshot ? List.of(unitCacheImportTask) : List.of())));
+
     // Register the GwtCompile task
     TaskProvider<GwtCompileTask> gwtCompileTask = project.getTasks()
         .register("gwtCompile", GwtCompileTask.class,
@@ -220,17 +323,131 @@ public class GwtPlugin implements Plugin<Project> {
     gwtSuperDevTask.configure(
         task -> task.getOutputs().upToDateWhen(t -> false));
 
-    // Configure the GWT test tasks
-    project.afterEvaluate(p -> {
-      ListProperty<String> testTasks = extension.getGwtTest().getTestTasks();
-      if (testTasks.isPresent()) {
-        List<String> testTaskNames = testTasks.get();
-        project.getTasks()
-            .withType(Test.class)
-            .matching(t -> testTaskNames.isEmpty() || testTaskNames.contains(
-                t.getName()))
-            .configureEach(new GwtTestConfig(project, extension));
-      }
+    // Split gwtCompile into per-module tasks or into precompile, permutation
+    // and link tasks if requested. Which tasks exist depends on the gwt block,
+    // so a rule registers them once gwtCompile or the command line asks for
+    // one of them.
+    Provider<List<String>> splitTaskNames = project.getProviders()
+        .provider(() -> splitCompileTaskNames(extension));
+    gwtCompileTask.configure(task -> {
+      // Looked up by name, so the rule below registers them
+      task.dependsOn(splitTaskNames.map(names -> names.stream()
+          .map(project.getTasks()::named).toList()));
+      task.onlyIf("gwtCompile is not split into other tasks",
+          t -> splitTaskNames.get().isEmpty());
     });
+    AtomicBoolean splitTasksRegistered = new AtomicBoolean();
+    project.getTasks().addRule("Pattern: gwtCompile<Module>, gwtPrecompile,"
+        + " gwtCompilePerms<Shard>, gwtLink: the tasks gwtCompile is split into", name -> {
+          if (!splitTasksRegistered.get() && splitTaskNames.get().contains(name)) {
+            splitTasksRegistered.set(true);
+            if (extension.getCompiler().getCompilePerModule().getOrElse(false)) {
+              registerPerModuleCompileTasks(extension);
+            } else {
+              registerSplitCompileTasks(extension,
+                  extension.getCompiler().getPermutationShards().get());
+            }
+          }
+        });
+
+    // Configure the GWT test tasks once they are realized. The settings are
+    // read lazily, so a test task realized before the gwt block is evaluated
+    // still gets the settings from that block.
+    GwtTestConfig gwtTestConfig = new GwtTestConfig(project, extension);
+    project.getTasks().withType(Test.class).configureEach(gwtTestConfig);
+  }
+
+  /**
+   * The names of the tasks gwtCompile is split into, if any.
+   *
+   * @param extension The GWT plugin extension
+   * @return The task names, empty if gwtCompile does the work itself
+   */
+  private static List<String> splitCompileTaskNames(GwtPluginExtension extension) {
+    int shards = extension.getCompiler().getPermutationShards().getOrElse(0);
+    boolean perModule = extension.getCompiler().getCompilePerModule().getOrElse(false);
+    if (perModule && shards > 0) {
+      throw new GradleException(
+          "gwt.compiler.compilePerModule cannot be combined with gwt.compiler.permutationShards");
+    }
+    List<String> names = new ArrayList<>();
+    if (perModule) {
+      List<String> modules = perModuleModules(extension);
+      modules.forEach(module -> names.add(moduleTaskName(module, modules)));
+    } else if (shards > 0) {
+      names.add("gwtPrecompile");
+      for (int shard = 0; shard < shards; shard++) {
+        names.add("gwtCompilePerms" + shard);
+      }
+      names.add("gwtLink");
+    }
+    return names;
+  }
+
+  private void registerSplitCompileTasks(GwtPluginExtension extension, int shards) {
+    TaskProvider<GwtPrecompileTask> precompileTask = project.getTasks()
+        .register("gwtPrecompile", GwtPrecompileTask.class,
+            new GwtPrecompileConfig(extension));
+
+    List<TaskProvider<GwtCompilePermsTask>> permsTasks = new ArrayList<>();
+    for (int shard = 0; shard < shards; shard++) {
+      permsTasks.add(project.getTasks()
+          .register("gwtCompilePerms" + shard, GwtCompilePermsTask.class,
+              new GwtCompilePermsConfig(extension, precompileTask, shard, shards)));
+    }
+
+    project.getTasks().register("gwtLink", GwtLinkTask.class,
+        new GwtLinkConfig(extension, precompileTask, permsTasks));
+  }
+
+  private void registerPerModuleCompileTasks(GwtPluginExtension extension) {
+    List<String> modules = perModuleModules(extension);
+    for (String module : modules) {
+      project.getTasks().register(moduleTaskName(module, modules), GwtCompileTask.class,
+          new GwtCompileConfig(extension, module));
+    }
+  }
+
+  private static List<String> perModuleModules(GwtPluginExtension extension) {
+    return extension.getCompiler().getModules().isPresent()
+        && !extension.getCompiler().getModules().get().isEmpty()
+        ? extension.getCompiler().getModules().get()
+        : extension.getModules().get();
+  }
+
+  /**
+   * The name of the task compiling a single module: gwtCompile followed by
+   * the simple module name, or by the whole module name if the simple name
+   * is ambiguous.
+   *
+   * @param module  The module name
+   * @param modules All modules
+   * @return The task name
+   */
+  static String moduleTaskName(String module, List<String> modules) {
+    String simpleName = module.substring(module.lastIndexOf('.') + 1);
+    boolean ambiguous = modules.stream()
+        .filter(other -> other.substring(other.lastIndexOf('.') + 1).equals(simpleName))
+        .count() > 1;
+    StringBuilder name = new StringBuilder("gwtCompile");
+    for (String part : (ambiguous ? module : simpleName).split("\\.")) {
+      if (!part.isEmpty()) {
+        name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+      }
+    }
+    return name.toString();
+  }
+
+  /**
+   * The directory of the caches the plugin keeps across builds: the project
+   * cache directory of the build, {@code .gradle} in the root project by
+   * default.
+   *
+   * @param project The project
+   * @return The project cache directory
+   */
+  static File projectCacheDir(Project project) {
+    File projectCacheDir = project.getGradle().getStartParameter().getProjectCacheDir();
+    return projectCacheDir != null ? projectCacheDir : new File(project.getRootDir(), ".gradle");
   }
 }
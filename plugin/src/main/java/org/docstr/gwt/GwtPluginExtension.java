@@ -19,6 +19,7 @@ import org.docstr.gwt.options.CompilerOptions;
 import org.docstr.gwt.options.DevModeOptions;
 import org.docstr.gwt.options.GwtTestOptions;
 import org.docstr.gwt.options.SuperDevOptions;
+import org.docstr.gwt.options.UnitCacheOptions;
 import org.gradle.api.Action;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Nested;
@@ -43,6 +44,33 @@ public abstract class GwtPluginExtension extends AbstractBaseOptions {
    */
   public abstract Property<Boolean> getJakarta();
 
+  /**
+   * Starts the GWT JVMs with the AppCDS archive of the GWT jars made by the
+   * {@code gwtAppCds} task, which shortens their startup. Needs Java 13 or
+   * later. (defaults to OFF)
+   *
+   * @return The AppCDS flag
+   */
+  public abstract Property<Boolean> getAppCds();
+
+  /**
+   * Records the heap usage of the GWT JVMs from their GC logs, and
+   * recommends a maximum heap size when the configured one is far from what
+   * the last run needed. Needs Java 9 or later. (defaults to OFF)
+   *
+   * @return The heap telemetry flag
+   */
+  public abstract Property<Boolean> getHeapTelemetry();
+
+  /**
+   * Sizes the heap of the GWT JVMs from the heap usage of their last run,
+   * overriding the configured maximum heap size. Enables
+   * {@link #getHeapTelemetry()}. (defaults to OFF)
+   *
+   * @return The auto heap size flag
+   */
+  public abstract Property<Boolean> getAutoHeapSize();
+
   /**
    * Nested extension for compiler options
    *
@@ -75,6 +103,14 @@ public abstract class GwtPluginExtension extends AbstractBaseOptions {
   @Nested
   public abstract SuperDevOptions getSuperDev();
 
+  /**
+   * Nested extension for persistent unit cache options
+   *
+   * @return The unit cache options
+   */
+  @Nested
+  public abstract UnitCacheOptions getUnitCache();
+
   /**
    * Configures the compiler options
    *
@@ -110,4 +146,13 @@ public abstract class GwtPluginExtension extends AbstractBaseOptions {
   public void gwtTest(Action<? super GwtTestOptions> action) {
     action.execute(getGwtTest());
   }
+
+  /**
+   * Configures the persistent unit cache options
+   *
+   * @param action The action to configure the unit cache options
+   */
+  public void unitCache(Action<? super UnitCacheOptions> action) {
+    action.execute(getUnitCache());
+  }
 }
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import org.gradle.api.file.Directory;
+
+/**
+ * Configures the GWT precompile task of a split compilation.
+ */
+public class GwtPrecompileConfig extends GwtCompileConfig {
+
+  /**
+   * Constructor.
+   *
+   * @param extension The GWT plugin extension
+   */
+  public GwtPrecompileConfig(GwtPluginExtension extension) {
+    super(extension);
+  }
+
+  @Override
+  public void execute(GwtCompileTask task) {
+    super.execute(task);
+
+    // The precompilation is the output of this task, the war belongs to gwtLink
+    task.getWorkDir().set(task.getProject().getLayout().getBuildDirectory()
+        .dir("gwt/split/precompile"));
+    task.getWar().set((Directory) null);
+    task.getDeploy().set((Directory) null);
+    task.getExtra().set((Directory) null);
+    task.getSaveSourceOutput().set((Directory) null);
+
+    // Precompile is not the monolithic compiler the worker, the daemon and
+    // the statistics wrapper run
+    task.getUseWorkers().set(false);
+    task.getUseDaemon().set(false);
+    task.getUnitCacheStats().set(false);
+  }
+}
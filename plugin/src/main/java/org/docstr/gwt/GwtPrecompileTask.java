@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.util.Set;
+import javax.inject.Inject;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.OutputDirectory;
+
+/**
+ * Task running the first stage of a split GWT compilation: parses and
+ * precompiles the modules into {@code <workDir>/<module>/compiler}, ready to
+ * be compiled permutation by permutation by {@link GwtCompilePermsTask}.
+ */
+@CacheableTask
+public abstract class GwtPrecompileTask extends GwtCompileTask {
+
+  /**
+   * The main class for the GWT precompiler.
+   */
+  public static final String PRECOMPILE_CLASS = "com.google.gwt.dev.Precompile";
+
+  // Options only understood by the monolithic compiler and the linker
+  private static final Set<String> UNSUPPORTED_ARGS = Set.of(
+      "war", "deploy", "extra", "incremental", "localWorkers",
+      "saveSourceOutput");
+
+  /**
+   * Constructs a new GwtPrecompileTask.
+   */
+  @Inject
+  public GwtPrecompileTask() {
+    getMainClass().set(PRECOMPILE_CLASS);
+  }
+
+  /**
+   * The directory receiving the precompiled modules. Unlike for
+   * {@link GwtCompileTask}, it holds the result of this task.
+   *
+   * @return The working directory
+   */
+  @Override
+  @OutputDirectory
+  public abstract DirectoryProperty getWorkDir();
+
+  @Override
+  protected boolean acceptsArg(String argName) {
+    return !UNSUPPORTED_ARGS.contains(argName) && super.acceptsArg(argName);
+  }
+}
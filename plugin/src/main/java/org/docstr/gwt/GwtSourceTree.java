@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.docstr.gwt.GwtModuleScanner.PathElement;
+
+/**
+ * The files of a module path element the GWT compiler actually reads: a
+ * directory filtered by the Ant-style patterns of a {@code <source>},
+ * {@code <super-source>}, {@code <public>} or {@code <resource>} element.
+ * <p>
+ * For source and super-source paths the patterns only filter Java files, like
+ * the GWT module loader does. Other files below a source path, e.g. UiBinder
+ * templates or ClientBundle resources, are loaded from the classpath and
+ * stay tracked regardless of the patterns, except for the default excludes.
+ */
+final class GwtSourceTree {
+
+  // The default excludes of Ant, which GWT applies unless defaultexcludes="no"
+  static final List<String> DEFAULT_EXCLUDES = List.of(
+      "**/*~", "**/#*#", "**/.#*", "**/%*%", "**/._*",
+      "**/CVS", "**/CVS/**", "**/.cvsignore",
+      "**/SCCS", "**/SCCS/**", "**/vssver.scc",
+      "**/.svn", "**/.svn/**", "**/.DS_Store");
+
+  private final Path dir;
+  private final boolean javaOnly;
+  private final List<Pattern> includes;
+  private final List<Pattern> excludes;
+  private final List<Pattern> defaultExcludes;
+  private final List<Pattern> excludedDirs;
+  private final List<Pattern> includePrefixes;
+
+  /**
+   * Constructor.
+   *
+   * @param dir      The directory of the path element
+   * @param element  The path element
+   * @param javaOnly Whether the patterns only filter Java files
+   */
+  GwtSourceTree(Path dir, PathElement element, boolean javaOnly) {
+    this.dir = dir;
+    this.javaOnly = javaOnly;
+    this.includes = compile(element.includes(), element.caseSensitive());
+    List<String> allExcludes = new ArrayList<>(element.excludes());
+    allExcludes.addAll(element.skips());
+    this.excludes = compile(allExcludes, element.caseSensitive());
+    this.defaultExcludes = element.defaultExcludes()
+        ? compile(DEFAULT_EXCLUDES, element.caseSensitive()) : List.of();
+    this.excludedDirs = compile(allExcludes.stream()
+        .map(pattern -> pattern.replace('\\', '/'))
+        .filter(pattern -> pattern.endsWith("/**") || pattern.endsWith("/"))
+        .map(pattern -> pattern.substring(0, pattern.lastIndexOf('/')))
+        .toList(), element.caseSensitive());
+    this.includePrefixes = element.includes().stream()
+        .map(pattern -> Pattern.compile(toPrefixRegex(pattern),
+            element.caseSensitive() ? 0 : Pattern.CASE_INSENSITIVE))
+        .toList();
+  }
+
+  /**
+   * The directory of the path element
+   *
+   * @return The directory
+   */
+  Path dir() {
+    return dir;
+  }
+
+  /**
+   * Whether a file is read by the compiler.
+   *
+   * @param relativePath The path of the file relative to {@link #dir()},
+   *                     with forward slashes
+   * @return {@code true} if the file is read
+   */
+  boolean accepts(String relativePath) {
+    if (matchesAny(defaultExcludes, relativePath)) {
+      return false;
+    }
+    if (javaOnly && !relativePath.endsWith(".java")) {
+      return true;
+    }
+    if (!includes.isEmpty() && !matchesAny(includes, relativePath)) {
+      return false;
+    }
+    return !matchesAny(excludes, relativePath);
+  }
+
+  /**
+   * Whether a directory may hold files read by the compiler, so that walks
+   * skip default excluded directories, directories excluded as a whole and
+   * directories the include patterns cannot reach.
+   *
+   * @param relativePath The path of the directory relative to
+   *                     {@link #dir()}, with forward slashes
+   * @return {@code false} if no file below the directory is read
+   */
+  boolean descendsInto(String relativePath) {
+    if (matchesAny(defaultExcludes, relativePath)) {
+      return false;
+    }
+    // Other files below a source path are read regardless of the patterns
+    if (javaOnly) {
+      return true;
+    }
+    if (matchesAny(excludedDirs, relativePath)) {
+      return false;
+    }
+    return includes.isEmpty() || includePrefixes.stream()
+        .anyMatch(prefix -> prefix.matcher(relativePath).matches());
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String relativePath) {
+    return patterns.stream().anyMatch(pattern -> pattern.matcher(relativePath).matches());
+  }
+
+  /**
+   * Lists the files read by the compiler.
+   *
+   * @return The files, or an empty list if the directory does not exist
+   */
+  List<File> files() {
+    if (!Files.isDirectory(dir)) {
+      return List.of();
+    }
+    List<File> files = new ArrayList<>();
+    try {
+      Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) {
+          return subdir.equals(dir) || descendsInto(relativePath(subdir))
+              ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile() && accepts(relativePath(file))) {
+            files.add(file.toFile());
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return files;
+  }
+
+  private String relativePath(Path file) {
+    return dir.relativize(file).toString().replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Converts an Ant-style pattern to a regular expression matching the
+   * directories that may hold a match, e.g. {@code a} and {@code a/b} for
+   * {@code a/b/*.css}, and {@code a} and everything below it for
+   * {@code a/**}{@code /*.css}.
+   *
+   * @param pattern The pattern
+   * @return The regular expression
+   */
+  static String toPrefixRegex(String pattern) {
+    String normalized = pattern.replace('\\', '/');
+    if (normalized.endsWith("/")) {
+      normalized += "**";
+    }
+    String[] segments = normalized.split("/");
+    List<String> prefixes = new ArrayList<>();
+    StringBuilder prefix = new StringBuilder();
+    for (int i = 0; i < segments.length - 1 || segments[i].contains("**"); i++) {
+      if (segments[i].contains("**")) {
+        prefixes.add(i == 0 ? ".*" : prefix + "(?:/.*)?");
+        break;
+      }
+      prefix.append(i == 0 ? "" : "/").append(toRegex(segments[i]));
+      prefixes.add(prefix.toString());
+    }
+    return prefixes.isEmpty() ? "(?!)" : String.join("|", prefixes);
+  }
+
+  private static List<Pattern> compile(List<String> patterns, boolean caseSensitive) {
+    return patterns.stream()
+        .map(pattern -> Pattern.compile(toRegex(pattern),
+            caseSensitive ? 0 : Pattern.CASE_INSENSITIVE))
+        .toList();
+  }
+
+  /**
+   * Converts an Ant-style pattern to a regular expression: {@code **}
+   * matches any number of directories, {@code *} and {@code ?} match within
+   * a single path segment, and a trailing {@code /} stands for {@code /**}.
+   *
+   * @param pattern The pattern
+   * @return The regular expression
+   */
+  static String toRegex(String pattern) {
+    String normalized = pattern.replace('\\', '/');
+    if (normalized.endsWith("/")) {
+      normalized += "**";
+    }
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    while (i < normalized.length()) {
+      char c = normalized.charAt(i);
+      if (normalized.startsWith("**/", i)) {
+        regex.append("(?:.*/)?");
+        i += 3;
+      } else if (normalized.startsWith("/**", i) && i + 3 == normalized.length()) {
+        regex.append("(?:/.*)?");
+        i += 3;
+      } else if (normalized.startsWith("**", i)) {
+        regex.append(".*");
+        i += 2;
+      } else if (c == '*') {
+        regex.append("[^/]*");
+        i++;
+      } else if (c == '?') {
+        regex.append("[^/]");
+        i++;
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+        i++;
+      }
+    }
+    return regex.toString();
+  }
+}
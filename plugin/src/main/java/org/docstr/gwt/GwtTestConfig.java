@@ -1,18 +1,33 @@
 package org.docstr.gwt;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import org.docstr.gwt.options.GwtTestOptions;
 import org.gradle.api.Action;
+import org.gradle.api.JavaVersion;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
-import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.file.FileCollection;
-import org.gradle.api.logging.Logger;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.testing.Test;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.process.CommandLineArgumentProvider;
 
 /**
  * Configures the test task for GWT.
@@ -35,37 +50,19 @@ public class GwtTestConfig implements Action<Test> {
 
   @Override
   public void execute(Test test) {
-    // Make standard output display configurable
-    test.testLogging(testLogging -> {
-      // Only show standard streams if specifically enabled
-      testLogging.setShowStandardStreams(
-          extension.getGwtTest().getShowStandardStreams().getOrElse(false));
-    });
-
-    if (extension.getDevMode().getMinHeapSize().isPresent()) {
-      test.setMinHeapSize(extension.getDevMode().getMinHeapSize().get());
-    } else {
-      test.setMinHeapSize(extension.getMinHeapSize().getOrElse("256M"));
-    }
-    if (extension.getDevMode().getMaxHeapSize().isPresent()) {
-      test.setMaxHeapSize(extension.getDevMode().getMaxHeapSize().get());
-    } else {
-      test.setMaxHeapSize(extension.getMaxHeapSize().getOrElse("512M"));
-    }
+    // Whether the task runs GWT tests. Only known once the gwt block is
+    // evaluated, which may follow the realization of the task, so every
+    // setting below is read lazily and only applies to GWT test tasks.
+    String testName = test.getName();
+    Provider<Boolean> gwtTest = extension.getGwtTest().getTestTasks()
+        .map(testTasks -> testTasks.isEmpty() || testTasks.contains(testName))
+        .orElse(false);
 
     GwtTestOptions testOptions = extension.getGwtTest();
-    if (!testOptions.getWar().isPresent()) {
-      testOptions.getWar().set(extension.getWar().getOrNull());
-    }
-    if (!testOptions.getDeploy().isPresent()) {
-      testOptions.getDeploy().set(extension.getDeploy().getOrNull());
-    }
-    if (!testOptions.getExtra().isPresent()) {
-      testOptions.getExtra().set(extension.getExtra().getOrNull());
-    }
-    if (!testOptions.getCacheDir().isPresent()) {
-      testOptions.getCacheDir().set(extension.getCacheDir().getOrNull());
-    }
+    testOptions.getWar().convention(extension.getWar());
+    testOptions.getDeploy().convention(extension.getDeploy());
+    testOptions.getExtra().convention(extension.getExtra());
+    testOptions.getCacheDir().convention(extension.getCacheDir());
 
     // Retrieve the main source set
     SourceSetContainer sourceSets = project.getExtensions()
@@ -86,35 +83,353 @@ public class GwtTestConfig implements Action<Test> {
         .plus(project.files(testSourceSet.getOutput().getResourcesDir()));
 
     // Ensure the test *compile* classpath includes the GWT compiler
-    project.getConfigurations().getByName(test.getName() + "Implementation", c -> {
-      c.extendsFrom(
-              project.getConfigurations().getByName(GwtPlugin.GWT_DEV_RUNTIME_CLASSPATH_CONFIGURATION_NAME)
-      );
-    });
+    Configuration gwtDevRuntimeClasspath = project.getConfigurations()
+        .getByName(GwtPlugin.GWT_DEV_RUNTIME_CLASSPATH_CONFIGURATION_NAME);
+    project.getConfigurations()
+        .matching(c -> c.getName().equals(testName + "Implementation"))
+        .configureEach(c -> c.getDependencies().addAllLater(gwtTest.map(enabled -> enabled
+            ? gwtDevRuntimeClasspath.getAllDependencies() : Set.<Dependency>of())));
 
     // Ensure the classpath includes compiled classes, resources, and source files
-    test.setClasspath(test.getClasspath().plus(project.files(
-        mainSourcePaths,
-        mainOutputClasspath,
-        mainSourceSet.getRuntimeClasspath(),
-
-        testSourcePaths,
-        testOutputClasspath,
-        testSourceSet.getRuntimeClasspath()
-    )));
-
-    String gwtArgs = testOptions.getParameterString();
-    test.systemProperty("gwt.args", gwtArgs);
-    Logger log = project.getLogger();
-    log.info("Using gwt.args for test: {}", gwtArgs);
-
-    DirectoryProperty cacheDirProperty = extension.getCacheDir();
-    if (cacheDirProperty != null && cacheDirProperty.isPresent()) {
-      File cacheDir = cacheDirProperty.getAsFile().get();
-      test.systemProperty("gwt.persistentunitcachedir", cacheDir);
-      cacheDir.mkdirs();
-      log.info("Using gwt.persistentunitcachedir for test: {0}",
-          cacheDir);
+    test.setClasspath(test.getClasspath().plus(project.files(gwtTest.map(enabled -> enabled
+        ? List.of(mainSourcePaths, mainOutputClasspath, mainSourceSet.getRuntimeClasspath(),
+            testSourcePaths, testOutputClasspath, testSourceSet.getRuntimeClasspath())
+        : List.of()))));
+
+    // Lease the memory of the test JVMs from the build-wide budget. The lease
+    // is released by the build service when the task finishes.
+    Provider<GwtMemoryBudgetService> memoryBudget =
+        GwtMemoryBudgetService.register(project);
+    test.usesService(memoryBudget);
+    test.doFirst(new AcquireMemoryAction(gwtTest, memoryBudget));
+
+    // Record the heap usage of the test JVMs from their GC logs, and size
+    // them from the usage of the last run. Added after the memory lease, so
+    // it runs first and the lease covers the chosen heap size.
+    Provider<Boolean> heapTelemetry = gwtTest.zip(extension.getHeapTelemetry().orElse(false),
+        Boolean::logicalAnd);
+    Provider<Boolean> autoHeapSize = gwtTest.zip(extension.getAutoHeapSize().orElse(false),
+        Boolean::logicalAnd);
+    File gcLogDir = project.getLayout().getBuildDirectory()
+        .dir("tmp/" + test.getName() + "/gc").get().getAsFile();
+    File telemetryFile = GwtHeapTelemetry.telemetryFile(project, test.getPath());
+    test.doFirst(new HeapTelemetryAction(heapTelemetry, autoHeapSize, gcLogDir,
+        telemetryFile));
+    test.getJvmArgumentProviders().add(new HeapTelemetryArgumentProvider(
+        heapTelemetry, autoHeapSize, test.getJavaLauncher(), gcLogDir, telemetryFile));
+
+    // Track the GWT modules of the main and test sources, and the modules
+    // they inherit, through the shared module graph
+    Provider<GwtModuleGraphService> moduleGraph =
+        GwtModuleGraphService.register(project);
+    test.usesService(moduleGraph);
+    test.getJvmArgumentProviders().add(new GwtModuleGraphProvider(moduleGraph,
+        project.files(gwtTest.map(enabled -> enabled
+            ? List.of(mainSourcePaths, testSourcePaths) : List.of())),
+        test.getClasspath(), project.getObjects()));
+
+    // Read when the tests start, so the gwt block may follow the test task
+    // configuration in the build script
+    Provider<String> gwtArgs = project.getProviders()
+        .provider(() -> gwtTest.get() ? testOptions.getParameterString() : null);
+    Provider<File> cacheDir = project.getProviders()
+        .provider(() -> gwtTest.get() ? extension.getCacheDir().getAsFile().getOrNull() : null);
+    Provider<String> namespace = extension.getUnitCache().getNamespaces()
+        .flatMap(namespaces -> gwtArgs.zip(extension.getGwtVersion().orElse(""),
+            GwtTestConfig::unitCacheNamespace));
+
+    // The test JVMs use an overlay of the shared unit cache, or of its
+    // namespace, merged back by the unit cache service when the task finishes
+    Provider<GwtUnitCacheService> unitCache = GwtUnitCacheService.register(project);
+    test.usesService(unitCache);
+    test.doFirst(new AcquireUnitCacheAction(unitCache, cacheDir, namespace,
+        extension.getUnitCache().getNamespaces()));
+    String taskPath = test.getPath();
+    Provider<File> unitCacheDir = cacheDir.map(dir -> GwtUnitCacheService.overlayDir(
+        namespace.isPresent() ? new File(dir, namespace.get()) : dir, taskPath));
+
+    // Passed by a provider rather than as system properties, which would put
+    // absolute paths into the cache key of the test task
+    test.getJvmArgumentProviders().add(
+        new GwtTestArgumentProvider(gwtArgs, unitCacheDir, project.getRootDir()));
+
+    // The logging and heap settings. Added last, so it runs before the
+    // actions above, which size the heap and lease its memory.
+    test.doFirst(new GwtTestSettingsAction(gwtTest, testOptions.getShowStandardStreams(),
+        extension.getDevMode().getMinHeapSize().orElse(extension.getMinHeapSize())
+            .orElse("256M"),
+        extension.getDevMode().getMaxHeapSize().orElse(extension.getMaxHeapSize())
+            .orElse("512M")));
+  }
+
+  private static String unitCacheNamespace(String gwtArgs, String gwtVersion) {
+    return GwtUnitCacheService.namespace(gwtVersion.isEmpty() ? null : gwtVersion,
+        List.of(gwtArgs.trim().split("\\s+")));
+  }
+
+  /**
+   * Passes the GWT arguments and the unit cache directory to the test JVMs.
+   * Only the arguments, relative to the root project directory, are inputs.
+   */
+  static final class GwtTestArgumentProvider implements CommandLineArgumentProvider {
+
+    private final Provider<String> gwtArgs;
+    private final Provider<File> cacheDir;
+    private final String rootDir;
+
+    GwtTestArgumentProvider(Provider<String> gwtArgs, Provider<File> cacheDir,
+        File rootDir) {
+      this.gwtArgs = gwtArgs;
+      this.cacheDir = cacheDir;
+      this.rootDir = rootDir.getAbsolutePath();
+    }
+
+    /**
+     * The GWT arguments, with paths relative to the root project directory,
+     * absent for test tasks not running GWT tests
+     *
+     * @return The relocatable arguments
+     */
+    @Input
+    @Optional
+    public String getRelocatableGwtArgs() {
+      return gwtArgs.map(args -> args.replace(rootDir + File.separator, "")).getOrNull();
+    }
+
+    @Override
+    public Iterable<String> asArguments() {
+      if (!gwtArgs.isPresent()) {
+        return List.of();
+      }
+      List<String> args = new ArrayList<>();
+      args.add("-Dgwt.args=" + gwtArgs.get());
+      if (cacheDir.isPresent()) {
+        args.add("-Dgwt.persistentunitcachedir=" + cacheDir.get().getPath());
+      }
+      return args;
+    }
+  }
+
+  /**
+   * Exposes the module graph of the test sources to the test task. Passes no
+   * arguments, only the project module sources are inputs.
+   */
+  static final class GwtModuleGraphProvider implements CommandLineArgumentProvider {
+
+    private final Provider<GwtModuleGraphService> moduleGraph;
+    private final FileCollection sourceDirs;
+    private final FileCollection classpath;
+    private final ObjectFactory objects;
+
+    GwtModuleGraphProvider(Provider<GwtModuleGraphService> moduleGraph,
+        FileCollection sourceDirs, FileCollection classpath, ObjectFactory objects) {
+      this.moduleGraph = moduleGraph;
+      this.sourceDirs = sourceDirs;
+      this.classpath = classpath;
+      this.objects = objects;
+    }
+
+    /**
+     * The modules of the main and test sources and the modules they inherit
+     *
+     * @return The module graph
+     */
+    @Internal
+    public GwtModuleGraph getModuleGraph() {
+      return moduleGraph.get().resolve(sourceDirs.getFiles(),
+          classpath.getFiles(), List.of());
+    }
+
+    /**
+     * The files the compiler reads from the project modules in the module
+     * graph
+     *
+     * @return The module sources
+     */
+    @InputFiles
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getModuleSources() {
+      return getModuleGraph().sourceTrees(objects);
+    }
+
+    @Override
+    public Iterable<String> asArguments() {
+      return List.of();
+    }
+  }
+
+  /**
+   * Applies the logging and heap settings of the gwt block before the tests
+   * start.
+   */
+  private static final class GwtTestSettingsAction implements Action<Task> {
+
+    private final Provider<Boolean> gwtTest;
+    private final Provider<Boolean> showStandardStreams;
+    private final Provider<String> minHeapSize;
+    private final Provider<String> maxHeapSize;
+
+    GwtTestSettingsAction(Provider<Boolean> gwtTest, Provider<Boolean> showStandardStreams,
+        Provider<String> minHeapSize, Provider<String> maxHeapSize) {
+      this.gwtTest = gwtTest;
+      this.showStandardStreams = showStandardStreams;
+      this.minHeapSize = minHeapSize;
+      this.maxHeapSize = maxHeapSize;
+    }
+
+    @Override
+    public void execute(Task task) {
+      if (!gwtTest.get()) {
+        return;
+      }
+      Test test = (Test) task;
+      // Only show standard streams if specifically enabled
+      test.getTestLogging().setShowStandardStreams(showStandardStreams.getOrElse(false));
+      test.setMinHeapSize(minHeapSize.get());
+      test.setMaxHeapSize(maxHeapSize.get());
+    }
+  }
+
+  /**
+   * Leases the maximum heap of all test JVMs before the tests start.
+   */
+  private static final class AcquireMemoryAction implements Action<Task> {
+
+    private final Provider<Boolean> gwtTest;
+    private final Provider<GwtMemoryBudgetService> memoryBudget;
+
+    AcquireMemoryAction(Provider<Boolean> gwtTest,
+        Provider<GwtMemoryBudgetService> memoryBudget) {
+      this.gwtTest = gwtTest;
+      this.memoryBudget = memoryBudget;
+    }
+
+    @Override
+    public void execute(Task task) {
+      if (!gwtTest.get()) {
+        return;
+      }
+      Test test = (Test) task;
+      long heapMb = test.getMaxHeapSize() != null
+          ? GwtMemoryBudgetService.parseMemoryMb(test.getMaxHeapSize())
+          : GwtAutoSizer.physicalMemoryMb() / 4;
+      memoryBudget.get().acquire(test.getPath(),
+          heapMb * Math.max(1, test.getMaxParallelForks()));
+    }
+  }
+
+  /**
+   * Records the heap usage of the test JVMs of the last run before the
+   * tests start, as actions added by {@code doLast} do not run when tests
+   * fail, and applies it to the maximum heap size if requested.
+   */
+  private static final class HeapTelemetryAction implements Action<Task> {
+
+    private final Provider<Boolean> heapTelemetry;
+    private final Provider<Boolean> autoHeapSize;
+    private final File gcLogDir;
+    private final File telemetryFile;
+
+    HeapTelemetryAction(Provider<Boolean> heapTelemetry, Provider<Boolean> autoHeapSize,
+        File gcLogDir, File telemetryFile) {
+      this.heapTelemetry = heapTelemetry;
+      this.autoHeapSize = autoHeapSize;
+      this.gcLogDir = gcLogDir;
+      this.telemetryFile = telemetryFile;
+    }
+
+    @Override
+    public void execute(Task task) {
+      Test test = (Test) task;
+      boolean auto = autoHeapSize.getOrElse(false);
+      if (!auto && !heapTelemetry.getOrElse(false)) {
+        return;
+      }
+      GwtHeapTelemetry telemetry = new GwtHeapTelemetry(gcLogDir, telemetryFile);
+      try {
+        telemetry.record().ifPresent(usage -> GwtHeapTelemetry.report(usage,
+            test.getPath(), auto ? null : test.getMaxHeapSize(), test.getLogger()));
+      } catch (IOException e) {
+        test.getLogger().warn("{}: unable to record the heap usage: {}", test.getPath(),
+            e.getMessage());
+      }
+      if (auto) {
+        telemetry.read().ifPresent(usage -> {
+          test.getLogger().lifecycle("{}: using -Xmx{}m from the heap usage of the last run"
+              + " ({}M left after GC)", test.getPath(), usage.recommendedHeapMb(),
+              usage.liveHeapMb());
+          test.setMaxHeapSize(usage.recommendedHeapMb() + "m");
+        });
+      }
+    }
+  }
+
+  /**
+   * Makes the test JVMs write GC logs. Passes the log directory only, which
+   * is not an input.
+   */
+  static final class HeapTelemetryArgumentProvider implements CommandLineArgumentProvider {
+
+    private final Provider<Boolean> heapTelemetry;
+    private final Provider<Boolean> autoHeapSize;
+    private final Provider<JavaLauncher> javaLauncher;
+    private final File gcLogDir;
+    private final File telemetryFile;
+
+    HeapTelemetryArgumentProvider(Provider<Boolean> heapTelemetry,
+        Provider<Boolean> autoHeapSize, Provider<JavaLauncher> javaLauncher,
+        File gcLogDir, File telemetryFile) {
+      this.heapTelemetry = heapTelemetry;
+      this.autoHeapSize = autoHeapSize;
+      this.javaLauncher = javaLauncher;
+      this.gcLogDir = gcLogDir;
+      this.telemetryFile = telemetryFile;
+    }
+
+    @Override
+    public Iterable<String> asArguments() {
+      boolean enabled = heapTelemetry.getOrElse(false) || autoHeapSize.getOrElse(false);
+      // -Xlog needs Java 9 or later
+      boolean supported = javaLauncher.isPresent()
+          ? javaLauncher.get().getMetadata().getLanguageVersion().canCompileOrRun(9)
+          : JavaVersion.current().isJava9Compatible();
+      if (!enabled || !supported) {
+        return List.of();
+      }
+      return new GwtHeapTelemetry(gcLogDir, telemetryFile).jvmArgs();
+    }
+  }
+
+  /**
+   * Creates the overlay of the shared unit cache before the tests start.
+   */
+  private static final class AcquireUnitCacheAction implements Action<Task> {
+
+    private final Provider<GwtUnitCacheService> unitCache;
+    private final Provider<File> cacheDir;
+    private final Provider<String> namespace;
+    private final Provider<Integer> namespaces;
+
+    AcquireUnitCacheAction(Provider<GwtUnitCacheService> unitCache,
+        Provider<File> cacheDir, Provider<String> namespace,
+        Provider<Integer> namespaces) {
+      this.unitCache = unitCache;
+      this.cacheDir = cacheDir;
+      this.namespace = namespace;
+      this.namespaces = namespaces;
+    }
+
+    @Override
+    public void execute(Task task) {
+      if (!cacheDir.isPresent()) {
+        return;
+      }
+      File sharedDir = namespace.isPresent()
+          ? unitCache.get().namespaceDir(cacheDir.get(), namespace.get(), namespaces.get())
+          : cacheDir.get();
+      task.getLogger().info("Using gwt.persistentunitcachedir for test: {}", sharedDir);
+      unitCache.get().acquire(task.getPath(), sharedDir);
     }
   }
 }
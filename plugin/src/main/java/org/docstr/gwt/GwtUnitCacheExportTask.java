@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+
+/**
+ * Packs the persistent unit cache into a snapshot archive in the snapshot
+ * directory, named after the GWT version and the fingerprint of the
+ * sources, e.g. to publish the warm cache of a CI build.
+ */
+@UntrackedTask(because = "Snapshots the unit cache as it is")
+public abstract class GwtUnitCacheExportTask extends GwtUnitCacheSnapshotTask {
+
+  /**
+   * Exports the unit cache.
+   */
+  @TaskAction
+  public void export() {
+    File cacheDir = getCacheDir().get().getAsFile();
+    if (!cacheDir.isDirectory()) {
+      getLogger().lifecycle("{}: {} does not exist, nothing to export", getPath(), cacheDir);
+      return;
+    }
+    String fingerprint = sourceFingerprint();
+    Path archive = getSnapshotDir().get().getAsFile().toPath().resolve(archiveName(fingerprint));
+
+    Properties manifest = new Properties();
+    manifest.setProperty(KEY_FORMAT_VERSION, Integer.toString(FORMAT_VERSION));
+    manifest.setProperty(KEY_GWT_VERSION, getGwtVersion().get());
+    manifest.setProperty(KEY_SOURCE_FINGERPRINT, fingerprint);
+
+    int[] exported = new int[1];
+    getUnitCacheService().get().runLocked(cacheDir, shared -> {
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(shared)) {
+        files = walk.filter(Files::isRegularFile)
+            .filter(file -> !GwtUnitCacheService.isNamespaceControlFile(shared, file))
+            .sorted()
+            .toList();
+      }
+
+      // Write to a temporary file first, so importers never read a partial archive
+      Files.createDirectories(archive.getParent());
+      Path tmpFile = Files.createTempFile(archive.getParent(),
+          archive.getFileName().toString(), ".tmp");
+      try {
+        try (ZipOutputStream zip = new ZipOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+          zip.putNextEntry(new ZipEntry(MANIFEST));
+          manifest.store(zip, "GWT unit cache snapshot");
+          zip.closeEntry();
+          for (Path file : files) {
+            exported[0] += addEntry(zip, shared, file) ? 1 : 0;
+          }
+        }
+        Files.move(tmpFile, archive, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+    });
+    getLogger().lifecycle("{}: exported {} unit cache files to {}", getPath(),
+        exported[0], archive);
+  }
+
+  private static boolean addEntry(ZipOutputStream zip, Path root, Path file)
+      throws IOException {
+    InputStream in;
+    try {
+      in = Files.newInputStream(file);
+    } catch (NoSuchFileException e) {
+      // Compacted away by a namespace merge in the meantime
+      return false;
+    }
+    try (in) {
+      String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+      zip.putNextEntry(new ZipEntry(name));
+      in.transferTo(zip);
+      zip.closeEntry();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+
+/**
+ * Seeds the persistent unit cache from a snapshot archive in the snapshot
+ * directory, e.g. one published by a CI build.
+ * <p>
+ * Prefers the snapshot made for the current sources, and falls back to the
+ * latest snapshot of the same GWT version: GWT checks every cached unit
+ * against its source, so only the units of changed sources are recompiled.
+ * Cache files already present are kept.
+ */
+@UntrackedTask(because = "Seeds the unit cache in place")
+public abstract class GwtUnitCacheImportTask extends GwtUnitCacheSnapshotTask {
+
+  /**
+   * Imports the snapshot into the unit cache.
+   */
+  @TaskAction
+  public void importSnapshot() {
+    Path snapshotDir = getSnapshotDir().get().getAsFile().toPath();
+    Optional<Path> archive = findSnapshot(snapshotDir);
+    if (archive.isEmpty()) {
+      getLogger().lifecycle("{}: no unit cache snapshot for GWT {} in {}", getPath(),
+          getGwtVersion().get(), snapshotDir);
+      return;
+    }
+
+    int[] imported = new int[1];
+    try (ZipFile zip = new ZipFile(archive.get().toFile())) {
+      Properties manifest = readManifest(zip);
+      if (!Integer.toString(FORMAT_VERSION).equals(manifest.getProperty(KEY_FORMAT_VERSION))
+          || !getGwtVersion().get().equals(manifest.getProperty(KEY_GWT_VERSION))) {
+        getLogger().warn("{}: {} is not a unit cache snapshot of format {} for GWT {},"
+                + " ignoring it", getPath(), archive.get(), FORMAT_VERSION,
+            getGwtVersion().get());
+        return;
+      }
+
+      getUnitCacheService().get().runLocked(getCacheDir().get().getAsFile(), shared -> {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.isDirectory() || MANIFEST.equals(entry.getName())) {
+            continue;
+          }
+          Path target = shared.resolve(entry.getName()).normalize();
+          if (!target.startsWith(shared)) {
+            throw new IOException("Invalid entry " + entry.getName());
+          }
+          if (Files.exists(target)) {
+            continue;
+          }
+          Files.createDirectories(target.getParent());
+          Path tmpFile = Files.createTempFile(target.getParent(),
+              target.getFileName().toString(), ".tmp");
+          try (InputStream in = zip.getInputStream(entry)) {
+            Files.copy(in, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+          } finally {
+            Files.deleteIfExists(tmpFile);
+          }
+          imported[0]++;
+        }
+      });
+    } catch (IOException e) {
+      throw new GradleException("Failed to read the unit cache snapshot " + archive.get(), e);
+    }
+    getLogger().lifecycle("{}: imported {} unit cache files from {}", getPath(),
+        imported[0], archive.get());
+  }
+
+  private Optional<Path> findSnapshot(Path snapshotDir) {
+    if (!Files.isDirectory(snapshotDir)) {
+      return Optional.empty();
+    }
+    Path exact = snapshotDir.resolve(archiveName(sourceFingerprint()));
+    if (Files.isRegularFile(exact)) {
+      return Optional.of(exact);
+    }
+    try (Stream<Path> files = Files.list(snapshotDir)) {
+      Optional<Path> latest = files
+          .filter(file -> file.getFileName().toString().startsWith(archivePrefix()))
+          .filter(file -> file.getFileName().toString().endsWith(".zip"))
+          .max(Comparator.comparingLong(file -> file.toFile().lastModified()));
+      latest.ifPresent(file -> getLogger().info("{}: no unit cache snapshot for the"
+          + " current sources, using {}", getPath(), file));
+      return latest;
+    } catch (IOException e) {
+      throw new GradleException("Failed to list the unit cache snapshots in " + snapshotDir, e);
+    }
+  }
+
+  private static Properties readManifest(ZipFile zip) throws IOException {
+    Properties manifest = new Properties();
+    ZipEntry entry = zip.getEntry(MANIFEST);
+    if (entry != null) {
+      try (InputStream in = zip.getInputStream(entry)) {
+        manifest.load(in);
+      }
+    }
+    return manifest;
+  }
+}
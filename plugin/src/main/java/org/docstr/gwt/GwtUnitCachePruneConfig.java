@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.util.List;
+import org.docstr.gwt.options.CompilerOptions;
+import org.docstr.gwt.options.UnitCacheOptions;
+import org.gradle.api.Action;
+import org.gradle.api.file.Directory;
+import org.gradle.api.provider.Provider;
+
+/**
+ * Configures the task pruning the persistent unit caches and the
+ * permutation store.
+ */
+public class GwtUnitCachePruneConfig implements Action<GwtUnitCachePruneTask> {
+
+  private final GwtPluginExtension extension;
+
+  /**
+   * Constructor.
+   *
+   * @param extension The GWT plugin extension
+   */
+  public GwtUnitCachePruneConfig(GwtPluginExtension extension) {
+    this.extension = extension;
+  }
+
+  @Override
+  public void execute(GwtUnitCachePruneTask task) {
+    UnitCacheOptions options = extension.getUnitCache();
+    task.getMaxSizeMb().set(options.getMaxSize()
+        .map(GwtMemoryBudgetService::parseMemoryMb));
+    task.getMaxAgeDays().set(options.getMaxAge());
+
+    // The shared cache directory and the ones the tools override it with
+    task.getCacheDirs().from(ifPresent(extension.getCacheDir()),
+        ifPresent(extension.getCompiler().getCacheDir()),
+        ifPresent(extension.getDevMode().getCacheDir()),
+        ifPresent(extension.getGwtTest().getCacheDir()));
+
+    // The permutation store of a split compilation
+    CompilerOptions compiler = extension.getCompiler();
+    task.getCacheDirs().from(compiler.getPermutationCacheDir()
+        .zip(compiler.getPermutationShards(),
+            (dir, shards) -> shards > 0 ? List.of(dir) : List.<Directory>of())
+        .orElse(List.of()));
+  }
+
+  // File collections reject absent values, and the tools only set a directory to override the shared one
+  private static Provider<List<Directory>> ifPresent(Provider<Directory> dir) {
+    return dir.map(List::of).orElse(List.of());
+  }
+}
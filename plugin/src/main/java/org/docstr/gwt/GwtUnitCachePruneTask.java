@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.time.Duration;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+
+/**
+ * Keeps the persistent unit caches from growing without bound: evicts the
+ * cache files unused for longer than {@link #getMaxAgeDays()}, then the least
+ * recently used ones until each cache directory fits
+ * {@link #getMaxSizeMb()}. Large caches take longer to load at compiler
+ * startup than they save. The permutation store of a split compilation is
+ * pruned the same way, as restoring a permutation counts as a use.
+ * <p>
+ * Prunes through the {@link GwtUnitCacheService}, so it never evicts files
+ * while a GWT task of the build merges its overlay.
+ */
+@UntrackedTask(because = "Prunes the unit cache in place")
+public abstract class GwtUnitCachePruneTask extends DefaultTask {
+
+  private static final long MB = 1024 * 1024;
+
+  /**
+   * The unit cache directories, and the permutation store, to prune
+   *
+   * @return The cache directories
+   */
+  @Internal
+  public abstract ConfigurableFileCollection getCacheDirs();
+
+  /**
+   * The size each cache directory is pruned to, in MB
+   *
+   * @return The maximum size
+   */
+  @Internal
+  public abstract Property<Long> getMaxSizeMb();
+
+  /**
+   * The number of days after which an unused cache file is evicted
+   *
+   * @return The maximum age
+   */
+  @Internal
+  public abstract Property<Integer> getMaxAgeDays();
+
+  /**
+   * The build-wide coordinator of the unit cache directories
+   *
+   * @return The unit cache service
+   */
+  @Internal
+  public abstract Property<GwtUnitCacheService> getUnitCacheService();
+
+  /**
+   * Prunes the cache directories and reports the space reclaimed.
+   */
+  @TaskAction
+  public void prune() {
+    if (!getMaxSizeMb().isPresent() && !getMaxAgeDays().isPresent()) {
+      getLogger().lifecycle("{}: set gwt.unitCache.maxSize or gwt.unitCache.maxAge"
+          + " to prune the unit cache", getPath());
+      return;
+    }
+    long maxBytes = getMaxSizeMb().map(mb -> mb * MB).getOrElse(-1L);
+    Duration maxAge = getMaxAgeDays().map(Duration::ofDays).getOrNull();
+    for (File cacheDir : getCacheDirs().getFiles()) {
+      GwtUnitCacheService.PruneResult result = getUnitCacheService().get()
+          .prune(cacheDir, maxBytes, maxAge);
+      getLogger().lifecycle("{}: evicted {} files from {}, reclaimed {}M, {}M left",
+          getPath(), result.deletedFiles(), cacheDir, toMb(result.reclaimedBytes()),
+          toMb(result.remainingBytes()));
+    }
+  }
+
+  private static long toMb(long bytes) {
+    return (bytes + MB - 1) / MB;
+  }
+}
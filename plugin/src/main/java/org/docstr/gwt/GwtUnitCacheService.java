@@ -0,0 +1,610 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+
+/**
+ * Coordinates the access of the JVMs forked by GWT tasks of all projects to
+ * a shared persistent unit cache directory.
+ * <p>
+ * Instead of the shared directory, every task hands its JVMs an overlay
+ * directory of its own, which starts out as hard links to the files of the
+ * shared directory (copies where hard links are not supported). GWT only
+ * ever adds new cache files and deletes old ones, so the JVMs of a task
+ * never touch the files of another. When the lease of the overlay is
+ * closed, or at the latest when the task finishes, the files the JVMs added
+ * are moved into the shared directory and the files they deleted after
+ * compacting the cache are deleted from it.
+ * <p>
+ * Populating and merging an overlay are short critical sections, guarded
+ * within the build by a lock per cache directory and across builds by a
+ * file lock, so concurrent tasks and builds no longer compact the shared
+ * directory under each other's feet.
+ * <p>
+ * Optionally, the shared directory is split into namespaces per GWT version,
+ * source level and cache relevant compiler flags, which would otherwise
+ * invalidate each other's compilation units.
+ * <p>
+ * Compiler daemons and Gradle workers outlive the task, so they use the
+ * shared directory directly and mark it as in use for as long as they live,
+ * see {@link GwtCompilerRunner}. Such a directory is neither pruned nor
+ * evicted as a namespace.
+ */
+public abstract class GwtUnitCacheService implements
+    BuildService<BuildServiceParameters.None>, OperationCompletionListener {
+
+  /**
+   * The name of the build service.
+   */
+  public static final String SERVICE_NAME = "gwtUnitCache";
+
+  private static final Logger LOG = Logging.getLogger(GwtUnitCacheService.class);
+
+  // The compiler flags that change the compilation units GWT caches
+  private static final Set<String> NAMESPACE_FLAGS = Set.of(
+      "-strict", "-nostrict",
+      "-XclassMetadata", "-XnoclassMetadata",
+      "-generateJsInteropExports", "-nogenerateJsInteropExports");
+
+  // A namespace directory, named by namespace(String, List)
+  private static final Pattern NAMESPACE_DIR = Pattern.compile(".+-\\p{XDigit}{12}");
+
+  private final Map<Path, Object> locks = new ConcurrentHashMap<>();
+  private final Map<String, List<Lease>> leases = new HashMap<>();
+
+  /**
+   * An overlay of a shared unit cache directory, merged back when closed.
+   */
+  public final class Lease implements AutoCloseable {
+
+    private final String owner;
+    private final Path cacheDir;
+    private final Path overlayDir;
+    // Size and modification time of the files linked into the overlay
+    private final Map<Path, String> linked;
+    private boolean closed;
+
+    private Lease(String owner, Path cacheDir, Path overlayDir, Map<Path, String> linked) {
+      this.owner = owner;
+      this.cacheDir = cacheDir;
+      this.overlayDir = overlayDir;
+      this.linked = linked;
+    }
+
+    /**
+     * The overlay directory to pass to the JVMs
+     *
+     * @return The overlay directory
+     */
+    public File getDir() {
+      return overlayDir.toFile();
+    }
+
+    @Override
+    public void close() {
+      synchronized (GwtUnitCacheService.this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        leases.getOrDefault(owner, List.of()).remove(this);
+      }
+      merge(this);
+    }
+  }
+
+  /**
+   * Registers the build service, unless it is already registered by another
+   * project of the build.
+   *
+   * @param project The project
+   * @return The build service
+   */
+  public static Provider<GwtUnitCacheService> register(Project project) {
+    return project.getGradle().getSharedServices().registerIfAbsent(
+        SERVICE_NAME, GwtUnitCacheService.class, spec -> { });
+  }
+
+  /**
+   * The overlay directory of a task for a shared unit cache directory: a
+   * directory named after the task, next to the shared directory.
+   *
+   * @param cacheDir The shared unit cache directory
+   * @param owner    The path of the task
+   * @return The overlay directory
+   */
+  public static File overlayDir(File cacheDir, String owner) {
+    return new File(cacheDir.getParentFile(), cacheDir.getName() + "-forks/"
+        + owner.substring(owner.startsWith(":") ? 1 : 0).replace(':', '.'));
+  }
+
+  /**
+   * The namespace of the unit cache for a GWT version and compiler arguments,
+   * e.g. {@code 2.12.1-3f2a9c0d1b7e}. Only the source level and the flags
+   * that change the cached compilation units are part of it.
+   *
+   * @param gwtVersion The GWT version
+   * @param gwtArgs    The arguments of the GWT tool
+   * @return The namespace
+   */
+  public static String namespace(String gwtVersion, List<String> gwtArgs) {
+    List<String> key = new ArrayList<>();
+    for (int i = 0; i < gwtArgs.size(); i++) {
+      String arg = gwtArgs.get(i);
+      if ("-sourceLevel".equals(arg) && i + 1 < gwtArgs.size()) {
+        key.add(arg + " " + gwtArgs.get(++i));
+      } else if (NAMESPACE_FLAGS.contains(arg)) {
+        key.add(arg);
+      }
+    }
+    Collections.sort(key);
+    String version = gwtVersion != null ? gwtVersion.replaceAll("[^\\w.]", "_") : "gwt";
+    return version + "-" + HashUtils.sha256(String.join("\n", key)).substring(0, 12);
+  }
+
+  /**
+   * Returns the directory of a namespace in a shared unit cache directory,
+   * marking it as used. Deletes the least recently used namespaces beyond
+   * the maximum number, unless a task of this build still uses them.
+   *
+   * @param cacheDir      The shared unit cache directory
+   * @param namespace     The namespace, see {@link #namespace(String, List)}
+   * @param maxNamespaces The number of namespaces to keep
+   * @return The namespace directory
+   */
+  public File namespaceDir(File cacheDir, String namespace, int maxNamespaces) {
+    Path root = cacheDir.toPath().toAbsolutePath().normalize();
+    Path current = root.resolve(namespace);
+    Set<Path> inUse = new HashSet<>();
+    synchronized (this) {
+      leases.values().forEach(open -> open.forEach(lease -> inUse.add(lease.cacheDir)));
+    }
+    withLock(root, () -> {
+      Files.createDirectories(current);
+      Files.setLastModifiedTime(current, FileTime.fromMillis(System.currentTimeMillis()));
+
+      List<Path> namespaces;
+      try (Stream<Path> dirs = Files.list(root)) {
+        namespaces = dirs.filter(Files::isDirectory)
+            .filter(dir -> NAMESPACE_DIR.matcher(dir.getFileName().toString()).matches())
+            .filter(dir -> !dir.equals(current))
+            .sorted(Comparator.comparing(GwtUnitCacheService::lastModified).reversed())
+            .toList();
+      }
+      List<Path> evictable = namespaces.subList(
+          Math.min(namespaces.size(), Math.max(maxNamespaces - 1, 0)), namespaces.size());
+      for (Path evicted : evictable) {
+        if (inUse.contains(evicted) || isUsedByLiveJvm(evicted)) {
+          continue;
+        }
+        withLock(evicted, () -> {
+          deleteRecursively(evicted);
+          deleteRecursively(evicted.resolveSibling(evicted.getFileName() + "-forks"));
+        });
+        Files.deleteIfExists(evicted.resolveSibling(evicted.getFileName() + ".lock"));
+        Files.deleteIfExists(evicted.resolveSibling(evicted.getFileName()
+            + GwtCompilerRunner.IN_USE_SUFFIX));
+        LOG.lifecycle("Deleted the least recently used GWT unit cache {}", evicted);
+      }
+    });
+    return current.toFile();
+  }
+
+  /**
+   * Creates the overlay of a task for a shared unit cache directory.
+   *
+   * @param owner    The path of the task
+   * @param cacheDir The shared unit cache directory
+   * @return The lease of the overlay
+   */
+  public Lease acquire(String owner, File cacheDir) {
+    Path shared = cacheDir.toPath().toAbsolutePath().normalize();
+    Path overlay = overlayDir(shared.toFile(), owner).toPath();
+    Map<Path, String> linked = new HashMap<>();
+    withLock(shared, () -> {
+      // Left over by a build that was killed
+      deleteRecursively(overlay);
+      Files.createDirectories(shared);
+      Files.createDirectories(overlay);
+      try (Stream<Path> files = Files.walk(shared)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Path relative = shared.relativize(file);
+          if (Files.isDirectory(file)) {
+            Files.createDirectories(overlay.resolve(relative));
+          } else {
+            link(file, overlay.resolve(relative));
+            linked.put(relative, fingerprint(file));
+          }
+        }
+      }
+    });
+    LOG.info("{} uses {} as overlay of {} ({} files)", owner, overlay, shared, linked.size());
+
+    Lease lease = new Lease(owner, shared, overlay, linked);
+    synchronized (this) {
+      leases.computeIfAbsent(owner, key -> new ArrayList<>()).add(lease);
+    }
+    return lease;
+  }
+
+  private void merge(Lease lease) {
+    withLock(lease.cacheDir, () -> {
+      if (!Files.isDirectory(lease.overlayDir)) {
+        return;
+      }
+      int added = 0;
+      int deleted = 0;
+      // Move the files the JVMs added
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(lease.overlayDir)) {
+        files = walk.toList();
+      }
+      for (Path file : files) {
+        Path relative = lease.overlayDir.relativize(file);
+        Path target = lease.cacheDir.resolve(relative);
+        if (Files.isDirectory(file)) {
+          Files.createDirectories(target);
+        } else if (!fingerprint(file).equals(lease.linked.get(relative))) {
+          Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+          added++;
+        }
+      }
+      // Delete the files the JVMs compacted, unless another task replaced them
+      for (Map.Entry<Path, String> entry : lease.linked.entrySet()) {
+        Path target = lease.cacheDir.resolve(entry.getKey());
+        if (!Files.exists(lease.overlayDir.resolve(entry.getKey()))
+            && Files.isRegularFile(target)
+            && entry.getValue().equals(fingerprint(target))) {
+          Files.delete(target);
+          deleted++;
+        }
+      }
+      deleteRecursively(lease.overlayDir);
+      LOG.info("{} merged {} into {}: {} files added, {} deleted", lease.owner,
+          lease.overlayDir, lease.cacheDir, added, deleted);
+    });
+  }
+
+  /**
+   * The outcome of pruning a unit cache directory.
+   *
+   * @param deletedFiles   The number of evicted files
+   * @param reclaimedBytes The size of the evicted files
+   * @param remainingBytes The size of the files left
+   */
+  public record PruneResult(int deletedFiles, long reclaimedBytes, long remainingBytes) {
+  }
+
+  /**
+   * Evicts the cache files of a unit cache directory that were not used
+   * for longer than the maximum age, then the least recently used ones
+   * until the directory fits the maximum size. A file counts as used when it
+   * was last read or written, whichever is later.
+   * Skips the directories a compiler daemon or Gradle worker still uses.
+   *
+   * @param cacheDir The shared unit cache directory
+   * @param maxBytes The maximum size, or a negative value for no limit
+   * @param maxAge   The maximum age, or {@code null} for no limit
+   * @return The outcome
+   */
+  public PruneResult prune(File cacheDir, long maxBytes, Duration maxAge) {
+    Path shared = cacheDir.toPath().toAbsolutePath().normalize();
+    if (!Files.isDirectory(shared)) {
+      return new PruneResult(0, 0, 0);
+    }
+    PruneResult[] result = new PruneResult[1];
+    withTreeLock(shared, () -> {
+      record CacheFile(Path path, long size, long lastUsed) {
+      }
+      List<Path> skipped = usedByLiveJvms(shared);
+      skipped.forEach(dir -> LOG.lifecycle(
+          "Not pruning {}, a GWT compiler daemon or worker is using it", dir));
+      List<CacheFile> files = new ArrayList<>();
+      try (Stream<Path> walk = Files.walk(shared)) {
+        for (Path file : (Iterable<Path>) walk::iterator) {
+          BasicFileAttributes attributes = Files.readAttributes(file,
+              BasicFileAttributes.class);
+          if (attributes.isRegularFile() && !isNamespaceControlFile(shared, file)
+              && skipped.stream().noneMatch(file::startsWith)) {
+            files.add(new CacheFile(file, attributes.size(), Math.max(
+                attributes.lastAccessTime().toMillis(),
+                attributes.lastModifiedTime().toMillis())));
+          }
+        }
+      }
+      files.sort(Comparator.comparingLong(file -> file.lastUsed()));
+
+      long remaining = files.stream().mapToLong(CacheFile::size).sum();
+      long cutoff = maxAge != null ? System.currentTimeMillis() - maxAge.toMillis() : 0;
+      int deleted = 0;
+      long reclaimed = 0;
+      for (CacheFile file : files) {
+        boolean tooOld = file.lastUsed() < cutoff;
+        boolean tooLarge = maxBytes >= 0 && remaining > maxBytes;
+        if (!tooOld && !tooLarge) {
+          // Sorted by last use, so all remaining files are newer
+          break;
+        }
+        // A task may have merged its overlay over it in the meantime
+        Files.deleteIfExists(file.path());
+        deleted++;
+        reclaimed += file.size();
+        remaining -= file.size();
+      }
+      result[0] = new PruneResult(deleted, reclaimed, remaining);
+    });
+    return result[0];
+  }
+
+  /**
+   * An action on a shared unit cache directory.
+   */
+  public interface CacheAction {
+
+    /**
+     * Runs the action.
+     *
+     * @param cacheDir The shared unit cache directory
+     * @throws IOException If the cache directory cannot be read or written
+     */
+    void run(Path cacheDir) throws IOException;
+  }
+
+  /**
+   * Runs an action on a shared unit cache directory while no task of this or
+   * another build populates or merges an overlay of it, or of any namespace
+   * or per-module directory within it.
+   *
+   * @param cacheDir The shared unit cache directory
+   * @param action   The action
+   */
+  public void runLocked(File cacheDir, CacheAction action) {
+    Path shared = cacheDir.toPath().toAbsolutePath().normalize();
+    withTreeLock(shared, () -> action.run(shared));
+  }
+
+  /**
+   * Merges all overlays of a task.
+   *
+   * @param owner The path of the task
+   */
+  public void releaseAll(String owner) {
+    List<Lease> open;
+    synchronized (this) {
+      open = new ArrayList<>(leases.getOrDefault(owner, List.of()));
+    }
+    open.forEach(Lease::close);
+  }
+
+  @Override
+  public void onFinish(FinishEvent event) {
+    if (event instanceof TaskFinishEvent taskEvent) {
+      releaseAll(taskEvent.getDescriptor().getTaskPath());
+    }
+  }
+
+  private interface IoAction {
+
+    void run() throws IOException;
+  }
+
+  /**
+   * Runs an action holding the lock of a cache directory in this build and
+   * the file lock next to it across builds.
+   */
+  private void withLock(Path cacheDir, IoAction action) {
+    Path lockFile = cacheDir.resolveSibling(cacheDir.getFileName() + ".lock");
+    synchronized (locks.computeIfAbsent(cacheDir, key -> new Object())) {
+      try {
+        Files.createDirectories(lockFile.getParent());
+        try (FileChannel channel = FileChannel.open(lockFile,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.lock()) {
+          action.run();
+        }
+      } catch (IOException | UncheckedIOException e) {
+        throw new GradleException("Failed to update the GWT unit cache " + cacheDir, e);
+      }
+    }
+  }
+
+  /**
+   * Runs an action holding the lock of a cache directory and of every cache
+   * directory within it, e.g. namespaces and per-module directories. Locks
+   * are always taken from the outer directory inwards, like
+   * {@link #namespaceDir(File, String, int)} does, so they cannot deadlock.
+   */
+  private void withTreeLock(Path root, IoAction action) {
+    List<Path> cacheDirs = new ArrayList<>();
+    cacheDirs.add(root);
+    if (Files.isDirectory(root)) {
+      try (Stream<Path> walk = Files.walk(root)) {
+        walk.filter(file -> file.getFileName().toString().endsWith(".lock"))
+            .filter(file -> !isInOverlay(root.relativize(file).getParent()))
+            .map(file -> file.resolveSibling(file.getFileName().toString()
+                .replaceFirst("\\.lock$", "")))
+            .filter(Files::isDirectory)
+            .sorted(Comparator.comparingInt(Path::getNameCount)
+                .thenComparing(Comparator.naturalOrder()))
+            .forEach(cacheDirs::add);
+      } catch (IOException | UncheckedIOException e) {
+        throw new GradleException("Failed to read the GWT unit cache " + root, e);
+      }
+    }
+    withLocks(cacheDirs, 0, action);
+  }
+
+  private void withLocks(List<Path> cacheDirs, int index, IoAction action) {
+    if (index == cacheDirs.size()) {
+      try {
+        action.run();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return;
+    }
+    withLock(cacheDirs.get(index), () -> withLocks(cacheDirs, index + 1, action));
+  }
+
+  /**
+   * Whether a file belongs to the overlays or the locks of a cache
+   * directory, rather than to the cache itself. Overlays and locks sit next
+   * to the directory they belong to, at any depth, e.g. next to the
+   * namespaces of a per-module cache directory.
+   *
+   * @param root The shared unit cache directory
+   * @param file A file in the shared unit cache directory
+   * @return {@code true} if the file is not a cache file
+   */
+  static boolean isNamespaceControlFile(Path root, Path file) {
+    Path relative = root.relativize(file);
+    return isInOverlay(relative.getParent())
+        || relative.getFileName().toString().endsWith(".lock");
+  }
+
+  /**
+   * Lists the cache directories of a tree that a live JVM uses directly,
+   * the root included.
+   */
+  private static List<Path> usedByLiveJvms(Path root) throws IOException {
+    List<Path> used = new ArrayList<>();
+    if (isUsedByLiveJvm(root)) {
+      used.add(root);
+    }
+    try (Stream<Path> walk = Files.walk(root)) {
+      walk.filter(file -> file.getFileName().toString().endsWith(GwtCompilerRunner.IN_USE_SUFFIX))
+          .map(file -> file.resolveSibling(file.getFileName().toString()
+              .substring(0, file.getFileName().toString().length()
+                  - GwtCompilerRunner.IN_USE_SUFFIX.length())))
+          .filter(GwtUnitCacheService::isUsedByLiveJvm)
+          .forEach(used::add);
+    }
+    return used;
+  }
+
+  /**
+   * Whether a JVM still holds the in-use lock of a cache directory. The lock
+   * is released when the JVM exits, however it exits.
+   */
+  static boolean isUsedByLiveJvm(Path cacheDir) {
+    Path lockFile = cacheDir.resolveSibling(cacheDir.getFileName()
+        + GwtCompilerRunner.IN_USE_SUFFIX);
+    if (!Files.isRegularFile(lockFile)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+        FileLock lock = channel.tryLock()) {
+      return lock == null;
+    } catch (OverlappingFileLockException e) {
+      // Held within this JVM
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean isInOverlay(Path relativeDir) {
+    if (relativeDir != null) {
+      for (Path name : relativeDir) {
+        if (name.toString().endsWith("-forks")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static long lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static void link(Path source, Path target) throws IOException {
+    try {
+      Files.createLink(target, source);
+    } catch (UnsupportedOperationException | IOException e) {
+      Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.COPY_ATTRIBUTES);
+    }
+  }
+
+  private static String fingerprint(Path file) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    return attributes.size() + "|" + attributes.lastModifiedTime().toMillis();
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+          throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        if (e != null) {
+          throw e;
+        }
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
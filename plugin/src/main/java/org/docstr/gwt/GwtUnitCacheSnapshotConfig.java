@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+
+/**
+ * Configures the tasks exporting and importing unit cache snapshots.
+ */
+public class GwtUnitCacheSnapshotConfig implements Action<GwtUnitCacheSnapshotTask> {
+
+  private final GwtPluginExtension extension;
+
+  /**
+   * Constructor.
+   *
+   * @param extension The GWT plugin extension
+   */
+  public GwtUnitCacheSnapshotConfig(GwtPluginExtension extension) {
+    this.extension = extension;
+  }
+
+  @Override
+  public void execute(GwtUnitCacheSnapshotTask task) {
+    Project project = task.getProject();
+    // The unit cache gwtCompile fills
+    task.getCacheDir().set(extension.getCompiler().getCacheDir()
+        .orElse(extension.getCacheDir()));
+    task.getSnapshotDir().set(extension.getUnitCache().getSnapshotDir());
+    task.getGwtVersion().set(extension.getGwtVersion());
+
+    SourceSet mainSourceSet = project.getExtensions()
+        .getByType(SourceSetContainer.class)
+        .getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+    task.getSourceDirs().from(mainSourceSet.getAllSource().getSourceDirectories());
+  }
+}
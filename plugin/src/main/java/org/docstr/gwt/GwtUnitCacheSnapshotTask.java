@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+
+/**
+ * Base class of the tasks exporting the persistent unit cache into a
+ * snapshot archive and importing it again, e.g. to seed the cache of a
+ * fresh clone with the cache of a CI build.
+ * <p>
+ * Snapshots are zip archives named after the GWT version and a fingerprint
+ * of the sources they were made for, and carry a manifest with the format
+ * version of the archive.
+ */
+public abstract class GwtUnitCacheSnapshotTask extends DefaultTask {
+
+  /**
+   * The format version of the snapshot archives.
+   */
+  static final int FORMAT_VERSION = 1;
+
+  /**
+   * The entry of the manifest in the snapshot archives.
+   */
+  static final String MANIFEST = "META-INF/gwt-unitCache.properties";
+
+  static final String KEY_FORMAT_VERSION = "formatVersion";
+  static final String KEY_GWT_VERSION = "gwtVersion";
+  static final String KEY_SOURCE_FINGERPRINT = "sourceFingerprint";
+
+  private static final String ARCHIVE_PREFIX = "gwt-unitCache-";
+
+  /**
+   * The persistent unit cache directory
+   *
+   * @return The cache directory
+   */
+  @Internal
+  public abstract DirectoryProperty getCacheDir();
+
+  /**
+   * The directory the snapshot archives are exported to and imported from
+   *
+   * @return The snapshot directory
+   */
+  @Internal
+  public abstract DirectoryProperty getSnapshotDir();
+
+  /**
+   * The GWT version the unit cache was filled by
+   *
+   * @return The GWT version
+   */
+  @Internal
+  public abstract Property<String> getGwtVersion();
+
+  /**
+   * The source directories the snapshots are fingerprinted by
+   *
+   * @return The source directories
+   */
+  @Internal
+  public abstract ConfigurableFileCollection getSourceDirs();
+
+  /**
+   * The build-wide coordinator of the unit cache directories
+   *
+   * @return The unit cache service
+   */
+  @Internal
+  public abstract Property<GwtUnitCacheService> getUnitCacheService();
+
+  /**
+   * The file name of the snapshot archive for a source fingerprint, e.g.
+   * {@code gwt-unitCache-2.12.1-3f2a9c0d1b7e.zip}
+   *
+   * @param fingerprint The source fingerprint
+   * @return The archive name
+   */
+  protected String archiveName(String fingerprint) {
+    return archivePrefix() + fingerprint.substring(0, 12) + ".zip";
+  }
+
+  /**
+   * The common prefix of the names of the snapshot archives for the GWT
+   * version
+   *
+   * @return The archive name prefix
+   */
+  protected String archivePrefix() {
+    return ARCHIVE_PREFIX + getGwtVersion().get().replaceAll("[^\\w.]", "_") + "-";
+  }
+
+  /**
+   * Fingerprints the content and the relative paths of the source files.
+   *
+   * @return The hex encoded fingerprint
+   */
+  protected String sourceFingerprint() {
+    MessageDigest digest = HashUtils.newSha256();
+    for (File sourceDir : getSourceDirs().getFiles()) {
+      Path root = sourceDir.toPath();
+      if (!Files.isDirectory(root)) {
+        continue;
+      }
+      try (Stream<Path> walk = Files.walk(root)) {
+        List<Path> files = walk.filter(Files::isRegularFile).sorted().toList();
+        for (Path file : files) {
+          String entry = root.relativize(file).toString().replace(File.separatorChar, '/')
+              + "=" + HashUtils.sha256(file) + "\n";
+          digest.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+      } catch (IOException | UncheckedIOException e) {
+        throw new GradleException("Failed to fingerprint the sources in " + sourceDir, e);
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Statistics of the persistent unit cache in a GWT compilation: the units
+ * loaded from the cache and the time it took, the units reused and rebuilt,
+ * and the size of the cache.
+ * <p>
+ * The compiler reports the units it loads and reuses in its TRACE and DEBUG
+ * log messages, which {@link GwtCompilerRunner} hands to
+ * {@link #onMessage(String)} whatever the log level.
+ * <p>
+ * Used inside the forked compilers too, so this class must only depend on
+ * the JDK.
+ */
+final class GwtUnitCacheStats {
+
+  /**
+   * The argument passing the file the forked compiler writes the statistics
+   * to. Removed by {@link GwtCompilerRunner} before the GWT arguments are
+   * processed.
+   */
+  static final String STATS_FILE_ARG = "-unitCacheStatsFile";
+
+  private static final Pattern LOOKING = Pattern.compile(
+      "^Looking for previously cached Compilation Units");
+  private static final Pattern LOADED = Pattern.compile(
+      "Loaded (\\d+) units from persistent store");
+  private static final Pattern USED = Pattern.compile(
+      "Used (\\d+) / (\\d+) units from cache");
+
+  private static final String KEY_UNITS_LOADED = "unitsLoaded";
+  private static final String KEY_UNITS_REUSED = "unitsReused";
+  private static final String KEY_UNITS_TOTAL = "unitsTotal";
+  private static final String KEY_LOAD_MILLIS = "cacheLoadMillis";
+  private static final String KEY_CACHE_FILES = "cacheFiles";
+  private static final String KEY_CACHE_BYTES = "cacheBytes";
+
+  private long unitsLoaded;
+  private long unitsReused;
+  private long unitsTotal;
+  private long loadMillis;
+  private long cacheFiles;
+  private long cacheBytes;
+  private long loadStartNanos = -1;
+
+  /**
+   * Takes the statistics from a compiler log message.
+   *
+   * @param message The log message
+   */
+  void onMessage(String message) {
+    onMessage(message, System.nanoTime());
+  }
+
+  /**
+   * Takes the statistics from a compiler log message.
+   *
+   * @param message The log message
+   * @param nanos   The time of the message, see {@link System#nanoTime()}
+   */
+  void onMessage(String message, long nanos) {
+    if (message == null) {
+      return;
+    }
+    if (LOOKING.matcher(message).find()) {
+      loadStartNanos = nanos;
+      return;
+    }
+    Matcher loaded = LOADED.matcher(message);
+    if (loaded.find()) {
+      unitsLoaded += Long.parseLong(loaded.group(1));
+      if (loadStartNanos >= 0) {
+        loadMillis += (nanos - loadStartNanos) / 1_000_000;
+        loadStartNanos = -1;
+      }
+      return;
+    }
+    Matcher used = USED.matcher(message);
+    if (used.find()) {
+      unitsReused += Long.parseLong(used.group(1));
+      unitsTotal += Long.parseLong(used.group(2));
+    }
+  }
+
+  /**
+   * Counts the files in the unit cache directory and their size.
+   *
+   * @param cacheDir The unit cache directory
+   * @throws IOException If the directory cannot be read
+   */
+  void countCacheFiles(Path cacheDir) throws IOException {
+    cacheFiles = 0;
+    cacheBytes = 0;
+    if (!Files.isDirectory(cacheDir)) {
+      return;
+    }
+    try (Stream<Path> walk = Files.walk(cacheDir)) {
+      for (Path file : (Iterable<Path>) walk::iterator) {
+        BasicFileAttributes attributes = Files.readAttributes(file,
+            BasicFileAttributes.class);
+        if (attributes.isRegularFile()) {
+          cacheFiles++;
+          cacheBytes += attributes.size();
+        }
+      }
+    }
+  }
+
+  long getUnitsLoaded() {
+    return unitsLoaded;
+  }
+
+  long getUnitsReused() {
+    return unitsReused;
+  }
+
+  long getUnitsRebuilt() {
+    return unitsTotal - unitsReused;
+  }
+
+  long getLoadMillis() {
+    return loadMillis;
+  }
+
+  long getCacheFiles() {
+    return cacheFiles;
+  }
+
+  long getCacheBytes() {
+    return cacheBytes;
+  }
+
+  /**
+   * The share of the units taken from the cache rather than rebuilt
+   *
+   * @return The hit rate between 0 and 1, or -1 if no units were compiled
+   */
+  double getHitRate() {
+    return unitsTotal > 0 ? (double) unitsReused / unitsTotal : -1;
+  }
+
+  /**
+   * Writes the statistics to a file.
+   *
+   * @param file The file
+   * @throws IOException If the file cannot be written
+   */
+  void write(Path file) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(KEY_UNITS_LOADED, Long.toString(unitsLoaded));
+    properties.setProperty(KEY_UNITS_REUSED, Long.toString(unitsReused));
+    properties.setProperty(KEY_UNITS_TOTAL, Long.toString(unitsTotal));
+    properties.setProperty(KEY_LOAD_MILLIS, Long.toString(loadMillis));
+    properties.setProperty(KEY_CACHE_FILES, Long.toString(cacheFiles));
+    properties.setProperty(KEY_CACHE_BYTES, Long.toString(cacheBytes));
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    try (OutputStream out = Files.newOutputStream(file)) {
+      properties.store(out, "GWT unit cache statistics");
+    }
+  }
+
+  /**
+   * Reads the statistics written by {@link #write(Path)}.
+   *
+   * @param file The file
+   * @return The statistics
+   * @throws IOException If the file cannot be read
+   */
+  static GwtUnitCacheStats read(Path file) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    }
+    GwtUnitCacheStats stats = new GwtUnitCacheStats();
+    stats.unitsLoaded = Long.parseLong(properties.getProperty(KEY_UNITS_LOADED, "0"));
+    stats.unitsReused = Long.parseLong(properties.getProperty(KEY_UNITS_REUSED, "0"));
+    stats.unitsTotal = Long.parseLong(properties.getProperty(KEY_UNITS_TOTAL, "0"));
+    stats.loadMillis = Long.parseLong(properties.getProperty(KEY_LOAD_MILLIS, "0"));
+    stats.cacheFiles = Long.parseLong(properties.getProperty(KEY_CACHE_FILES, "0"));
+    stats.cacheBytes = Long.parseLong(properties.getProperty(KEY_CACHE_BYTES, "0"));
+    return stats;
+  }
+
+  /**
+   * Writes the statistics of a task as a JSON report.
+   *
+   * @param file     The report file
+   * @param taskPath The path of the task
+   * @throws IOException If the report cannot be written
+   */
+  void writeReport(Path file, String taskPath) throws IOException {
+    String json = "{\n"
+        + "  \"task\": \"" + taskPath.replace("\\", "\\\\").replace("\"", "\\\"") + "\",\n"
+        + "  \"unitsLoaded\": " + unitsLoaded + ",\n"
+        + "  \"unitsReused\": " + unitsReused + ",\n"
+        + "  \"unitsRebuilt\": " + getUnitsRebuilt() + ",\n"
+        + "  \"hitRate\": " + (unitsTotal > 0
+            ? String.format(Locale.ROOT, "%.4f", getHitRate()) : "null") + ",\n"
+        + "  \"cacheLoadMillis\": " + loadMillis + ",\n"
+        + "  \"cacheFiles\": " + cacheFiles + ",\n"
+        + "  \"cacheBytes\": " + cacheBytes + "\n"
+        + "}\n";
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    Files.writeString(file, json, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A one line summary for the build output.
+   *
+   * @return The summary
+   */
+  String summary() {
+    String units = unitsTotal > 0
+        ? String.format(Locale.ROOT, "%d of %d units reused (%.1f%%), %d rebuilt",
+            unitsReused, unitsTotal, getHitRate() * 100, getUnitsRebuilt())
+        : "no unit reuse reported";
+    return String.format(Locale.ROOT, "%s, %d units loaded in %dms, %d cache files of %dK",
+        units, unitsLoaded, loadMillis, cacheFiles, (cacheBytes + 1023) / 1024);
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Utility-Methods for computing the keys of caches and daemons.
+ */
+@UtilityClass
+public class HashUtils {
+
+  /**
+   * Computes the hex encoded SHA-256 digest of a string.
+   *
+   * @param value The string to hash
+   * @return The hex encoded digest
+   */
+  static String sha256(String value) {
+    return sha256(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Computes the hex encoded SHA-256 digest of a byte array.
+   *
+   * @param value The bytes to hash
+   * @return The hex encoded digest
+   */
+  static String sha256(byte[] value) {
+    return HexFormat.of().formatHex(newSha256().digest(value));
+  }
+
+  /**
+   * Computes the hex encoded SHA-256 digest of a file's content.
+   *
+   * @param file The file to hash
+   * @return The hex encoded digest
+   * @throws IOException If the file cannot be read
+   */
+  static String sha256(Path file) throws IOException {
+    MessageDigest digest = newSha256();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Creates a SHA-256 message digest.
+   *
+   * @return The message digest
+   */
+  static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
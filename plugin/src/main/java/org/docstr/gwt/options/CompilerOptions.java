@@ -136,4 +136,112 @@ public abstract class CompilerOptions extends AbstractBaseOptions {
    * @return The save source output
    */
   public abstract DirectoryProperty getSaveSourceOutput();
+
+  /**
+   * Runs the compiler in a reusable Gradle worker process instead of
+   * starting a fresh JVM for every compilation. The worker keeps gwt-dev
+   * loaded and JIT-compiled between builds of the same Gradle daemon.
+   * (defaults to OFF)
+   *
+   * @return The use workers flag
+   */
+  public abstract Property<Boolean> getUseWorkers();
+
+  /**
+   * Sends compilations to a long-lived compiler daemon, like the Kotlin
+   * compile daemon. The daemon survives between builds and keeps gwt-dev and
+   * the compilation units of the unit cache warm in memory, so repeated
+   * compilations mostly pay for optimizing and linking. (defaults to OFF)
+   *
+   * @return The use daemon flag
+   */
+  public abstract Property<Boolean> getUseDaemon();
+
+  /**
+   * The number of minutes after which an idle compiler daemon exits
+   * (defaults to 60)
+   *
+   * @return The idle timeout
+   */
+  public abstract Property<Integer> getDaemonIdleTimeout();
+
+  /**
+   * The heap usage, in percent of the maximum heap size, above which the
+   * compiler daemon exits after a compilation. The next compilation starts
+   * a fresh daemon. (defaults to 80)
+   *
+   * @return The memory ceiling
+   */
+  public abstract Property<Integer> getDaemonMemoryCeiling();
+
+  /**
+   * Splits the compilation into a precompile task, this many tasks compiling
+   * a share of the permutations each, and a link task. The shards are
+   * independent tasks, so Gradle runs them in parallel with
+   * <code>--parallel</code> and caches them separately. 0 compiles everything
+   * in the single gwtCompile task. (defaults to 0)
+   *
+   * @return The number of permutation shards
+   */
+  public abstract Property<Integer> getPermutationShards();
+
+  /**
+   * The directory compiled permutations of a split compilation are cached
+   * in, keyed by the precompiled AST and the permutation. Unchanged
+   * permutations are restored from it instead of compiled again. Pruned
+   * along with the unit caches by gwtUnitCachePrune. (defaults to
+   * caches/org.docstr.gwt/permutations in the Gradle user home)
+   *
+   * @return The permutation cache directory
+   */
+  public abstract DirectoryProperty getPermutationCacheDir();
+
+  /**
+   * Registers a gwtCompile&lt;Module&gt; task per module, each with its own
+   * subdirectory of the working, cache and other output directories, named
+   * after the module. The war directory stays shared, as GWT already writes
+   * each module to its own subdirectory of it. The tasks run concurrently
+   * with <code>--parallel</code>, and a change in one module does not
+   * invalidate the others. gwtCompile then depends on them and is skipped.
+   * Cannot be combined with permutation shards. (defaults to OFF)
+   *
+   * @return The compile per module flag
+   */
+  public abstract Property<Boolean> getCompilePerModule();
+
+  /**
+   * Chooses <code>-localWorkers</code> and the maximum heap size at execution
+   * time: the permutations are counted from the module graph, and as many
+   * workers are used as there are permutations and cores, as long as the
+   * compiler and its workers fit in 75% of the physical memory. Each worker is
+   * a JVM with the same maximum heap size as the compiler. Explicitly set
+   * values win. The choice is logged. (defaults to OFF)
+   *
+   * @return The auto size flag
+   */
+  public abstract Property<Boolean> getAutoSize();
+
+  /**
+   * Only reruns gwtCompile when the translatable sources change: the
+   * source, super-source and public paths of the modules and of the modules
+   * they inherit from the project, plus the library classpath. Changes to
+   * other classes of the project, e.g. servlets, no longer invalidate the
+   * compilation. Generators and linkers in the project sources are not
+   * tracked, so keep them in a separate project or library. (defaults to
+   * OFF)
+   *
+   * @return The compile avoidance flag
+   */
+  public abstract Property<Boolean> getCompileAvoidance();
+
+  /**
+   * Narrows the compiler classpath to the GWT jars, the classpath entries
+   * holding inherited library modules, and the source, resource and class
+   * directories holding files of the project modules' packages. Server-only
+   * jars and source roots are left out, which cuts the time the compiler
+   * spends scanning the classpath and its memory use. (defaults to OFF)
+   *
+   * @return The narrow classpath flag
+   */
+  public abstract Property<Boolean> getNarrowClasspath();
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt.options;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * Persistent unit cache options
+ */
+public abstract class UnitCacheOptions {
+
+  /**
+   * The size the persistent unit cache is pruned to, e.g. {@code 1G}. The
+   * least recently used cache files are evicted first.
+   *
+   * @return The maximum size
+   */
+  public abstract Property<String> getMaxSize();
+
+  /**
+   * The number of days after which an unused cache file is evicted
+   *
+   * @return The maximum age, in days
+   */
+  public abstract Property<Integer> getMaxAge();
+
+  /**
+   * Splits the persistent unit cache into namespaces per GWT version, source
+   * level and the compiler flags that change the cached compilation units,
+   * such as {@code -strict} and {@code -XclassMetadata}, and keeps this many
+   * of them. The least recently used namespace is deleted first. (defaults
+   * to OFF)
+   *
+   * @return The number of namespaces to keep
+   */
+  public abstract Property<Integer> getNamespaces();
+
+  /**
+   * The directory {@code gwtUnitCacheExport} writes unit cache snapshots to
+   * and {@code gwtUnitCacheImport} reads them from, e.g. a directory CI
+   * artifacts are downloaded into (defaults to
+   * {@code build/gwt/unitCache-snapshots})
+   *
+   * @return The snapshot directory
+   */
+  public abstract DirectoryProperty getSnapshotDir();
+
+  /**
+   * Seeds the persistent unit cache from the snapshot directory before
+   * every compilation, with {@code gwtUnitCacheImport} (defaults to OFF)
+   *
+   * @return The import snapshot flag
+   */
+  public abstract Property<Boolean> getImportSnapshot();
+
+  /**
+   * Records the units the compiler loads from the persistent unit cache,
+   * reuses and rebuilds, the time it takes to load the cache and its size,
+   * and reports them in the build output and in
+   * {@code build/reports/gwt/<task>-unitCache.json} (defaults to OFF)
+   *
+   * @return The statistics flag
+   */
+  public abstract Property<Boolean> getStats();
+
+  /**
+   * Prunes the persistent unit cache after every compilation, with
+   * {@code gwtUnitCachePrune} (defaults to OFF)
+   *
+   * @return The auto prune flag
+   */
+  public abstract Property<Boolean> getAutoPrune();
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArgumentFileUtilsTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void reusesFileForUnchangedOptions() throws IOException {
+    // Given
+    File first = ArgumentFileUtils.write(dir.toFile(), List.of("-cp", "a.jar:b.jar"));
+    long written = first.lastModified();
+
+    // When
+    File second = ArgumentFileUtils.write(dir.toFile(), List.of("-cp", "a.jar:b.jar"));
+    File changed = ArgumentFileUtils.write(dir.toFile(), List.of("-cp", "a.jar"));
+
+    // Then
+    assertThat(second).isEqualTo(first);
+    assertThat(second.lastModified()).isEqualTo(written);
+    assertThat(changed).isNotEqualTo(first);
+    try (var files = Files.list(dir)) {
+      assertThat(files).hasSize(2);
+    }
+  }
+
+  @Test
+  void quotesOptions() {
+    assertThat(ArgumentFileUtils.quote("C:\\libs\\my lib.jar"))
+        .isEqualTo("\"C:\\\\libs\\\\my lib.jar\"");
+    assertThat(ArgumentFileUtils.quote("say \"hi\"")).isEqualTo("\"say \\\"hi\\\"\"");
+  }
+}
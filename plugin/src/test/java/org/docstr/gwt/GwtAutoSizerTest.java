@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtAutoSizerTest {
+
+  @TempDir
+  File classpathDir;
+
+  @Test
+  void estimatePermutations() throws IOException {
+    // Given
+    writeModule("com/google/gwt/user/UserAgent",
+        "<define-property name=\"user.agent\" values=\"safari,gecko1_8\"/>");
+    writeModule("com/google/gwt/i18n/I18N",
+        "<define-property name=\"locale\" values=\"default\"/>");
+    writeModule("com/example/MyModule",
+        "<inherits name=\"com.google.gwt.user.UserAgent\"/>"
+            + "<inherits name=\"com.google.gwt.i18n.I18N\"/>"
+            + "<extend-property name=\"locale\" values=\"en,fr,de\"/>"
+            + "<set-property name=\"user.agent\" value=\"safari\">"
+            + "<when-property-is name=\"locale\" value=\"fr\"/></set-property>");
+    writeModule("com/example/Collapsed",
+        "<inherits name=\"com.example.MyModule\"/>"
+            + "<collapse-property name=\"locale\" values=\"en,fr\"/>");
+
+    Project project = ProjectBuilder.builder().build();
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(), List.of(classpathDir),
+        List.of("com.example.MyModule", "com.example.Collapsed"));
+
+    // When
+    int permutations = GwtAutoSizer.estimatePermutations(graph,
+        List.of("com.example.MyModule"), List.of());
+    int restricted = GwtAutoSizer.estimatePermutations(graph,
+        List.of("com.example.MyModule"), List.of("locale=en,fr"));
+    int collapsed = GwtAutoSizer.estimatePermutations(graph,
+        List.of("com.example.Collapsed"), List.of());
+
+    // Then
+    assertThat(permutations).isEqualTo(2 * 4);
+    assertThat(restricted).isEqualTo(2 * 2);
+    assertThat(collapsed).isEqualTo(2 * 3);
+  }
+
+  @Test
+  void size() {
+    // Limited by the permutations
+    assertThat(GwtAutoSizer.size(4, 32, 65536, 1024, 1024).localWorkers())
+        .isEqualTo(4);
+    // Limited by the cores
+    assertThat(GwtAutoSizer.size(24, 8, 65536, 1024, 1024).localWorkers())
+        .isEqualTo(8);
+    // Limited by the memory: (8192 * 75% - 1024) / 1024 - 1 = 4
+    GwtAutoSizer.Sizing sizing = GwtAutoSizer.size(24, 32, 8192, 1024, 1024);
+    assertThat(sizing.localWorkers()).isEqualTo(4);
+    assertThat(sizing.maxHeapMb()).isEqualTo(1024);
+    // Each worker inherits the heap, so a larger heap means fewer workers
+    assertThat(GwtAutoSizer.size(24, 32, 8192, 1024, 2048).localWorkers())
+        .isEqualTo(1);
+    // At least one worker, even if the heaps do not fit
+    assertThat(GwtAutoSizer.size(24, 32, 1024, 512, 1024).localWorkers())
+        .isEqualTo(1);
+  }
+
+  private void writeModule(String path, String content) throws IOException {
+    Path file = classpathDir.toPath().resolve(path + ".gwt.xml");
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "<module>" + content + "</module>");
+  }
+}
@@ -16,193 +16,292 @@
 package org.docstr.gwt;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.AssertionsForClassTypes.assertThatNoException;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.gradle.api.Project;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.jupiter.api.Test;
 
 class GwtCompileConfigTest extends AbstractGwtTest {
 
-
   @Test
-  void findAllModules() throws IOException {
+  void resolveModuleGraph_findsAllProjectModules() throws IOException {
     // Given
     setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
     Project project = setupProject();
-    String moduleName = "com.example.MyModule";
 
     // When
-    GwtPluginExtension extension = project.getExtensions()
-            .getByType(GwtPluginExtension.class);
-    GwtCompileConfig config = new GwtCompileConfig(extension);
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of());
+
+    // Then
+    assertThat(graph.getModuleNames()).contains("com.example.MyModule",
+        "com.example.MyModule2", "com.example.MyModule3");
+    assertThat(graph.isProjectModule("com.example.MyModule")).isTrue();
+    assertThat(graph.getLocation("com.example.MyModule"))
+        .isEqualTo(javaDir.resolve("com/example/MyModule.gwt.xml").toFile());
+  }
+
+  @Test
+  void resolveModuleGraph_readsEntryPoint() throws IOException {
+    // Given
+    setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Project project = setupProject();
 
-    var modules = config.findAllModules(project);
+    // When
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.MyModule"));
 
     // Then
-    assertThat(modules)
-            .isNotNull()
-            .isNotEmpty()
-            .anySatisfy(it -> {
-              assertThat(it.name()).isEqualTo(moduleName);
-            })
-            .allSatisfy(it -> {
-              assertThatNoException().isThrownBy(it::sourceDirectorySetRootPath);
-            });
+    assertThat(graph.getSourceFiles()).containsExactlyInAnyOrder(
+        javaDir.resolve("com/example/MyModule.gwt.xml").toFile(),
+        javaDir.resolve("com/example/client/MyEntryPoint.java").toFile());
   }
 
   @Test
-  void findModuleFile() throws IOException {
+  void resolveModuleGraph_readsSourceNodes() throws IOException {
     // Given
     setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
     Project project = setupProject();
-    String moduleName = "com.example.MyModule";
 
     // When
-    GwtPluginExtension extension = project.getExtensions()
-        .getByType(GwtPluginExtension.class);
-    GwtCompileConfig config = new GwtCompileConfig(extension);
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.MyModule2"));
+
+    // Then
+    assertThat(graph.getSourceFiles()).containsExactlyInAnyOrder(
+        javaDir.resolve("com/example/MyModule2.gwt.xml").toFile(),
+        javaDir.resolve("com/example/client/MyEntryPoint.java").toFile(),
+        javaDir.resolve("com/example/shared/Common.java").toFile());
+  }
+
+  @Test
+  void resolveModuleGraph_readsPublicNodes() throws IOException {
+    // Given
+    setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Project project = setupProject();
 
-    var modules = config.findAllModules(project);
-    var module = modules.stream().filter(m -> moduleName.equals(m.name())).findFirst().orElse(null);
+    // When
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.MyModule3"));
 
     // Then
-    assertThat(module)
-            .isNotNull()
-            .satisfies(m -> {
-              assertThat(m.name()).isEqualTo(moduleName);
-              assertThatNoException().isThrownBy(m::sourceDirectorySetRootPath);
-            });
+    assertThat(graph.getSourceFiles()).containsExactlyInAnyOrder(
+        javaDir.resolve("com/example/MyModule3.gwt.xml").toFile(),
+        javaDir.resolve("com/example/client/MyEntryPoint.java").toFile(),
+        javaDir.resolve("com/example/shared/Common.java").toFile(),
+        javaDir.resolve("com/example/pub/test.txt").toFile());
   }
 
   @Test
-  void extractSourcePaths_fromEntryPoint() throws IOException {
+  void resolveModuleGraph_ignoresDoctypeWithoutNetworkAccess() throws IOException {
     // Given
     setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Path moduleFile = javaDir.resolve("com/example/Offline.gwt.xml");
+    Files.writeString(moduleFile, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!DOCTYPE module PUBLIC \"-//Google Inc.//DTD Google Web Toolkit 2.12.1//EN\""
+        + " \"http://unreachable.invalid/doctype/2.12.1/gwt-module.dtd\">\n"
+        + "<module><source path=\"shared\"/></module>");
     Project project = setupProject();
-    String moduleName = "com.example.MyModule";
 
     // When
-    GwtPluginExtension extension = project.getExtensions()
-        .getByType(GwtPluginExtension.class);
-    GwtCompileConfig config = new GwtCompileConfig(extension);
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.Offline"));
 
-    var modules = config.findAllModules(project);
-    var module = modules.stream().filter(m -> moduleName.equals(m.name())).findFirst().orElse(null);
-    TreeSet<Path> sourcePaths = config.extractSourcePaths(module);
+    // Then
+    assertThat(graph.getSourceFiles())
+        .contains(javaDir.resolve("com/example/shared/Common.java").toFile());
+  }
+
+  @Test
+  void resolveModuleGraph_followsProjectInherits() throws IOException {
+    // Given
+    setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Files.createDirectories(javaDir.resolve("com/example/lib/client"));
+    Files.createDirectories(javaDir.resolve("com/example/lib/jre"));
+    Files.writeString(javaDir.resolve("com/example/lib/client/Lib.java"), "");
+    Files.writeString(javaDir.resolve("com/example/lib/jre/Emulated.java"), "");
+    Files.writeString(javaDir.resolve("com/example/lib/Lib.gwt.xml"),
+        "<module><source path=\"client\"/><super-source path=\"jre\"/></module>");
+    Files.writeString(javaDir.resolve("com/example/App.gwt.xml"),
+        "<module><inherits name=\"com.google.gwt.user.User\"/>"
+            + "<inherits name=\"com.example.lib.Lib\"/>"
+            + "<source path=\"shared\"/></module>");
+    Project project = setupProject();
+
+    // When
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.App"));
 
     // Then
-    assertThat(sourcePaths)
-            .isNotEmpty()
-            .hasSize(2)
-            .allSatisfy(f -> {
-              assertThat(f).exists();
-            });
-
-    assertThat(sourcePaths.first())
-            .isRegularFile()
-            .isEqualTo(module.path());
-    assertThat(sourcePaths.last())
-            .isDirectory()
-            .satisfies(p -> {
-              assertThat(p.getFileName().toString()).isEqualTo("client");
-            });
+    assertThat(graph.getSourceFiles()).contains(
+        javaDir.resolve("com/example/App.gwt.xml").toFile(),
+        javaDir.resolve("com/example/shared/Common.java").toFile(),
+        javaDir.resolve("com/example/lib/Lib.gwt.xml").toFile(),
+        javaDir.resolve("com/example/lib/client/Lib.java").toFile(),
+        javaDir.resolve("com/example/lib/jre/Emulated.java").toFile());
+    assertThat(graph.getSourceFiles())
+        .doesNotContain(javaDir.resolve("com/example/client/MyEntryPoint.java").toFile());
   }
 
   @Test
-  void extractSourcePaths_fromSourceNodes() throws IOException {
+  void resolveModuleGraph_followsInheritsIntoJars() throws IOException {
     // Given
     setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Files.createDirectories(javaDir.resolve("com/example/lib/client"));
+    Files.writeString(javaDir.resolve("com/example/lib/client/Lib.java"), "");
+    Files.writeString(javaDir.resolve("com/example/lib/Lib.gwt.xml"),
+        "<module><source path=\"client\"/></module>");
+    Files.writeString(javaDir.resolve("com/example/App.gwt.xml"),
+        "<module><inherits name=\"com.acme.Widgets\"/>"
+            + "<inherits name=\"com.example.lib.Lib\"/>"
+            + "<source path=\"shared\"/></module>");
+    File jar = new File(projectDir, "libs/acme.jar");
+    Files.createDirectories(jar.getParentFile().toPath());
+    try (var out = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+      out.putNextEntry(new ZipEntry("com/acme/Widgets.gwt.xml"));
+      out.write("<module><inherits name=\"com.acme.Core\"/></module>".getBytes());
+      out.putNextEntry(new ZipEntry("com/acme/Core.gwt.xml"));
+      out.write("<module/>".getBytes());
+    }
     Project project = setupProject();
-    String moduleName = "com.example.MyModule2";
 
     // When
-    GwtPluginExtension extension = project.getExtensions()
-        .getByType(GwtPluginExtension.class);
-    GwtCompileConfig config = new GwtCompileConfig(extension);
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(jar), List.of("com.example.App"));
+
+    // Then
+    assertThat(graph.getModuleNames()).containsExactly(
+        "com.example.App", "com.acme.Widgets", "com.example.lib.Lib", "com.acme.Core");
+    assertThat(graph.getLocation("com.acme.Core")).isEqualTo(jar);
+    assertThat(graph.isProjectModule("com.example.lib.Lib")).isTrue();
+    assertThat(graph.isProjectModule("com.acme.Widgets")).isFalse();
+    assertThat(graph.getSourceFiles()).contains(
+        javaDir.resolve("com/example/App.gwt.xml").toFile(),
+        javaDir.resolve("com/example/lib/client/Lib.java").toFile());
+  }
 
-    var modules = config.findAllModules(project);
-    var module = modules.stream().filter(m -> moduleName.equals(m.name())).findFirst().orElse(null);
-    TreeSet<Path> sourcePaths = config.extractSourcePaths(module);
+  @Test
+  void resolveModuleGraph_honorsPathPatterns() throws IOException {
+    // Given
+    setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Path clientDir = javaDir.resolve("com/example/app/client");
+    Files.createDirectories(clientDir.resolve("server"));
+    Files.createDirectories(clientDir.resolve(".svn"));
+    for (String file : List.of("App.java", "AppTest.java", "App.ui.xml",
+        "server/Servlet.java", ".svn/entries")) {
+      Files.writeString(clientDir.resolve(file), "");
+    }
+    Files.createDirectories(javaDir.resolve("com/example/app/public"));
+    Files.writeString(javaDir.resolve("com/example/app/public/app.css"), "");
+    Files.writeString(javaDir.resolve("com/example/app/public/notes.txt"), "");
+    Files.writeString(javaDir.resolve("com/example/app/App.gwt.xml"),
+        "<module><source path=\"client\" excludes=\"**/*Test.java\">"
+            + "<skip name=\"server/**\"/></source>"
+            + "<public path=\"public\" includes=\"**/*.css\"/></module>");
+    Project project = setupProject();
+
+    // When
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.app.App"));
 
     // Then
-    assertThat(sourcePaths)
-            .isNotEmpty()
-            .hasSize(3)
-            .allSatisfy(f -> {
-              assertThat(f).exists();
-            });
-
-    List<Path> pathList = sourcePaths.stream().toList();
-    assertThat(sourcePaths.first())
-            .isRegularFile()
-            .isEqualTo(pathList.get(0))
-            .isEqualTo(module.path());
-    assertThat(pathList.get(1))
-            .isDirectory()
-            .satisfies(p -> {
-              assertThat(p.getFileName().toString()).isEqualTo("client");
-            });
-    assertThat(sourcePaths.last())
-            .isDirectory()
-            .isEqualTo(pathList.get(pathList.size()-1))
-            .satisfies(p -> {
-              assertThat(p.getFileName().toString()).isEqualTo("shared");
-            });
+    assertThat(graph.getSourceFiles()).containsExactlyInAnyOrder(
+        javaDir.resolve("com/example/app/App.gwt.xml").toFile(),
+        clientDir.resolve("App.java").toFile(),
+        clientDir.resolve("App.ui.xml").toFile(),
+        javaDir.resolve("com/example/app/public/app.css").toFile());
   }
 
   @Test
-  void extractSourcePaths_fromPublicNodes() throws IOException {
+  void sourceTrees_onlyWalkDirectoriesHoldingModuleSources() throws IOException {
     // Given
     setupSampleProject();
-      Project project = setupProject();
-    String moduleName = "com.example.MyModule3";
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Path appDir = javaDir.resolve("com/example/app");
+    for (String file : List.of("client/App.java", "client/.svn/entries",
+        "server/Servlet.java", "server/deep/Dao.java", "public/app.css", "public/skipped/notes.css")) {
+      Files.createDirectories(appDir.resolve(file).getParent());
+      Files.writeString(appDir.resolve(file), "");
+    }
+    Files.writeString(appDir.resolve("App.gwt.xml"),
+        "<module><source path=\"client\"/>"
+            + "<public path=\"public\"><skip name=\"skipped/\"/></public></module>");
+    Project project = setupProject();
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), List.of(), List.of("com.example.app.App"));
+    List<String> visited = new ArrayList<>();
 
     // When
-    GwtPluginExtension extension = project.getExtensions()
-        .getByType(GwtPluginExtension.class);
-    GwtCompileConfig config = new GwtCompileConfig(extension);
+    graph.sourceTrees(project.getObjects()).getAsFileTree()
+        .visit(details -> visited.add(details.getFile().toPath().toString()));
+
+    // Then
+    assertThat(visited).containsExactlyInAnyOrder(
+        appDir.resolve("App.gwt.xml").toString(),
+        appDir.resolve("client/App.java").toString(),
+        appDir.resolve("public/app.css").toString());
+    assertThat(graph.getSourceFiles()).containsExactlyInAnyOrder(
+        appDir.resolve("App.gwt.xml").toFile(),
+        appDir.resolve("client/App.java").toFile(),
+        appDir.resolve("public/app.css").toFile());
+  }
 
-    var modules = config.findAllModules(project);
-    var module = modules.stream().filter(m -> moduleName.equals(m.name())).findFirst().orElse(null);
-    TreeSet<Path> sourcePaths = config.extractSourcePaths(module);
+  @Test
+  void narrowClasspath_keepsModuleEntriesOnly() throws IOException {
+    // Given
+    setupSampleProject();
+    Path javaDir = projectDir.toPath().resolve("src/main/java");
+    Path resourcesDir = projectDir.toPath().resolve("src/main/resources");
+    Path otherDir = projectDir.toPath().resolve("src/other/java");
+    Files.createDirectories(javaDir.resolve("com/example/client"));
+    Files.createDirectories(resourcesDir.resolve("com/example/client"));
+    Files.createDirectories(otherDir.resolve("com/example/server"));
+    Files.writeString(javaDir.resolve("com/example/App.gwt.xml"),
+        "<module><inherits name=\"com.acme.Widgets\"/>"
+            + "<source path=\"client\"/></module>");
+    File libs = new File(projectDir, "libs");
+    Files.createDirectories(libs.toPath());
+    File widgetsJar = new File(libs, "acme.jar");
+    try (var out = new ZipOutputStream(Files.newOutputStream(widgetsJar.toPath()))) {
+      out.putNextEntry(new ZipEntry("com/acme/Widgets.gwt.xml"));
+      out.write("<module/>".getBytes());
+    }
+    File serverJar = new File(libs, "server.jar");
+    try (var out = new ZipOutputStream(Files.newOutputStream(serverJar.toPath()))) {
+      out.putNextEntry(new ZipEntry("com/acme/server/Servlet.class"));
+    }
+    File gwtJar = new File(libs, "gwt-dev.jar");
+    try (var out = new ZipOutputStream(Files.newOutputStream(gwtJar.toPath()))) {
+      out.putNextEntry(new ZipEntry("com/google/gwt/dev/Compiler.class"));
+    }
+    List<File> classpath = List.of(javaDir.toFile(), resourcesDir.toFile(),
+        otherDir.toFile(), serverJar, widgetsJar, gwtJar);
+    Project project = setupProject();
+
+    // When
+    GwtModuleGraph graph = GwtModuleGraphService.register(project).get().resolve(
+        List.of(javaDir.toFile()), classpath, List.of("com.example.App"));
+    List<File> narrowed = graph.narrowClasspath(classpath, Set.of(gwtJar));
 
     // Then
-    assertThat(sourcePaths)
-            .isNotEmpty()
-            .hasSize(4)
-            .allSatisfy(f -> {
-              assertThat(f).exists();
-            });
-
-    List<Path> pathList = sourcePaths.stream().toList();
-    assertThat(sourcePaths.first())
-            .isRegularFile()
-            .isEqualTo(pathList.get(0))
-            .isEqualTo(module.path());
-    assertThat(pathList.get(1))
-            .isDirectory()
-            .satisfies(p -> {
-              assertThat(p.getFileName().toString()).isEqualTo("client");
-            });
-    assertThat(pathList.get(2))
-            .isDirectory()
-            .satisfies(p -> {
-              assertThat(p.getFileName().toString()).isEqualTo("pub");
-            });
-    assertThat(sourcePaths.last())
-            .isDirectory()
-            .isEqualTo(pathList.get(pathList.size()-1))
-            .satisfies(p -> {
-              assertThat(p.getFileName().toString()).isEqualTo("shared");
-            });
+    assertThat(narrowed).containsExactly(javaDir.toFile(), resourcesDir.toFile(),
+        widgetsJar, gwtJar);
   }
 }
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.docstr.gwt.GwtCompilePermsTask.PERM_COUNT_FILENAME;
+import static org.docstr.gwt.GwtCompilePermsTask.PRECOMPILATION_FILENAME;
+import static org.docstr.gwt.GwtCompilePermsTask.permutationKey;
+import static org.docstr.gwt.GwtCompilePermsTask.permutationsOfShard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtCompilePermsTaskTest {
+
+  private static final String MODULE = "com.example.App";
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void permutationsOfShard_assignsPermutationsRoundRobin() {
+    assertThat(permutationsOfShard(7, 0, 3)).containsExactly(0, 3, 6);
+    assertThat(permutationsOfShard(7, 1, 3)).containsExactly(1, 4);
+    assertThat(permutationsOfShard(7, 2, 3)).containsExactly(2, 5);
+    assertThat(permutationsOfShard(2, 2, 3)).isEmpty();
+    assertThat(permutationsOfShard(3, 0, 1)).containsExactly(0, 1, 2);
+  }
+
+  @Test
+  void permutationKey_identifiesAstModuleAndPermutation() {
+    String key = permutationKey("ast", MODULE, 1);
+
+    assertThat(key).isEqualTo(permutationKey("ast", MODULE, 1)).hasSize(64);
+    assertThat(Set.of(key,
+        permutationKey("other-ast", MODULE, 1),
+        permutationKey("ast", "com.example.Admin", 1),
+        permutationKey("ast", MODULE, 2))).hasSize(4);
+  }
+
+  @Test
+  void exec_restoresStoredPermutationsAndCompilesTheMisses() throws IOException {
+    // Given
+    Path compilerDir = precompile(6);
+    String astHash = HashUtils.sha256(compilerDir.resolve(PRECOMPILATION_FILENAME));
+    Path store = dir.resolve("permutations");
+    seed(store, permutationKey(astHash, MODULE, 1), "stored-1");
+    seed(store, permutationKey(astHash, MODULE, 5), "stored-5");
+    // Of another shard, so never restored by this one
+    seed(store, permutationKey(astHash, MODULE, 2), "stored-2");
+    // Of another precompilation
+    seed(store, permutationKey("other-ast", MODULE, 3), "stale-3");
+    RecordingPermsTask task = permsTask(1, 2);
+    task.getPermutationCacheDir().set(store.toFile());
+
+    // When
+    task.exec();
+
+    // Then
+    assertThat(task.compiled).containsExactly(List.of("-perms", "3", MODULE));
+    Path outputDir = dir.resolve("perms/" + MODULE + "/compiler");
+    assertThat(outputDir.resolve("permutation-1.js")).hasContent("stored-1");
+    assertThat(outputDir.resolve("permutation-3.js")).hasContent("compiled-3");
+    assertThat(outputDir.resolve("permutation-5.js")).hasContent("stored-5");
+    assertThat(outputDir.resolve("permutation-2.js")).doesNotExist();
+    assertThat(outputDir.resolve(PRECOMPILATION_FILENAME)).doesNotExist();
+    assertThat(entry(store, permutationKey(astHash, MODULE, 3))).hasContent("compiled-3");
+  }
+
+  @Test
+  void exec_compilesNothingWhenAllPermutationsAreStored() throws IOException {
+    // Given
+    Path compilerDir = precompile(4);
+    String astHash = HashUtils.sha256(compilerDir.resolve(PRECOMPILATION_FILENAME));
+    Path store = dir.resolve("permutations");
+    seed(store, permutationKey(astHash, MODULE, 0), "stored-0");
+    seed(store, permutationKey(astHash, MODULE, 2), "stored-2");
+    RecordingPermsTask task = permsTask(0, 2);
+    task.getPermutationCacheDir().set(store.toFile());
+
+    // When
+    task.exec();
+
+    // Then
+    assertThat(task.compiled).isEmpty();
+    Path outputDir = dir.resolve("perms/" + MODULE + "/compiler");
+    assertThat(outputDir.resolve("permutation-0.js")).hasContent("stored-0");
+    assertThat(outputDir.resolve("permutation-2.js")).hasContent("stored-2");
+  }
+
+  @Test
+  void exec_compilesTheWholeShardWithoutAPermutationCache() throws IOException {
+    // Given
+    precompile(6);
+    RecordingPermsTask task = permsTask(1, 2);
+
+    // When
+    task.exec();
+
+    // Then
+    assertThat(task.compiled).containsExactly(List.of("-perms", "1,3,5", MODULE));
+    Path outputDir = dir.resolve("perms/" + MODULE + "/compiler");
+    try (var files = Files.list(outputDir)) {
+      assertThat(files.map(file -> file.getFileName().toString()))
+          .containsExactlyInAnyOrder("permutation-1.js", "permutation-3.js",
+              "permutation-5.js");
+    }
+  }
+
+  /**
+   * Writes the precompile directory of {@link #MODULE}, as
+   * {@link GwtPrecompileTask} leaves it.
+   */
+  private Path precompile(int permutationCount) throws IOException {
+    Path compilerDir = dir.resolve("precompile/" + MODULE + "/compiler");
+    Files.createDirectories(compilerDir);
+    Files.writeString(compilerDir.resolve(PERM_COUNT_FILENAME), permutationCount + "\n");
+    Files.writeString(compilerDir.resolve(PRECOMPILATION_FILENAME), "ast");
+    return compilerDir;
+  }
+
+  private RecordingPermsTask permsTask(int shard, int shardCount) {
+    Project project = ProjectBuilder.builder().withProjectDir(dir.toFile()).build();
+    return project.getTasks().register("gwtCompilePerms" + shard, RecordingPermsTask.class,
+        task -> {
+          task.getPrecompileDir().set(dir.resolve("precompile").toFile());
+          task.getWorkDir().set(dir.resolve("perms").toFile());
+          task.getShard().set(shard);
+          task.getShardCount().set(shardCount);
+        }).get();
+  }
+
+  private static Path entry(Path store, String key) {
+    return store.resolve(key.substring(0, 2)).resolve(key + ".js");
+  }
+
+  private static void seed(Path store, String key, String content) throws IOException {
+    Path entry = entry(store, key);
+    Files.createDirectories(entry.getParent());
+    Files.writeString(entry, content);
+  }
+
+  /**
+   * Records the compiler runs instead of forking a JVM, and writes the
+   * permutations passed with {@code -perms} like {@code CompilePerms} does.
+   */
+  public abstract static class RecordingPermsTask extends GwtCompilePermsTask {
+
+    final List<List<String>> compiled = new ArrayList<>();
+
+    @Override
+    void compilePermutations(List<String> args) {
+      compiled.add(args);
+      String module = args.get(args.size() - 1);
+      Path compilerDir = getWorkDir().get().getAsFile().toPath()
+          .resolve(module).resolve("compiler");
+      for (String perm : args.get(args.indexOf("-perms") + 1).split(",")) {
+        try {
+          Files.writeString(compilerDir.resolve("permutation-" + perm + ".js"),
+              "compiled-" + perm);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.docstr.gwt.GwtCompilerDaemon.COMMAND_COMPILE;
+import static org.docstr.gwt.GwtCompilerDaemon.COMMAND_STOP;
+import static org.docstr.gwt.GwtCompilerDaemon.KEY_CONFIG;
+import static org.docstr.gwt.GwtCompilerDaemon.KEY_PORT;
+import static org.docstr.gwt.GwtCompilerDaemon.KEY_TOKEN;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtCompilerDaemonTest {
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  @TempDir
+  Path dir;
+
+  private final List<String> output = new CopyOnWriteArrayList<>();
+
+  private final List<List<String>> compiled = new CopyOnWriteArrayList<>();
+
+  // Records the compiler output and the messages of the client
+  private final Logger logger = (Logger) Proxy.newProxyInstance(
+      Logger.class.getClassLoader(), new Class<?>[] {Logger.class},
+      (proxy, method, args) -> {
+        if (method.getName().equals("lifecycle") && args.length == 1) {
+          output.add((String) args[0]);
+        }
+        return method.getReturnType() == boolean.class ? false : null;
+      });
+
+  @Test
+  void compilesInTheRunningDaemon() throws Exception {
+    // Given
+    Path registryFile = dir.resolve("daemon.properties");
+    Thread daemon = startInProcess(registryFile, "config");
+    GwtCompilerDaemonClient client = new GwtCompilerDaemonClient(registryFile,
+        dir.toFile(), logger);
+
+    // When
+    boolean success = client.compile(List.of("not-launched"), Map.of(), "config", 1, 100,
+        List.of("com.example.App"));
+    boolean failure = client.compile(List.of("not-launched"), Map.of(), "config", 1, 100,
+        List.of(StubDaemon.FAIL, "com.example.App"));
+
+    // Then
+    assertThat(success).isTrue();
+    assertThat(failure).isFalse();
+    assertThat(compiled).containsExactly(List.of("com.example.App"),
+        List.of(StubDaemon.FAIL, "com.example.App"));
+    long pid = ProcessHandle.current().pid();
+    assertThat(output).containsExactly(
+        "Compiling com.example.App in " + pid,
+        "Compiling " + StubDaemon.FAIL + " com.example.App in " + pid);
+
+    stop(registryFile);
+    daemon.join(TIMEOUT_MILLIS);
+    assertThat(daemon.isAlive()).isFalse();
+    assertThat(registryFile).doesNotExist();
+  }
+
+  @Test
+  void rejectsRequestsWithAnotherToken() throws Exception {
+    // Given
+    Path registryFile = dir.resolve("daemon.properties");
+    Thread daemon = startInProcess(registryFile, "config");
+    Properties registration = registration(registryFile);
+
+    // When
+    int stopReply = send(registration, "wrong-token", COMMAND_STOP);
+    int compileReply = send(registration, "wrong-token", COMMAND_COMPILE);
+
+    // Then
+    assertThat(stopReply).isEqualTo(-1);
+    assertThat(compileReply).isEqualTo(-1);
+    assertThat(compiled).isEmpty();
+    assertThat(daemon.isAlive()).isTrue();
+    GwtCompilerDaemonClient client = new GwtCompilerDaemonClient(registryFile,
+        dir.toFile(), logger);
+    assertThat(client.compile(List.of("not-launched"), Map.of(), "config", 1, 100,
+        List.of("com.example.App"))).isTrue();
+
+    stop(registryFile);
+    daemon.join(TIMEOUT_MILLIS);
+    assertThat(daemon.isAlive()).isFalse();
+  }
+
+  @Test
+  void restartsTheDaemonWhenTheConfigurationChanges() throws Exception {
+    // Given
+    Path registryFile = dir.resolve("daemon.properties");
+    Thread oldDaemon = startInProcess(registryFile, "old");
+    GwtCompilerDaemonClient client = new GwtCompilerDaemonClient(registryFile,
+        dir.toFile(), logger);
+    List<String> launchCommand = List.of(GwtAppCdsTask.javaExecutable(null),
+        "-cp", location(GwtCompilerDaemon.class) + File.pathSeparator
+            + location(StubDaemon.class),
+        StubDaemon.class.getName());
+
+    // When
+    boolean success;
+    try {
+      success = client.compile(launchCommand, System.getenv(), "new", 1, 100,
+          List.of("com.example.App"));
+    } finally {
+      oldDaemon.join(TIMEOUT_MILLIS);
+    }
+
+    // Then
+    try {
+      assertThat(oldDaemon.isAlive()).isFalse();
+      assertThat(success).isTrue();
+      assertThat(compiled).isEmpty();
+      assertThat(registration(registryFile).getProperty(KEY_CONFIG)).isEqualTo("new");
+      assertThat(output).first()
+          .isEqualTo("GWT compiler daemon configuration changed, restarting it");
+      assertThat(output).last().asString()
+          .startsWith("Compiling com.example.App in ")
+          .doesNotEndWith(" " + ProcessHandle.current().pid());
+    } finally {
+      stop(registryFile);
+    }
+  }
+
+  /**
+   * Runs a daemon in this JVM with the stub compilation, recording the
+   * compile requests, and waits until it is registered.
+   */
+  private Thread startInProcess(Path registryFile, String config)
+      throws InterruptedException {
+    GwtCompilerDaemon daemon = new GwtCompilerDaemon(registryFile, config,
+        TIMEOUT_MILLIS, 100, (args, out) -> {
+          compiled.add(args);
+          return StubDaemon.compile(args, out);
+        });
+    Thread thread = new Thread(() -> {
+      try {
+        daemon.run();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, "gwt-daemon-" + config);
+    thread.start();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!Files.isRegularFile(registryFile) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return thread;
+  }
+
+  private static Properties registration(Path registryFile) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream stream = Files.newInputStream(registryFile)) {
+      properties.load(stream);
+    }
+    return properties;
+  }
+
+  /**
+   * Sends a command with no arguments and returns the first byte of the
+   * reply, or {@code -1} if the daemon closed the connection.
+   */
+  private static int send(Properties registration, String token, String command)
+      throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+        Integer.parseInt(registration.getProperty(KEY_PORT)))) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeUTF(token);
+      out.writeUTF(command);
+      out.writeInt(0);
+      out.flush();
+      return socket.getInputStream().read();
+    } catch (SocketException e) {
+      // The daemon closed the connection without reading the whole request
+      return -1;
+    }
+  }
+
+  private static void stop(Path registryFile) throws IOException {
+    if (Files.isRegularFile(registryFile)) {
+      Properties registration = registration(registryFile);
+      send(registration, registration.getProperty(KEY_TOKEN), COMMAND_STOP);
+    }
+  }
+
+  private static String location(Class<?> type) throws URISyntaxException {
+    return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI())
+        .getAbsolutePath();
+  }
+
+  /**
+   * A daemon with a compilation that only reports the arguments and the
+   * process it runs in. Only depends on the JDK and the daemon, so that it
+   * runs in a JVM of its own.
+   */
+  public static final class StubDaemon {
+
+    static final String FAIL = "-fail";
+
+    private StubDaemon() {
+    }
+
+    static boolean compile(List<String> args, PrintWriter out) {
+      out.println("Compiling " + String.join(" ", args) + " in "
+          + ProcessHandle.current().pid());
+      return !args.contains(FAIL);
+    }
+
+    /**
+     * Starts the daemon with the arguments the client passes.
+     *
+     * @param args The registry file, the configuration key, the idle timeout
+     *             in minutes and the memory ceiling in percent
+     * @throws IOException If the daemon cannot listen or register itself
+     */
+    public static void main(String[] args) throws IOException {
+      new GwtCompilerDaemon(Path.of(args[0]), args[1],
+          TimeUnit.MINUTES.toMillis(Long.parseLong(args[2])),
+          Integer.parseInt(args[3]), StubDaemon::compile).run();
+      System.exit(0);
+    }
+  }
+}
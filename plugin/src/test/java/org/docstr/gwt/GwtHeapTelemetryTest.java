@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.docstr.gwt.GwtHeapTelemetry.Usage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtHeapTelemetryTest {
+
+  @TempDir
+  File dir;
+
+  @Test
+  void parseGcLog() {
+    // When
+    Usage usage = GwtHeapTelemetry.parse(Stream.of(
+        "[0.012s] Using G1",
+        "[1.500s] GC(0) Pause Young (Normal) (G1 Evacuation Pause) 120M->40M(256M) 10.500ms",
+        "[2.000s] GC(1) Pause Young (Normal) (G1 Evacuation Pause) 200M->150M(256M) 20.000ms",
+        "[2.100s] GC(2) Concurrent Mark Cycle 45.000ms",
+        "[3.000s] GC(3) Pause Full (G1 Compaction Pause) 250M->90M(512M) 100.000ms",
+        "[10.000s] GC(4) Pause Young (Normal) (G1 Evacuation Pause) 307200K->102400K(1G) 5.000ms"));
+
+    // Then
+    assertThat(usage).isEqualTo(new Usage(300, 90, 1024, 136, 10_000));
+  }
+
+  @Test
+  void recommendHeapWithHeadroom() {
+    // Twice the heap left after GC
+    assertThat(new Usage(900, 300, 1024, 100, 60_000).recommendedHeapMb())
+        .isEqualTo(640);
+    // More headroom when much of the run is spent in GC
+    assertThat(new Usage(1000, 300, 1024, 12_000, 60_000).recommendedHeapMb())
+        .isEqualTo(960);
+    // Never below the minimum
+    assertThat(new Usage(50, 20, 256, 10, 1_000).recommendedHeapMb())
+        .isEqualTo(GwtHeapTelemetry.MIN_HEAP_MB);
+  }
+
+  @Test
+  void recordMergesLogsOfAllJvms() throws IOException {
+    // Given
+    File gcLogDir = new File(dir, "gc");
+    File telemetryFile = new File(dir, "heap/test.properties");
+    GwtHeapTelemetry telemetry = new GwtHeapTelemetry(gcLogDir, telemetryFile);
+    assertThat(telemetry.jvmArgs()).hasSize(1);
+    Files.writeString(new File(gcLogDir, "gc-1.log").toPath(),
+        "[4.000s] GC(0) Pause Full (Allocation Failure) 500M->200M(1024M) 50.000ms\n");
+    Files.writeString(new File(gcLogDir, "gc-2.log").toPath(),
+        "[8.000s] GC(0) Pause Young (Allocation Failure) 300M->100M(512M) 20.000ms\n");
+
+    // When
+    Optional<Usage> recorded = telemetry.record();
+
+    // Then
+    assertThat(recorded).contains(new Usage(500, 200, 1024, 50, 8_000));
+    assertThat(telemetry.read()).isEqualTo(recorded);
+    assertThat(gcLogDir.listFiles()).isEmpty();
+    assertThat(telemetry.record()).isEmpty();
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.docstr.gwt.GwtModuleScanner.Descriptor;
+import org.docstr.gwt.GwtModuleScanner.PathElement;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtModuleDescriptorCacheTest {
+
+  private static final byte[] MODULE = ("<module><inherits name=\"com.example.Lib\"/>"
+      + "<define-property name=\"locale\" values=\"default\"/>"
+      + "<extend-property name=\"locale\" values=\"en,fr\"/>"
+      + "<collapse-property name=\"locale\" values=\"en,fr\"/>"
+      + "<set-property name=\"user.agent\" value=\"gecko1_8\"/>"
+      + "<source path=\"client\"/></module>").getBytes(StandardCharsets.UTF_8);
+
+  @TempDir
+  Path cacheDir;
+
+  private final AtomicInteger parses = new AtomicInteger();
+
+  @Test
+  void reusesDescriptorsAcrossBuilds() {
+    // Given
+    Path cacheFile = cacheDir.resolve("gwt/module-descriptors.bin");
+    GwtModuleDescriptorCache firstBuild = new GwtModuleDescriptorCache(cacheFile);
+    Descriptor parsed = firstBuild.get(MODULE, this::parse);
+    firstBuild.save();
+
+    // When
+    Descriptor cached = new GwtModuleDescriptorCache(cacheFile).get(MODULE, this::parse);
+
+    // Then
+    assertThat(parses).hasValue(1);
+    assertThat(cached).isEqualTo(parsed);
+    assertThat(cached.inherits()).containsExactly("com.example.Lib");
+    assertThat(cached.properties()).containsExactly("user.agent=gecko1_8");
+    assertThat(cached.definedProperties()).containsExactly("locale=default");
+    assertThat(cached.extendedProperties()).containsExactly("locale=en,fr");
+    assertThat(cached.collapsedProperties()).containsExactly("locale=en,fr");
+  }
+
+  @Test
+  void ignoresUnreadableCacheFile() throws IOException {
+    // Given
+    Path cacheFile = cacheDir.resolve("module-descriptors.bin");
+    Files.write(cacheFile, new byte[] {1, 2, 3});
+
+    // When
+    Descriptor descriptor = new GwtModuleDescriptorCache(cacheFile).get(MODULE, this::parse);
+
+    // Then
+    assertThat(parses).hasValue(1);
+    assertThat(descriptor.sources()).extracting(PathElement::path)
+        .containsExactly("client");
+  }
+
+  private Descriptor parse(byte[] content) {
+    parses.incrementAndGet();
+    return new GwtModuleScanner().parse(content, "test");
+  }
+}
@@ -16,19 +16,36 @@
 package org.docstr.gwt;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.InstanceOfAssertFactories.STRING;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.internal.TaskInternal;
 import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.tasks.TaskContainer;
 import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier;
 import org.gradle.internal.component.external.model.ModuleComponentArtifactIdentifier;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.gradle.jvm.toolchain.JavaLanguageVersion;
+import org.gradle.jvm.toolchain.JavaLauncher;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * A simple unit test for the 'org.docstr.gwt' plugin.
@@ -165,6 +182,10 @@ class GwtPluginTest {
       extension.getCompiler().getCacheDir().set(project.file("cacheDir"));
       extension.getCompiler().getSaveSourceOutput()
           .set(project.file("saveSourceOutput"));
+      extension.getCompiler().getUseWorkers().set(true);
+      extension.getCompiler().getUseDaemon().set(true);
+      extension.getCompiler().getDaemonIdleTimeout().set(15);
+      extension.getCompiler().getDaemonMemoryCeiling().set(70);
       extension.getCompiler().getModules().set(List.of("com.example.MyModule"));
     });
 
@@ -203,6 +224,8 @@ class GwtPluginTest {
     assertThat(task.getValidateOnly().get()).isTrue();
     assertThat(task.getSourceLevel().get()).isEqualTo("17");
     assertThat(task.getLocalWorkers().get()).isEqualTo(4);
+    // The memory lease covers the compiler and each of its workers
+    assertThat(task.forkedJvms()).isEqualTo(4 + 1);
     assertThat(task.getIncremental().get()).isTrue();
     assertThat(task.getWar().get().getAsFile()).isEqualTo(project.file("war"));
     assertThat(task.getDeploy().get().getAsFile()).isEqualTo(
@@ -213,6 +236,12 @@ class GwtPluginTest {
         project.file("cacheDir"));
     assertThat(task.getSaveSourceOutput().get().getAsFile())
         .isEqualTo(project.file("saveSourceOutput"));
+    assertThat(task.getUseWorkers().get()).isTrue();
+    assertThat(task.getUseDaemon().get()).isTrue();
+    assertThat(task.getDaemonIdleTimeout().get()).isEqualTo(15);
+    assertThat(task.getDaemonMemoryCeiling().get()).isEqualTo(70);
+    assertThat(task.getDaemonRegistryFile().get().getAsFile())
+        .hasExtension("properties");
     assertThat(task.getModules().get())
         .containsExactly("com.example.MyModule");
   }
@@ -292,6 +321,507 @@ class GwtPluginTest {
             .isPresent();
   }
 
+  @Test
+  void registerSplitCompileTasks() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    // Create a test project and apply the plugin
+    Project project = ProjectBuilder.builder().build();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    project.getPlugins().apply("org.docstr.gwt");
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getCompiler().getPermutationShards().set(3);
+      extension.getCompiler().getPermutationCacheDir()
+          .set(project.file("permutationCache"));
+      extension.getCompiler().getWar().set(project.file("war"));
+      extension.getModules().set(List.of("com.example.MyModule"));
+    });
+    ((ProjectInternal) project).evaluate();
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    TaskContainer tasks = project.getTasks();
+    TaskInternal compileTask = (TaskInternal) tasks.getByName("gwtCompile");
+    assertThat(compileTask.getTaskDependencies().getDependencies(compileTask))
+        .contains(tasks.getByName("gwtLink"));
+    assertThat(compileTask.getOnlyIf().isSatisfiedBy(compileTask)).isFalse();
+
+    GwtPrecompileTask precompileTask = (GwtPrecompileTask) tasks.getByName(
+        "gwtPrecompile");
+    assertThat(precompileTask.getModules().get())
+        .containsExactly("com.example.MyModule");
+    assertThat(precompileTask.getWar().isPresent()).isFalse();
+
+    for (int shard = 0; shard < 3; shard++) {
+      GwtCompilePermsTask permsTask = (GwtCompilePermsTask) tasks.getByName(
+          "gwtCompilePerms" + shard);
+      assertThat(permsTask.getShard().get()).isEqualTo(shard);
+      assertThat(permsTask.getShardCount().get()).isEqualTo(3);
+      assertThat(permsTask.getPrecompileDir().get())
+          .isEqualTo(precompileTask.getWorkDir().get());
+      assertThat(permsTask.getPermutationCacheDir().get().getAsFile())
+          .isEqualTo(project.file("permutationCache"));
+    }
+
+    GwtLinkTask linkTask = (GwtLinkTask) tasks.getByName("gwtLink");
+    assertThat(linkTask.getWar().get().getAsFile())
+        .isEqualTo(project.file("war"));
+    assertThat(linkTask.getPermutationDirs().getFiles()).hasSize(3);
+
+    GwtUnitCachePruneTask pruneTask = (GwtUnitCachePruneTask) tasks.getByName(
+        "gwtUnitCachePrune");
+    assertThat(pruneTask.getCacheDirs().getFiles())
+        .contains(project.file("permutationCache"));
+
+    // Permutations are dealt round-robin to the shards
+    assertThat(GwtCompilePermsTask.permutationsOfShard(5, 1, 2))
+        .containsExactly(1, 3);
+
+    // Each permutation of a precompilation has its own cache entry
+    assertThat(GwtCompilePermsTask.permutationKey("ast", "com.example.MyModule", 0))
+        .isNotEqualTo(GwtCompilePermsTask.permutationKey("ast", "com.example.MyModule", 1))
+        .isNotEqualTo(GwtCompilePermsTask.permutationKey("ast2", "com.example.MyModule", 0));
+  }
+
+  @Test
+  void recordUnitCacheStatsOnlyInTheCompilerOfSplitCompilations() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    project.getPlugins().apply("org.docstr.gwt");
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getCompiler().getPermutationShards().set(2);
+      extension.getUnitCache().getStats().set(true);
+      extension.getModules().set(List.of("com.example.MyModule"));
+    });
+    ((ProjectInternal) project).evaluate();
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    TaskContainer tasks = project.getTasks();
+    GwtPrecompileTask precompileTask = (GwtPrecompileTask) tasks.getByName(
+        "gwtPrecompile");
+    assertThat(precompileTask.getMainClass().get())
+        .isEqualTo(GwtPrecompileTask.PRECOMPILE_CLASS);
+    assertThat(precompileTask.recordsUnitCacheStats()).isFalse();
+
+    GwtCompileTask compileTask = (GwtCompileTask) tasks.getByName("gwtCompile");
+    assertThat(compileTask.recordsUnitCacheStats()).isTrue();
+  }
+
+  @Test
+  void pruneOnlyTheCacheDirectoriesThatAreSet() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    project.getPlugins().apply("org.docstr.gwt");
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getDevMode().getCacheDir().set(project.file("devModeCache"));
+    });
+    ((ProjectInternal) project).evaluate();
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    GwtUnitCachePruneTask pruneTask = (GwtUnitCachePruneTask) project.getTasks()
+        .getByName("gwtUnitCachePrune");
+    assertThat(pruneTask.getCacheDirs().getFiles()).containsExactlyInAnyOrder(
+        project.getLayout().getBuildDirectory().dir("gwt/gwt-unitCache").get().getAsFile(),
+        project.file("devModeCache"));
+  }
+
+  @Test
+  void runThePlainCompilerInJvmsOlderThanThePlugin() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+    project.getPlugins().apply("org.docstr.gwt");
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getUnitCache().getStats().set(true);
+      extension.getModules().set(List.of("com.example.MyModule"));
+    });
+    ((ProjectInternal) project).evaluate();
+    GwtCompileTask compileTask = (GwtCompileTask) project.getTasks()
+        .getByName("gwtCompile");
+    assertThat(compileTask.runsPluginClasses()).isTrue();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    JavaInstallationMetadata metadata = proxy(JavaInstallationMetadata.class,
+        "getLanguageVersion", JavaLanguageVersion.of(11));
+    compileTask.getJavaLauncher().set(proxy(JavaLauncher.class, "getMetadata", metadata));
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    assertThat(compileTask.runsPluginClasses()).isFalse();
+    assertThat(compileTask.getMainClass().get())
+        .isEqualTo(GwtCompileTask.COMPILER_CLASS);
+    assertThat(compileTask.recordsUnitCacheStats()).isFalse();
+  }
+
+  @Test
+  void registerPerModuleCompileTasks() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    // Create a test project and apply the plugin
+    Project project = ProjectBuilder.builder().build();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    project.getPlugins().apply("org.docstr.gwt");
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getCompiler().getCompilePerModule().set(true);
+      extension.getCompiler().getWar().set(project.file("war"));
+      extension.getCompiler().getWorkDir().set(project.file("workDir"));
+      extension.getCompiler().getCacheDir().set(project.file("cacheDir"));
+      extension.getCompiler().getGen().set(project.file("gen"));
+      extension.getCompiler().getDeploy().set(project.file("deploy"));
+      extension.getCompiler().getExtra().set(project.file("extra"));
+      extension.getCompiler().getSaveSourceOutput()
+          .set(project.file("saveSourceOutput"));
+      extension.getModules().set(List.of("com.example.admin.Admin",
+          "com.example.customer.Customer"));
+    });
+    ((ProjectInternal) project).evaluate();
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    TaskContainer tasks = project.getTasks();
+    TaskInternal compileTask = (TaskInternal) tasks.getByName("gwtCompile");
+    assertThat(compileTask.getTaskDependencies().getDependencies(compileTask))
+        .contains(tasks.getByName("gwtCompileAdmin"), tasks.getByName("gwtCompileCustomer"));
+    assertThat(compileTask.getOnlyIf().isSatisfiedBy(compileTask)).isFalse();
+
+    GwtCompileTask adminTask = (GwtCompileTask) tasks.getByName("gwtCompileAdmin");
+    assertThat(adminTask.getModules().get())
+        .containsExactly("com.example.admin.Admin");
+    // GWT writes every module to its own subdirectory of war
+    assertThat(adminTask.getWar().get().getAsFile()).isEqualTo(project.file("war"));
+    assertThat(adminTask.getWorkDir().get().getAsFile())
+        .isEqualTo(project.file("workDir/com.example.admin.Admin"));
+
+    GwtCompileTask customerTask = (GwtCompileTask) tasks.getByName("gwtCompileCustomer");
+    assertThat(customerTask.getModules().get())
+        .containsExactly("com.example.customer.Customer");
+
+    // Per-module tasks may run in parallel, so they share no other directory
+    assertThat(customerTask.getWar().get().getAsFile()).isEqualTo(project.file("war"));
+    assertThat(outputDirs(adminTask)).hasSize(6)
+        .doesNotContainAnyElementsOf(outputDirs(customerTask));
+
+    // Ambiguous simple names fall back to the whole module name
+    assertThat(GwtPlugin.moduleTaskName("com.example.a.App",
+        List.of("com.example.a.App", "com.example.b.App")))
+        .isEqualTo("gwtCompileComExampleAApp");
+  }
+
+  @Test
+  void shareMemoryBudgetBetweenGwtTasks() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    project.getPlugins().apply("org.docstr.gwt");
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    GwtCompileTask compileTask = (GwtCompileTask) project.getTasks()
+        .getByName("gwtCompile");
+    GwtSuperDevTask superDevTask = (GwtSuperDevTask) project.getTasks()
+        .getByName("gwtSuperDev");
+    assertThat(compileTask.getMemoryBudget().get())
+        .isSameAs(superDevTask.getMemoryBudget().get());
+
+    assertThat(GwtMemoryBudgetService.parseMemoryMb("512M")).isEqualTo(512);
+    assertThat(GwtMemoryBudgetService.parseMemoryMb("2g")).isEqualTo(2048);
+    assertThat(GwtMemoryBudgetService.parseMemoryMb("1048576k")).isEqualTo(1024);
+    assertThat(GwtMemoryBudgetService.parseMemoryMb("1073741824")).isEqualTo(1024);
+  }
+
+  @Test
+  void runGwtAppCdsBeforeGwtTasksWhenEnabled() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+    project.getPlugins().apply("org.docstr.gwt");
+    GwtPluginExtension gwt = project.getExtensions()
+        .getByType(GwtPluginExtension.class);
+    GwtCompileTask unsetTask = (GwtCompileTask) project.getTasks()
+        .getByName("gwtCompile");
+    assertThat(unsetTask.getTaskDependencies().getDependencies(unsetTask))
+        .doesNotContain(project.getTasks().getByName("gwtAppCds"));
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    gwt.getAppCds().set(true);
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    GwtAppCdsTask appCdsTask = (GwtAppCdsTask) project.getTasks()
+        .getByName("gwtAppCds");
+    GwtCompileTask compileTask = (GwtCompileTask) project.getTasks()
+        .getByName("gwtCompile");
+    assertThat(compileTask.getTaskDependencies().getDependencies(compileTask))
+        .contains(appCdsTask);
+    assertThat(compileTask.getAppCdsDir().get().getAsFile())
+        .isEqualTo(appCdsTask.getArchiveDir().get().getAsFile());
+
+    File gwtDev = new File("gwt-dev.jar");
+    File sources = new File("src/main/java");
+    assertThat(GwtAppCdsTask.gwtDevFirst(List.of(sources, gwtDev), List.of(gwtDev)))
+        .containsExactly(gwtDev, sources);
+  }
+
+  @Test
+  void useAppCdsArchiveOnlyIfNoProjectClassIsShadowed(@TempDir File projectDir)
+      throws IOException {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    File gwtDev = new File(projectDir, "gwt-dev.jar");
+    try (var out = new ZipOutputStream(new FileOutputStream(gwtDev))) {
+      out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      out.putNextEntry(new ZipEntry("com/google/gwt/dev/Compiler.class"));
+      out.putNextEntry(new ZipEntry("org/eclipse/jdt/internal/compiler/Compiler.class"));
+    }
+    File classes = new File(projectDir, "classes");
+    File manifest = new File(classes, "META-INF/MANIFEST.MF");
+    manifest.getParentFile().mkdirs();
+    Files.writeString(manifest.toPath(), "");
+    File patchedClasses = new File(projectDir, "patched");
+    File patched = new File(patchedClasses, "org/eclipse/jdt/internal/compiler/Compiler.class");
+    patched.getParentFile().mkdirs();
+    Files.writeString(patched.toPath(), "");
+
+    /*
+     * -------------------------------------------------------------------------
+     * When / Then
+     * -------------------------------------------------------------------------
+     */
+    assertThat(GwtAppCdsTask.startsWithGwtDev(List.of(gwtDev, classes), List.of(gwtDev)))
+        .isTrue();
+    assertThat(GwtAppCdsTask.startsWithGwtDev(List.of(classes, gwtDev), List.of(gwtDev)))
+        .isFalse();
+    assertThat(GwtAppCdsTask.shadowedEntry(List.of(classes, gwtDev), List.of(gwtDev)))
+        .isNull();
+    assertThat(GwtAppCdsTask.shadowedEntry(List.of(patchedClasses, gwtDev), List.of(gwtDev)))
+        .isEqualTo("org/eclipse/jdt/internal/compiler/Compiler.class of " + patchedClasses);
+    assertThat(GwtAppCdsTask.shadowedEntry(List.of(gwtDev, patchedClasses), List.of(gwtDev)))
+        .isNull();
+  }
+
+  @Test
+  void exportAndImportUnitCacheSnapshots(@TempDir File projectDir) throws IOException {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+    project.getPlugins().apply("org.docstr.gwt");
+    GwtPluginExtension gwt = project.getExtensions()
+        .getByType(GwtPluginExtension.class);
+    gwt.getCacheDir().set(project.file("gwt-unitCache"));
+    gwt.getUnitCache().getSnapshotDir().set(project.file("snapshots"));
+    gwt.getUnitCache().getImportSnapshot().set(true);
+    Files.createDirectories(projectDir.toPath().resolve("src/main/java"));
+    Files.writeString(projectDir.toPath().resolve("src/main/java/App.java"), "class App {}");
+    Path cacheFile = projectDir.toPath().resolve("gwt-unitCache/gwt-unitCache-1");
+    Files.createDirectories(cacheFile.getParent());
+    Files.writeString(cacheFile, "units");
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    GwtUnitCacheExportTask exportTask = (GwtUnitCacheExportTask) project.getTasks()
+        .getByName("gwtUnitCacheExport");
+    exportTask.export();
+    Files.delete(cacheFile);
+    GwtUnitCacheImportTask importTask = (GwtUnitCacheImportTask) project.getTasks()
+        .getByName("gwtUnitCacheImport");
+    importTask.importSnapshot();
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    assertThat(project.file("snapshots").list())
+        .singleElement(STRING)
+        .matches("gwt-unitCache-" + GwtPlugin.GWT_DEFAULT_VERSION.replace(".", "\\.")
+            + "-\\p{XDigit}{12}\\.zip");
+    assertThat(cacheFile).hasContent("units");
+    GwtCompileTask compileTask = (GwtCompileTask) project.getTasks()
+        .getByName("gwtCompile");
+    assertThat(compileTask.getTaskDependencies().getDependencies(compileTask))
+        .contains(importTask);
+  }
+
+  @Test
+  void keepAbsolutePathsOutOfCacheKeys() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+    project.getPlugins().apply("org.docstr.gwt");
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getCompiler().getSaveSourceOutput()
+          .set(project.file("saveSourceOutput"));
+      extension.getModules().set(List.of("com.example.MyModule"));
+    });
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    GwtCompileTask task = (GwtCompileTask) project.getTasks()
+        .getByName("gwtCompile");
+    var testArgs = new GwtTestConfig.GwtTestArgumentProvider(
+        project.provider(() -> "-war " + project.file("build/gwt/war") + " -logLevel INFO"),
+        project.provider(() -> null), project.getRootDir());
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    // The -saveSourceOutput path is passed by a provider, not as an @Input arg
+    assertThat(task.getArgs()).doesNotContain("-saveSourceOutput");
+    assertThat(task.getAllArguments()).containsSequence("-saveSourceOutput",
+        project.file("saveSourceOutput").getPath());
+
+    assertThat(testArgs.getRelocatableGwtArgs())
+        .isEqualTo("-war build/gwt/war -logLevel INFO".replace('/', File.separatorChar));
+  }
+
+  @Test
+  void configureGwtTestsOfTestTasksRealizedBeforeTheGwtBlock() {
+    /*
+     * -------------------------------------------------------------------------
+     * Given
+     * -------------------------------------------------------------------------
+     */
+    Project project = ProjectBuilder.builder().build();
+    project.getPlugins().apply("org.docstr.gwt");
+    var test = (org.gradle.api.tasks.testing.Test) project.getTasks().getByName("test");
+    var otherTest = project.getTasks()
+        .register("otherTest", org.gradle.api.tasks.testing.Test.class).get();
+
+    /*
+     * -------------------------------------------------------------------------
+     * When
+     * -------------------------------------------------------------------------
+     */
+    project.getExtensions().configure("gwt", ext -> {
+      GwtPluginExtension extension = (GwtPluginExtension) ext;
+      extension.getGwtTest().getTestTasks().set(List.of("test"));
+      extension.getGwtTest().getLogLevel().set("TRACE");
+    });
+    ((ProjectInternal) project).evaluate();
+
+    /*
+     * -------------------------------------------------------------------------
+     * Then
+     * -------------------------------------------------------------------------
+     */
+    assertThat(test.getJvmArgumentProviders())
+        .filteredOn(GwtTestConfig.GwtTestArgumentProvider.class::isInstance)
+        .singleElement()
+        .satisfies(provider -> assertThat(provider.asArguments())
+            .anySatisfy(arg -> assertThat(arg).startsWith("-Dgwt.args=")
+                .contains("-logLevel TRACE")));
+    // Only the test tasks listed in the gwt block run GWT tests
+    assertThat(otherTest.getJvmArgumentProviders())
+        .filteredOn(GwtTestConfig.GwtTestArgumentProvider.class::isInstance)
+        .singleElement()
+        .satisfies(provider -> assertThat(provider.asArguments()).isEmpty());
+  }
+
   @Test
   void passArgumentsFromExtensionToGwtDevModeTask() {
     /*
@@ -612,4 +1142,19 @@ class GwtPluginTest {
     assertThat(task.getModules().get())
         .containsExactly("com.example.MyModule");
   }
+
+  private static Set<File> outputDirs(GwtCompileTask task) {
+    return Stream.of(task.getWorkDir(), task.getCacheDir(),
+            task.getGen(), task.getDeploy(), task.getExtra(),
+            task.getSaveSourceOutput())
+        .map(dir -> dir.get().getAsFile())
+        .collect(Collectors.toSet());
+  }
+
+  // Stubs an interface with a single answering method
+  private static <T> T proxy(Class<T> type, String method, Object value) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[] {type}, (proxy, called, args) ->
+            method.equals(called.getName()) ? value : null));
+  }
 }
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import org.gradle.api.services.BuildServiceParameters;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtUnitCacheServiceTest {
+
+  private static final long DAY = Duration.ofDays(1).toMillis();
+
+  @TempDir
+  Path dir;
+
+  private final GwtUnitCacheService service = new GwtUnitCacheService() {
+    @Override
+    public BuildServiceParameters.None getParameters() {
+      return null;
+    }
+  };
+
+  @Test
+  void mergesOverlaysOfConcurrentTasks() throws IOException {
+    // Given
+    Path cacheDir = dir.resolve("gwt-unitCache");
+    Files.createDirectories(cacheDir);
+    Files.writeString(cacheDir.resolve("gwt-unitCache-1"), "old");
+    GwtUnitCacheService.Lease compile = service.acquire(":gwtCompile", cacheDir.toFile());
+    GwtUnitCacheService.Lease test = service.acquire(":test", cacheDir.toFile());
+    Path compileDir = compile.getDir().toPath();
+    Path testDir = test.getDir().toPath();
+
+    // When
+    assertThat(compileDir.resolve("gwt-unitCache-1")).hasContent("old");
+    // gwtCompile compacts the cache into a new file, the tests add one
+    Files.delete(compileDir.resolve("gwt-unitCache-1"));
+    Files.writeString(compileDir.resolve("gwt-unitCache-2"), "compacted");
+    Files.writeString(testDir.resolve("gwt-unitCache-3"), "test");
+    compile.close();
+    service.releaseAll(":test");
+
+    // Then
+    try (var files = Files.list(cacheDir)) {
+      assertThat(files.map(file -> file.getFileName().toString()))
+          .containsExactlyInAnyOrder("gwt-unitCache-2", "gwt-unitCache-3");
+    }
+    assertThat(testDir).doesNotExist();
+    assertThat(compileDir).doesNotExist();
+  }
+
+  @Test
+  void prunesLeastRecentlyUsedFiles() throws IOException {
+    // Given
+    Path cacheDir = dir.resolve("gwt-unitCache");
+    Files.createDirectories(cacheDir);
+    long now = System.currentTimeMillis();
+    writeCacheFile(cacheDir.resolve("gwt-unitCache-1"), 100, now - DAY * 40);
+    writeCacheFile(cacheDir.resolve("gwt-unitCache-2"), 100, now - DAY * 3);
+    writeCacheFile(cacheDir.resolve("gwt-unitCache-3"), 100, now - DAY * 2);
+    writeCacheFile(cacheDir.resolve("gwt-unitCache-4"), 100, now - DAY);
+
+    // When
+    GwtUnitCacheService.PruneResult result = service.prune(cacheDir.toFile(),
+        250, Duration.ofDays(30));
+
+    // Then
+    assertThat(result).isEqualTo(new GwtUnitCacheService.PruneResult(2, 200, 200));
+    try (var files = Files.list(cacheDir)) {
+      assertThat(files.map(file -> file.getFileName().toString()))
+          .containsExactlyInAnyOrder("gwt-unitCache-3", "gwt-unitCache-4");
+    }
+  }
+
+  @Test
+  void prunesNamespacesOfPerModuleCacheDirectories() throws IOException {
+    // Given
+    Path cacheDir = dir.resolve("gwt-unitCache");
+    Path namespace = cacheDir.resolve("com.example.App/2.12.1-000000000001");
+    Path overlay = cacheDir.resolve(
+        "com.example.App/2.12.1-000000000001-forks/app.gwtCompileApp");
+    Files.createDirectories(namespace);
+    Files.createDirectories(overlay);
+    long now = System.currentTimeMillis();
+    writeCacheFile(namespace.resolve("gwt-unitCache-1"), 100, now - DAY * 40);
+    writeCacheFile(namespace.resolve("gwt-unitCache-2"), 100, now - DAY);
+    writeCacheFile(overlay.resolve("gwt-unitCache-1"), 100, now - DAY * 40);
+    // Left by a task that merged into the namespace
+    service.acquire(":gwtCompileApp", namespace.toFile()).close();
+
+    // When
+    GwtUnitCacheService.PruneResult result = service.prune(cacheDir.toFile(),
+        -1, Duration.ofDays(30));
+
+    // Then
+    assertThat(result).isEqualTo(new GwtUnitCacheService.PruneResult(1, 100, 100));
+    assertThat(namespace.resolve("gwt-unitCache-2")).exists();
+    assertThat(overlay.resolve("gwt-unitCache-1")).exists();
+    assertThat(GwtUnitCacheService.isNamespaceControlFile(cacheDir,
+        overlay.resolve("gwt-unitCache-1"))).isTrue();
+    assertThat(GwtUnitCacheService.isNamespaceControlFile(cacheDir,
+        cacheDir.resolve("com.example.App/2.12.1-000000000001.lock"))).isTrue();
+    assertThat(GwtUnitCacheService.isNamespaceControlFile(cacheDir,
+        namespace.resolve("gwt-unitCache-2"))).isFalse();
+  }
+
+  @Test
+  void skipsCacheDirectoriesOfLiveDaemons() throws IOException {
+    // Given
+    Path cacheDir = dir.resolve("gwt-unitCache");
+    Path used = cacheDir.resolve("2.12.1-000000000001");
+    Path unused = cacheDir.resolve("2.12.1-000000000002");
+    Files.createDirectories(used);
+    Files.createDirectories(unused);
+    long now = System.currentTimeMillis();
+    writeCacheFile(used.resolve("gwt-unitCache-1"), 100, now - DAY * 40);
+    writeCacheFile(unused.resolve("gwt-unitCache-1"), 100, now - DAY * 40);
+
+    // When
+    GwtUnitCacheService.PruneResult result;
+    // Held like a compiler daemon using the namespace does
+    try (FileChannel channel = FileChannel.open(
+        cacheDir.resolve("2.12.1-000000000001" + GwtCompilerRunner.IN_USE_SUFFIX),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = channel.lock(0, Long.MAX_VALUE, true)) {
+      assertThat(GwtUnitCacheService.isUsedByLiveJvm(used)).isTrue();
+      assertThat(GwtUnitCacheService.isUsedByLiveJvm(unused)).isFalse();
+      result = service.prune(cacheDir.toFile(), -1, Duration.ofDays(30));
+    }
+
+    // Then
+    assertThat(result).isEqualTo(new GwtUnitCacheService.PruneResult(1, 100, 0));
+    assertThat(used.resolve("gwt-unitCache-1")).exists();
+    assertThat(unused.resolve("gwt-unitCache-1")).doesNotExist();
+    assertThat(GwtUnitCacheService.isUsedByLiveJvm(used)).isFalse();
+  }
+
+  @Test
+  void namespacesByGwtVersionAndCacheRelevantFlags() {
+    String namespace = GwtUnitCacheService.namespace("2.12.1",
+        List.of("-sourceLevel", "17", "-strict", "-optimize", "9", "com.example.App"));
+
+    assertThat(namespace).matches("2\\.12\\.1-\\p{XDigit}{12}");
+    assertThat(GwtUnitCacheService.namespace("2.12.1",
+        List.of("-strict", "-sourceLevel", "17", "-draftCompile", "com.example.Other")))
+        .isEqualTo(namespace);
+    assertThat(GwtUnitCacheService.namespace("2.12.1",
+        List.of("-sourceLevel", "17", "-strict", "-XclassMetadata", "com.example.App")))
+        .isNotEqualTo(namespace);
+    assertThat(GwtUnitCacheService.namespace("2.11.0",
+        List.of("-sourceLevel", "17", "-strict", "com.example.App")))
+        .startsWith("2.11.0-");
+  }
+
+  @Test
+  void deletesLeastRecentlyUsedNamespaces() throws IOException {
+    // Given
+    File cacheDir = dir.resolve("gwt-unitCache").toFile();
+    long now = System.currentTimeMillis();
+    for (String namespace : List.of("2.11.0-000000000001", "2.12.0-000000000002")) {
+      File namespaceDir = service.namespaceDir(cacheDir, namespace, 3);
+      Files.setLastModifiedTime(namespaceDir.toPath(), FileTime.fromMillis(
+          now - (namespace.startsWith("2.11") ? DAY * 2 : DAY)));
+    }
+
+    // When
+    File current = service.namespaceDir(cacheDir, "2.12.1-000000000003", 2);
+
+    // Then
+    assertThat(current).isDirectory();
+    try (var files = Files.list(cacheDir.toPath())) {
+      assertThat(files.map(file -> file.getFileName().toString()))
+          .containsExactlyInAnyOrder("2.12.0-000000000002", "2.12.1-000000000003");
+    }
+  }
+
+  @Test
+  void namesOverlaysAfterTasks() {
+    File cacheDir = new File("build/gwt/gwt-unitCache");
+
+    assertThat(GwtUnitCacheService.overlayDir(cacheDir, ":app:gwtCompile"))
+        .isEqualTo(new File("build/gwt/gwt-unitCache-forks/app.gwtCompile"));
+  }
+
+  private static void writeCacheFile(Path file, int size, long lastUsed)
+      throws IOException {
+    Files.write(file, new byte[size]);
+    FileTime time = FileTime.fromMillis(lastUsed);
+    Files.getFileAttributeView(file, BasicFileAttributeView.class)
+        .setTimes(time, time, null);
+  }
+}
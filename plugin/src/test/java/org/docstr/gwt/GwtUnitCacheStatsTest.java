@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2024 Document Node Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.docstr.gwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GwtUnitCacheStatsTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void collectsStatsFromCompilerLog() throws IOException {
+    // Given
+    GwtUnitCacheStats stats = new GwtUnitCacheStats();
+    Path cacheDir = dir.resolve("gwt-unitCache");
+    Files.createDirectories(cacheDir);
+    Files.write(cacheDir.resolve("gwt-unitCache-1"), new byte[2048]);
+
+    // When
+    stats.onMessage("Looking for previously cached Compilation Units in " + cacheDir, 0);
+    stats.onMessage("Loaded 2400 units from persistent store.", 1_500_000_000L);
+    stats.onMessage("Found 2400 cached/archived units.  Used 2350 / 2400 units from cache.",
+        2_000_000_000L);
+    stats.onMessage("Compiling module com.example.App", 2_100_000_000L);
+    stats.countCacheFiles(cacheDir);
+    stats.write(dir.resolve("stats.properties"));
+    GwtUnitCacheStats read = GwtUnitCacheStats.read(dir.resolve("stats.properties"));
+
+    // Then
+    assertThat(read.getUnitsLoaded()).isEqualTo(2400);
+    assertThat(read.getUnitsReused()).isEqualTo(2350);
+    assertThat(read.getUnitsRebuilt()).isEqualTo(50);
+    assertThat(read.getLoadMillis()).isEqualTo(1500);
+    assertThat(read.getCacheFiles()).isEqualTo(1);
+    assertThat(read.getCacheBytes()).isEqualTo(2048);
+    assertThat(read.summary())
+        .startsWith("2350 of 2400 units reused (97.9%), 50 rebuilt");
+  }
+
+  @Test
+  void writesJsonReport() throws IOException {
+    GwtUnitCacheStats stats = new GwtUnitCacheStats();
+    stats.onMessage("Found 10 cached/archived units.  Used 8 / 10 units from cache.", 0);
+
+    Path report = dir.resolve("reports/gwtCompile-unitCache.json");
+    stats.writeReport(report, ":app:gwtCompile");
+
+    assertThat(report).content()
+        .contains("\"task\": \":app:gwtCompile\"")
+        .contains("\"unitsRebuilt\": 2")
+        .contains("\"hitRate\": 0.8000");
+  }
+}